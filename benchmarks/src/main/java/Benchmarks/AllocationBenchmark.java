@@ -0,0 +1,77 @@
+package Benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.AppContext;
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+
+/**
+ * Measures the garbage one POST /messages handler invocation creates outside the database work:
+ * reading the JSON body, obtaining the services and writing the JSON response. It compares the
+ * old per-request wiring (new ObjectMapper and new services every time) with the shared
+ * AppContext wiring, using the JVM's per-thread allocation counter.
+ *
+ * Settings (system properties): bench.iterations (default 200000).
+ */
+public class AllocationBenchmark {
+    private static final byte[] BODY = ("{\"posted_by\":1,\"message_text\":\"allocation benchmark\","
+        + "\"time_posted_epoch\":1669947792}").getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        int iterations = Integer.getInteger("bench.iterations", 200000);
+        AppContext appContext = new AppContext();
+
+        Path perRequest = () -> {
+            ObjectMapper mapper = new ObjectMapper();
+            Message message = mapper.readValue(BODY, Message.class);
+            new AccountService();
+            new MessageService();
+            return mapper.writeValueAsBytes(message);
+        };
+        Path shared = () -> {
+            Message message = appContext.getMessageReader().readValue(BODY);
+            appContext.getAccountService();
+            appContext.getMessageService();
+            return appContext.getObjectMapper().writeValueAsBytes(message);
+        };
+
+        // warm up both paths so the JIT has settled before counting
+        measure(perRequest, iterations / 10);
+        measure(shared, iterations / 10);
+
+        double perRequestBytes = measure(perRequest, iterations);
+        double sharedBytes = measure(shared, iterations);
+        System.out.printf("%-24s %14s%n", "wiring", "bytes/request");
+        System.out.printf("%-24s %14.0f%n", "per-request (old)", perRequestBytes);
+        System.out.printf("%-24s %14.0f%n", "shared AppContext", sharedBytes);
+        System.out.printf("reduction: %.1fx%n", perRequestBytes / sharedBytes);
+        appContext.shutdown();
+    }
+
+    private interface Path {
+        byte[] run() throws Exception;
+    }
+
+    /**
+     * @return average bytes allocated on this thread per run of the path
+     */
+    private static double measure(Path path, int iterations) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long sink = 0;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            sink += path.run().length;
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        if (sink == 42) {
+            System.out.println(sink);
+        }
+        return (double) allocated / iterations;
+    }
+}
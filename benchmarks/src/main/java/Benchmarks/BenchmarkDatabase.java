@@ -0,0 +1,81 @@
+package Benchmarks;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.tools.RunScript;
+
+import Util.ConnectionUtil;
+import Util.SchemaMigrator;
+
+/**
+ * Recreates the schema from the SocialMedia.sql bundled in the application jar and seeds it,
+ * so every benchmark starts from the same data no matter which directory it runs in.
+ */
+public class BenchmarkDatabase {
+
+    /**
+     * drops and recreates the tables, leaving the script's one account and one message,
+     * then re-applies the migrations so the indexes match production
+     */
+    public static void reset() {
+        try (Connection connection = ConnectionUtil.getConnection();
+             Reader script = new InputStreamReader(
+                 BenchmarkDatabase.class.getClassLoader().getResourceAsStream("SocialMedia.sql"),
+                 StandardCharsets.UTF_8)) {
+            RunScript.execute(connection, script);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("drop table if exists schema_version");
+            }
+            SchemaMigrator.migrate(connection);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not reset the benchmark database", e);
+        }
+    }
+
+    /**
+     * Resets the database and adds accounts and messages in batches. Messages are spread
+     * round-robin over the accounts; account 1 is the script's testuser1.
+     * @param accounts total accounts wanted (at least 1)
+     * @param messages extra messages to insert
+     */
+    public static void seed(int accounts, int messages) {
+        reset();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO account (username, password) VALUES (?, ?)")) {
+                for (int i = 2; i <= accounts; i++) {
+                    ps.setString(1, "benchuser" + i);
+                    ps.setString(2, "password");
+                    ps.addBatch();
+                    if (i % 1000 == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)")) {
+                for (int i = 0; i < messages; i++) {
+                    ps.setInt(1, 1 + i % accounts);
+                    ps.setString(2, "benchmark message " + i + " about performance and latency");
+                    ps.setLong(3, 1669947792L + i);
+                    ps.addBatch();
+                    if (i % 1000 == 999) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not seed the benchmark database", e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package Benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Diffs two JMH JSON result files (from -rf json) so runs from different releases can be
+ * compared: prints each benchmark/parameter combination with both scores and the change.
+ *
+ * Usage: java -cp target/benchmarks.jar Benchmarks.CompareResults baseline.json candidate.json
+ */
+public class CompareResults {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("usage: CompareResults <baseline.json> <candidate.json>");
+            return;
+        }
+        Map<String, JsonNode> baseline = load(args[0]);
+        Map<String, JsonNode> candidate = load(args[1]);
+
+        System.out.printf("%-70s %14s %14s %9s%n", "benchmark", "baseline", "candidate", "change");
+        for (Map.Entry<String, JsonNode> entry : candidate.entrySet()) {
+            JsonNode after = entry.getValue().get("primaryMetric");
+            JsonNode before = baseline.containsKey(entry.getKey())
+                ? baseline.get(entry.getKey()).get("primaryMetric") : null;
+            String unit = after.get("scoreUnit").asText();
+            double afterScore = after.get("score").asDouble();
+            if (before == null) {
+                System.out.printf("%-70s %14s %10.3f %s %9s%n", entry.getKey(), "-", afterScore, unit, "new");
+                continue;
+            }
+            double beforeScore = before.get("score").asDouble();
+            double change = beforeScore == 0 ? 0 : (afterScore - beforeScore) / beforeScore * 100;
+            System.out.printf("%-70s %10.3f %s %10.3f %s %+8.1f%%%n", entry.getKey(), beforeScore, unit,
+                afterScore, unit, change);
+        }
+    }
+
+    /**
+     * @return results keyed by benchmark name plus its parameters
+     */
+    private static Map<String, JsonNode> load(String file) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(new File(file))) {
+            StringBuilder key = new StringBuilder(result.get("benchmark").asText().replace("Benchmarks.", ""));
+            JsonNode params = result.get("params");
+            if (params != null) {
+                params.fields().forEachRemaining(p -> key.append(' ').append(p.getKey()).append('=')
+                    .append(p.getValue().asText()));
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,102 @@
+package Benchmarks;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.AccountDAO;
+import DAO.InMemoryMessageRepository;
+import DAO.MessageDAO;
+import DAO.MessageRepository;
+import DAO.MessageWriteBehind;
+import Model.Account;
+import Model.Message;
+
+/**
+ * MessageDAO and AccountDAO operations against an H2 database seeded with messageCount messages
+ * spread over 1000 accounts. Reads pick random keys so the statement cache is exercised but the
+ * rows are not always the same. store=memory runs the message operations against the
+ * in-memory store instead (with H2 written behind), for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DaoBenchmark {
+    private static final int ACCOUNTS = 1000;
+
+    @Param({"1000", "100000"})
+    public int messageCount;
+
+    @Param({"h2", "memory"})
+    public String store;
+
+    private MessageRepository messageDAO;
+    private InMemoryMessageRepository memoryStore;
+    private AccountDAO accountDAO;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        BenchmarkDatabase.seed(ACCOUNTS, messageCount);
+        messageDAO = new MessageDAO();
+        if ("memory".equals(store)) {
+            memoryStore = new InMemoryMessageRepository(new MessageWriteBehind(100000, 1000, 20), 1 << 20);
+            memoryStore.load(new MessageDAO());
+            messageDAO = memoryStore;
+        }
+        accountDAO = new AccountDAO();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopStore() {
+        if (memoryStore != null) {
+            memoryStore.shutdown();
+        }
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messageDAO.getMessageById(1 + ThreadLocalRandom.current().nextInt(messageCount));
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByUser() {
+        return messageDAO.getMessagesByUser(1 + ThreadLocalRandom.current().nextInt(ACCOUNTS));
+    }
+
+    @Benchmark
+    public List<Message> getMessagesAfterPage() {
+        return messageDAO.getMessagesAfter(ThreadLocalRandom.current().nextInt(messageCount), 50);
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        return messageDAO.createMessage(new Message(1, "jmh insert", 1669947792L));
+    }
+
+    @Benchmark
+    public Account getAccountById() {
+        return accountDAO.getAccountById(1 + ThreadLocalRandom.current().nextInt(ACCOUNTS));
+    }
+
+    @Benchmark
+    public Account getAccountByUsername() {
+        return accountDAO.getAccountByUsername("benchuser" + (2 + ThreadLocalRandom.current().nextInt(ACCOUNTS - 1)));
+    }
+}
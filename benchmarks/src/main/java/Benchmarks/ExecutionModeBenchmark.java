@@ -0,0 +1,111 @@
+package Benchmarks;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+
+/**
+ * Load test comparing server.executionMode settings. For each mode it starts the API on a random
+ * port and keeps a fixed number of requests in flight against the JDBC-backed read endpoints
+ * (message, timeline and response caches and ETags switched off), then reports throughput and
+ * latency percentiles.
+ *
+ * Settings (system properties): bench.concurrency (default 1000), bench.requests (default 50000),
+ * bench.messages (default 100000), bench.modes (default jetty,executor,virtual).
+ * The virtual mode only uses virtual threads when run on Java 21+ (-Pjava21).
+ */
+public class ExecutionModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = Integer.getInteger("bench.concurrency", 1000);
+        int requests = Integer.getInteger("bench.requests", 50000);
+        int messages = Integer.getInteger("bench.messages", 100000);
+        String[] modes = System.getProperty("bench.modes", "jetty,executor,virtual").split(",");
+
+        // every request should reach the database: no cache, no 304, no cached response body
+        System.setProperty("cache.message.maxSize", "0");
+        System.setProperty("cache.timeline.maxAccounts", "0");
+        System.setProperty("etag.enabled", "false");
+        System.setProperty("cache.response.enabled", "false");
+        System.setProperty("pool.maxSize", System.getProperty("pool.maxSize", "32"));
+        BenchmarkDatabase.seed(1000, messages);
+
+        System.out.printf("%-10s %12s %10s %10s %10s %8s%n", "mode", "req/s", "p50 ms", "p99 ms", "max ms", "errors");
+        for (String mode : modes) {
+            System.setProperty("server.executionMode", mode);
+            Javalin app = new SocialMediaController().startAPI().start(0);
+            try {
+                // warm up the JIT and the connection pool before measuring
+                run(app.port(), Math.min(concurrency, 100), Math.max(requests / 10, 1000), messages);
+                Result result = run(app.port(), concurrency, requests, messages);
+                System.out.printf("%-10s %12.0f %10.2f %10.2f %10.2f %8d%n", mode, result.throughput,
+                    result.percentile(50), result.percentile(99), result.percentile(100), result.errors);
+            } finally {
+                app.stop();
+            }
+        }
+    }
+
+    /**
+     * fires requests with at most concurrency of them outstanding at once
+     */
+    private static Result run(int port, int concurrency, int requests, int messages) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        Semaphore inFlight = new Semaphore(concurrency);
+        long[] latencies = new long[requests];
+        AtomicInteger errors = new AtomicInteger();
+        List<CompletableFuture<?>> futures = new ArrayList<>(requests);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            int slot = i;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            String path = random.nextInt(4) == 0
+                ? "/accounts/" + (1 + random.nextInt(1000)) + "/messages"
+                : "/messages/" + (1 + random.nextInt(messages));
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build();
+            long sent = System.nanoTime();
+            futures.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    latencies[slot] = System.nanoTime() - sent;
+                    if (error != null || response.statusCode() != 200) {
+                        errors.incrementAndGet();
+                    }
+                    inFlight.release();
+                }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally(e -> null).join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new Result(latencies, requests / seconds, errors.get());
+    }
+
+    private static class Result {
+        final long[] sortedLatencies;
+        final double throughput;
+        final int errors;
+
+        Result(long[] latencies, double throughput, int errors) {
+            this.sortedLatencies = latencies.clone();
+            Arrays.sort(sortedLatencies);
+            this.throughput = throughput;
+            this.errors = errors;
+        }
+
+        double percentile(double p) {
+            int index = (int) Math.ceil(p / 100.0 * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))] / 1e6;
+        }
+    }
+}
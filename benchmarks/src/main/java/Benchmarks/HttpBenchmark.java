@@ -0,0 +1,90 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+
+/**
+ * End-to-end request handling: the real Javalin app on a random local port, called through
+ * java.net.http over a kept-alive connection. Includes routing, JSON and the database, but
+ * not network latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpBenchmark {
+
+    @Param({"1000", "100000"})
+    public int messageCount;
+
+    private Javalin app;
+    private HttpClient client;
+    private String baseUrl;
+
+    @Setup(Level.Trial)
+    public void start() {
+        BenchmarkDatabase.seed(1000, messageCount);
+        app = new SocialMediaController().startAPI().start(0);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        baseUrl = "http://localhost:" + app.port();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        app.stop();
+    }
+
+    @Benchmark
+    public int getMessageById() throws IOException, InterruptedException {
+        return get("/messages/" + (1 + ThreadLocalRandom.current().nextInt(messageCount)));
+    }
+
+    @Benchmark
+    public int getMessagesByUser() throws IOException, InterruptedException {
+        return get("/accounts/" + (1 + ThreadLocalRandom.current().nextInt(1000)) + "/messages");
+    }
+
+    @Benchmark
+    public int getMessagesPage() throws IOException, InterruptedException {
+        return get("/messages?after=" + ThreadLocalRandom.current().nextInt(messageCount) + "&limit=50");
+    }
+
+    @Benchmark
+    public int postMessage() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/messages"))
+            .POST(HttpRequest.BodyPublishers.ofString(
+                "{\"posted_by\":1,\"message_text\":\"jmh post\",\"time_posted_epoch\":1669947792}"))
+            .header("Content-Type", "application/json")
+            .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private int get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path)).build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
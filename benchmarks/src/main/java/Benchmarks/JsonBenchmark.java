@@ -0,0 +1,90 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import Controller.AppContext;
+import Model.Message;
+
+/**
+ * Jackson (de)serialization of Message and of message lists with the application's shared,
+ * pre-warmed mapper.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int listSize;
+
+    private ObjectReader messageReader;
+    private ObjectWriter messageWriter;
+    private ObjectReader listReader;
+    private ObjectWriter listWriter;
+    private Message message;
+    private byte[] messageJson;
+    private List<Message> list;
+    private byte[] listJson;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AppContext appContext = new AppContext();
+        messageReader = appContext.getMessageReader();
+        messageWriter = appContext.getObjectMapper().writerFor(Message.class);
+        TypeReference<List<Message>> listType = new TypeReference<List<Message>>() {};
+        listReader = appContext.getObjectMapper().readerFor(listType);
+        listWriter = appContext.getObjectMapper().writerFor(listType);
+
+        message = new Message(1, 1, "a typical message about nothing in particular", 1669947792L);
+        messageJson = messageWriter.writeValueAsBytes(message);
+        list = new ArrayList<>(listSize);
+        for (int i = 0; i < listSize; i++) {
+            list.add(new Message(i + 1, 1 + i % 100, "message number " + i, 1669947792L + i));
+        }
+        listJson = listWriter.writeValueAsBytes(list);
+        appContext.shutdown();
+    }
+
+    @Benchmark
+    public byte[] serializeMessage() throws IOException {
+        return messageWriter.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public Message deserializeMessage() throws IOException {
+        return messageReader.readValue(messageJson);
+    }
+
+    @Benchmark
+    public byte[] serializeList() throws IOException {
+        return listWriter.writeValueAsBytes(list);
+    }
+
+    @Benchmark
+    public List<Message> deserializeList() throws IOException {
+        return listReader.readValue(listJson);
+    }
+}
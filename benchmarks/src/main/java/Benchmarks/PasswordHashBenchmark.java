@@ -0,0 +1,50 @@
+package Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Util.PasswordHasher;
+
+/**
+ * Logins per second one core can verify at each auth.password.iterations setting. The benchmark
+ * runs on a single thread, so the score is per core: multiply by auth.hashing.threads for the
+ * most logins per second the hashing executor can take before its queue fills and it answers 429.
+ * Add -t N to see how far the machine scales past one core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PasswordHashBenchmark {
+
+    @Param({"10000", "100000", "310000", "600000"})
+    public int iterations;
+
+    private PasswordHasher hasher;
+    private String stored;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hasher = new PasswordHasher(iterations);
+        stored = hasher.hash("correct horse battery staple");
+    }
+
+    @Benchmark
+    public boolean login() {
+        return hasher.verify("correct horse battery staple", stored);
+    }
+}
@@ -0,0 +1,93 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.tools.RunScript;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.AccountDAO;
+import DAO.DatabaseSnapshot;
+import DAO.MessageDAO;
+import Util.ConnectionUtil;
+
+/**
+ * Restoring the whole database from a binary DatabaseSnapshot versus running an H2 SQL script of
+ * the same data (what SocialMedia.sql-style restores do). Both start from the seeded database,
+ * dumped once per trial. The default sizes keep a run short; for the production-sized comparison
+ * pass -p messageCount=10000000 (and a few GB of heap).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class RestoreBenchmark {
+    private static final int ACCOUNTS = 1000;
+
+    @Param({"100000"})
+    public int messageCount;
+
+    private Path dir;
+    private Path snapshotFile;
+    private Path scriptFile;
+    private DatabaseSnapshot snapshot;
+
+    @Setup(Level.Trial)
+    public void dump() throws IOException, SQLException {
+        BenchmarkDatabase.seed(ACCOUNTS, messageCount);
+        dir = Files.createTempDirectory("restore-benchmark");
+        snapshotFile = dir.resolve("db.bin");
+        scriptFile = dir.resolve("db.sql");
+        snapshot = new DatabaseSnapshot(new AccountDAO(), new MessageDAO());
+        if (snapshot.dump(snapshotFile) == null) {
+            throw new IllegalStateException("Could not write the benchmark snapshot");
+        }
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("SCRIPT DROP TO '" + scriptFile.toAbsolutePath() + "' TABLE account, message");
+        }
+        System.out.println("snapshot " + Files.size(snapshotFile) + " bytes, SQL script "
+            + Files.size(scriptFile) + " bytes");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(snapshotFile);
+        Files.deleteIfExists(scriptFile);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public DatabaseSnapshot.Stats binarySnapshot() {
+        return snapshot.restore(snapshotFile, account -> {}, message -> {});
+    }
+
+    @Benchmark
+    public void sqlScript() throws IOException, SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             Reader script = Files.newBufferedReader(scriptFile, StandardCharsets.UTF_8)) {
+            RunScript.execute(connection, script);
+        }
+    }
+}
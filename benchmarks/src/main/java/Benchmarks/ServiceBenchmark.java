@@ -0,0 +1,89 @@
+package Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.AccountIdIndex;
+import Service.MessageService;
+
+/**
+ * The validation path of MessageService.createMessage: text checks and the posted_by lookup in
+ * the account index. The insert itself is replaced by a DAO that returns the message unchanged,
+ * so only the service's own work is timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceBenchmark {
+
+    @Param({"10", "255"})
+    public int textLength;
+
+    private MessageService messageService;
+    private Message valid;
+    private Message blank;
+    private Message tooLong;
+    private Message unknownAccount;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkDatabase.seed(1000, 0);
+        AccountDAO accountDAO = new AccountDAO();
+        AccountIdIndex accountIdIndex = new AccountIdIndex(accountDAO);
+        accountIdIndex.load();
+        MessageDAO noInsert = new MessageDAO() {
+            @Override
+            public Message createMessage(Message message) {
+                return message;
+            }
+        };
+        messageService = new MessageService(noInsert, accountDAO, accountIdIndex);
+
+        String text = "x".repeat(textLength);
+        valid = new Message(500, text, 1669947792L);
+        blank = new Message(500, " ".repeat(textLength), 1669947792L);
+        tooLong = new Message(500, text + "x".repeat(256), 1669947792L);
+        unknownAccount = new Message(5000, text, 1669947792L);
+    }
+
+    @Benchmark
+    public Message validMessage() {
+        return messageService.createMessage(valid);
+    }
+
+    @Benchmark
+    public Message blankText() {
+        return messageService.createMessage(blank);
+    }
+
+    @Benchmark
+    public Message textTooLong() {
+        return messageService.createMessage(tooLong);
+    }
+
+    /**
+     * misses the index and falls back to the account table
+     */
+    @Benchmark
+    public Message unknownPostedBy() {
+        return messageService.createMessage(unknownAccount);
+    }
+}
@@ -0,0 +1,110 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.ShardedMessageRepository;
+import Model.Message;
+
+/**
+ * ShardedMessageRepository with 1, 2, 4 and 8 shards in a temporary directory, seeded with
+ * messageCount messages over 1000 accounts. Inserts and lookups by id run on 8 threads, where
+ * separate databases stop writers queueing on one store; getAllMessages is the scatter-gather
+ * over every shard.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardingBenchmark {
+    private static final int ACCOUNTS = 1000;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"100000"})
+    public int messageCount;
+
+    private Path dir;
+    private ShardedMessageRepository repository;
+    private int[] messageIds;
+
+    @Setup(Level.Trial)
+    public void seed() throws IOException {
+        dir = Files.createTempDirectory("sharding-benchmark");
+        repository = new ShardedMessageRepository("jdbc:h2:" + dir.toAbsolutePath() + "/shard-%d;", shards);
+        messageIds = new int[messageCount];
+        List<Message> batch = new ArrayList<>(1000);
+        int seeded = 0;
+        for (int i = 0; i < messageCount; i++) {
+            batch.add(new Message(1 + i % ACCOUNTS, "benchmark message " + i + " about performance and latency",
+                1669947792L + i));
+            if (batch.size() == 1000 || i == messageCount - 1) {
+                for (Message message : repository.createMessages(batch)) {
+                    messageIds[seeded++] = message.getMessage_id();
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteShards() throws IOException {
+        repository.shutdown();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Message createMessage() {
+        return repository.createMessage(new Message(1 + ThreadLocalRandom.current().nextInt(ACCOUNTS),
+            "jmh insert", 1669947792L));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Message getMessageById() {
+        return repository.getMessageById(messageIds[ThreadLocalRandom.current().nextInt(messageCount)]);
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByUser() {
+        return repository.getMessagesByUser(1 + ThreadLocalRandom.current().nextInt(ACCOUNTS));
+    }
+
+    @Benchmark
+    public List<Message> getMessagesAfterPage() {
+        return repository.getMessagesAfter(messageIds[ThreadLocalRandom.current().nextInt(messageCount)], 50);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages() {
+        return repository.getAllMessages();
+    }
+}
@@ -0,0 +1,414 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import DAO.AccountDAO;
+import DAO.DatabaseSnapshot;
+import DAO.InMemoryMessageRepository;
+import DAO.MeteredAccountDAO;
+import DAO.MeteredMessageRepository;
+import DAO.MessageBatchWriter;
+import DAO.MessageDAO;
+import DAO.MessageRepository;
+import DAO.MessageWal;
+import DAO.MessageWriteBehind;
+import DAO.ShardedMessageRepository;
+import Model.Account;
+import Model.Message;
+import Service.AccountIdIndex;
+import Service.AccountService;
+import Service.EncodedResponseCache;
+import Service.MessageService;
+import Service.SessionTokens;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.ExecutionMode;
+import Util.Metrics;
+import Util.PasswordHasher;
+import Util.ReplicaSet;
+import Util.SchemaMigrator;
+
+/**
+ * Builds the application's long-lived objects once: the Jackson mapper, the DAOs, the services
+ * and the executors behind them. The controller gets everything from here instead of
+ * constructing mappers and services per request, so their caches (Jackson serializers, the
+ * message cache, the account index) survive from one request to the next.
+ */
+public class AppContext {
+    private final ObjectMapper objectMapper;
+    private final ObjectReader accountReader;
+    private final ObjectReader messageReader;
+    private final ObjectReader messageListReader;
+    private final ObjectReader messageTextReader;
+    private final Metrics metrics;
+
+    private final AccountDAO accountDAO;
+    private final MessageDAO messageDAO;
+    private final InMemoryMessageRepository messageStore;
+    private final MessageWal messageWal;
+    private final ShardedMessageRepository messageShards;
+    private final MessageRepository messageRepository;
+    private final DatabaseSnapshot databaseSnapshot;
+    private final AccountIdIndex accountIdIndex;
+    private final MessageBatchWriter batchWriter;
+    private final AccountService accountService;
+    private final MessageService messageService;
+    private final SessionTokens sessionTokens;
+    private final EncodedResponseCache responseCache;
+    private final ExecutorService blockingExecutor;
+    private final ExecutorService hashingExecutor;
+
+    /**
+     * wires the default application from application.properties
+     */
+    public AppContext() {
+        objectMapper = new ObjectMapper();
+        accountReader = objectMapper.readerFor(Account.class);
+        messageReader = objectMapper.readerFor(Message.class);
+        messageListReader = objectMapper.readerFor(new TypeReference<List<Message>>() {});
+        messageTextReader = objectMapper.readerFor(new TypeReference<Map<String, String>>() {});
+
+        metrics = new Metrics();
+        accountDAO = new MeteredAccountDAO(metrics);
+        messageDAO = new MessageDAO();
+        // messages.store=memory serves messages from packed in-memory columns, made durable by
+        // writing H2 behind or by a local write-ahead log; null when messages are read from and
+        // written to H2 directly
+        boolean inMemory = "memory".equalsIgnoreCase(AppConfig.getString("messages.store", "h2"));
+        messageWal = inMemory && "wal".equalsIgnoreCase(AppConfig.getString("messages.store.durability", "h2"))
+            ? new MessageWal(Paths.get(AppConfig.getString("messages.wal.dir", "wal")),
+                AppConfig.getInt("messages.wal.segmentBytes", 64 << 20),
+                MessageWal.FsyncPolicy.fromName(AppConfig.getString("messages.wal.fsync", "group")),
+                AppConfig.getLong("messages.wal.fsyncIntervalMillis", 10))
+            : null;
+        messageStore = inMemory
+            ? new InMemoryMessageRepository(
+                messageWal != null ? messageWal : new MessageWriteBehind(
+                    AppConfig.getInt("messages.store.writeBehind.queueCapacity", 100000),
+                    AppConfig.getInt("messages.store.writeBehind.maxBatchSize", 1000),
+                    AppConfig.getLong("messages.store.writeBehind.maxDelayMillis", 20),
+                    AppConfig.getLong("messages.store.writeBehind.offerTimeoutMillis", 50)),
+                AppConfig.getInt("messages.store.arenaChunkBytes", 1 << 20))
+            : null;
+        // messages.shards > 0 spreads messages over that many H2 databases by posted_by; only
+        // for messages.store=h2, the in-memory store already keeps everything in one process
+        messageShards = inMemory ? null : ShardedMessageRepository.fromConfig();
+        if (inMemory && AppConfig.getInt("messages.shards", 0) > 0) {
+            System.out.println("messages.shards is ignored when messages.store=memory");
+        }
+        messageRepository = new MeteredMessageRepository(
+            messageStore != null ? messageStore : messageShards != null ? messageShards : messageDAO, metrics);
+        databaseSnapshot = new DatabaseSnapshot(accountDAO, messageRepository);
+        accountIdIndex = new AccountIdIndex(accountDAO);
+        // opt-in group commit for POST /messages, null when messages.groupCommit.enabled is false
+        batchWriter = AppConfig.getBoolean("messages.groupCommit.enabled", false)
+            ? new MessageBatchWriter(messageRepository,
+                AppConfig.getInt("messages.groupCommit.queueCapacity", 10000),
+                AppConfig.getInt("messages.groupCommit.maxBatchSize", 256),
+                AppConfig.getLong("messages.groupCommit.maxDelayMillis", 5))
+            : null;
+        // password hashing gets its own bounded pool so a login burst cannot take every core
+        hashingExecutor = PasswordHasher.executorFromConfig();
+        accountService = new AccountService(accountDAO, accountIdIndex, PasswordHasher.fromConfig(), hashingExecutor);
+        messageService = new MessageService(messageRepository, accountDAO, accountIdIndex, batchWriter);
+        sessionTokens = SessionTokens.fromConfig();
+        // keyed by ETag, so there is nothing to key it by when etag.enabled is false
+        responseCache = AppConfig.getBoolean("cache.response.enabled", true) && messageService.getEntityTags() != null
+            ? new EncodedResponseCache(objectMapper, AppConfig.getInt("cache.response.maxSize", 10000),
+                AppConfig.getLong("cache.response.ttlMillis", 60000),
+                AppConfig.getInt("cache.response.gzipMinBytes", 1500))
+            : null;
+        // null when handlers stay on the Jetty thread
+        blockingExecutor = ExecutionMode.fromConfig().createExecutor();
+        registerGauges();
+    }
+
+    /**
+     * Exposes the pool, cache, store and session counters already served under /admin, and
+     * the JVM's heap, GC and allocation numbers, as gauges on /metrics.
+     */
+    private void registerGauges() {
+        metrics.statsGauges("pool", ConnectionUtil::getPoolStats);
+        metrics.statsGauges("cache_message", messageService::getMessageCacheStats);
+        metrics.statsGauges("cache_timeline", messageService::getTimelineCacheStats);
+        if (responseCache != null) {
+            metrics.statsGauges("cache_response", responseCache::getStats);
+        }
+        metrics.statsGauges("search_index", messageService::getSearchIndexStats);
+        metrics.statsGauges("group_commit", messageService::getBatchWriterStats);
+        metrics.statsGauges("sessions", sessionTokens::getStats);
+        ReplicaSet replicas = ConnectionUtil.getReplicaSet();
+        if (replicas != null) {
+            metrics.statsGauges("replicas", replicas::getStats);
+        }
+        if (messageStore != null) {
+            metrics.statsGauges("message_store", messageStore::getStats);
+        }
+        if (messageWal != null) {
+            metrics.statsGauges("message_wal", messageWal::getStats);
+        }
+        metrics.registerJvmGauges();
+    }
+
+    /**
+     * Applies pending schema migrations, restores a binary snapshot if one is configured, seeds
+     * the read replicas if there are any, loads
+     * startup state (the in-memory message store when enabled, the account index, the search
+     * index) and runs each JSON type through Jackson once, so the first real
+     * requests do not pay for serializer and deserializer construction.
+     */
+    public void start() {
+        SchemaMigrator.migrate();
+        boolean restored = restoreSnapshot();
+        startReplicas();
+        if (messageWal != null) {
+            recoverMessageStore();
+        } else if (messageStore != null && !restored) {
+            messageStore.load(messageDAO);
+        }
+        if (!restored) {
+            accountIdIndex.load();
+        }
+        // a restore already fed the index, unless the write-ahead log decides what the store holds
+        if (!restored || messageWal != null) {
+            messageService.loadSearchIndex();
+        }
+        warmUpJackson();
+    }
+
+    /**
+     * Fills an empty database from snapshot.restoreFile when it is set and exists, filling the
+     * account index (and the in-memory store and search index, unless the write-ahead log owns
+     * the store) from the same pass over the file. A database that already has rows is left alone, so restarting with the
+     * setting still in place does not roll back the writes made since the first restore.
+     * @return true if the snapshot was restored
+     * @throws IllegalStateException if the restore failed, rather than start half loaded
+     */
+    private boolean restoreSnapshot() {
+        String restoreFile = AppConfig.getString("snapshot.restoreFile", "");
+        if (restoreFile.isEmpty() || !Files.exists(Paths.get(restoreFile))) {
+            return false;
+        }
+        if (messageShards != null) {
+            // a restore rewrites the main database's message table, which shards do not read
+            System.out.println("snapshot.restoreFile is ignored when messages.shards is set");
+            return false;
+        }
+        if (!databaseSnapshot.databaseIsEmpty()) {
+            System.out.println("snapshot.restoreFile is ignored: the database already has rows");
+            return false;
+        }
+        Path file = Paths.get(restoreFile);
+        Consumer<Account> onAccount = account -> accountIdIndex.add(account.getAccount_id());
+        AtomicReference<DatabaseSnapshot.Stats> stats = new AtomicReference<>();
+        if (messageWal != null) {
+            stats.set(databaseSnapshot.restore(file, onAccount, message -> {}));
+        } else if (messageStore != null) {
+            Consumer<Message> index = messageService.searchIndexLoader();
+            messageStore.load(onMessage ->
+                stats.set(databaseSnapshot.restore(file, onAccount, onMessage.andThen(index))));
+        } else {
+            stats.set(databaseSnapshot.restore(file, onAccount, messageService.searchIndexLoader()));
+        }
+        if (stats.get() == null) {
+            throw new IllegalStateException("Could not restore snapshot " + file);
+        }
+        System.out.println("Restored " + stats.get().getAccounts() + " accounts and " + stats.get().getMessages()
+            + " messages from " + file + " in " + stats.get().getMillis() + " ms");
+        return true;
+    }
+
+    /**
+     * Copies the database into its read replicas and starts shipping changes to them, or, with
+     * replicas.count at 0, removes a change log an earlier run left behind so writes stop
+     * queueing into it.
+     */
+    private void startReplicas() {
+        ReplicaSet replicas = ConnectionUtil.getReplicaSet();
+        if (replicas != null) {
+            replicas.start();
+            return;
+        }
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            ReplicaSet.uninstallChangeLog(connection);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuilds the in-memory store from the write-ahead log. A log with nothing in it yet is
+     * seeded from H2 and snapshotted, so the messages already there carry over.
+     */
+    private void recoverMessageStore() {
+        try {
+            messageStore.recover(messageWal);
+            if (messageWal.isFresh()) {
+                messageStore.load(messageDAO);
+                messageWal.writeSnapshot(messageStore.snapshotSource(messageWal));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        messageWal.startCompaction(messageStore.snapshotSource(messageWal),
+            AppConfig.getLong("messages.wal.compactionIntervalMillis", 10000));
+    }
+
+    private void warmUpJackson() {
+        try {
+            Message message = new Message(1, 1, "warm up", 1669947792L);
+            Account account = new Account(1, "warmup", "password");
+            ObjectWriter messageListWriter = objectMapper.writerFor(new TypeReference<List<Message>>() {});
+            messageReader.readValue(objectMapper.writeValueAsBytes(message));
+            accountReader.readValue(objectMapper.writeValueAsBytes(account));
+            messageTextReader.readValue("{\"message_text\":\"warm up\"}");
+            messageListReader.readValue(messageListWriter.writeValueAsBytes(Arrays.asList(message)));
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * stops the background threads owned by the context
+     */
+    public void shutdown() {
+        if (batchWriter != null) {
+            batchWriter.shutdown();
+        }
+        if (blockingExecutor != null) {
+            blockingExecutor.shutdown();
+        }
+        hashingExecutor.shutdown();
+        // after the batch writer, so messages it was still holding are made durable too
+        if (messageStore != null) {
+            messageStore.shutdown();
+        }
+        if (messageShards != null) {
+            messageShards.shutdown();
+        }
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    /**
+     * @return a reader for Account request bodies; readers are immutable and safe to share
+     */
+    public ObjectReader getAccountReader() {
+        return accountReader;
+    }
+
+    public ObjectReader getMessageReader() {
+        return messageReader;
+    }
+
+    /**
+     * @return a reader for the array body of POST /messages/batch
+     */
+    public ObjectReader getMessageListReader() {
+        return messageListReader;
+    }
+
+    /**
+     * @return a reader for the {"message_text": ...} body of PATCH /messages/{message_id}
+     */
+    public ObjectReader getMessageTextReader() {
+        return messageTextReader;
+    }
+
+    public AccountDAO getAccountDAO() {
+        return accountDAO;
+    }
+
+    public MessageDAO getMessageDAO() {
+        return messageDAO;
+    }
+
+    /**
+     * @return where the services read and write messages: the in-memory store, the shards or the H2 DAO
+     */
+    public MessageRepository getMessageRepository() {
+        return messageRepository;
+    }
+
+    /**
+     * @return the in-memory store's write-ahead log, or null unless messages.store.durability is wal
+     */
+    public MessageWal getMessageWal() {
+        return messageWal;
+    }
+
+    /**
+     * @return the in-memory message store, or null when messages.store is h2
+     */
+    public InMemoryMessageRepository getMessageStore() {
+        return messageStore;
+    }
+
+    /**
+     * @return the sharded H2 message databases, or null unless messages.shards is set
+     */
+    public ShardedMessageRepository getMessageShards() {
+        return messageShards;
+    }
+
+    /**
+     * @return dumps and restores binary snapshots of every account and message
+     */
+    public DatabaseSnapshot getDatabaseSnapshot() {
+        return databaseSnapshot;
+    }
+
+    public AccountIdIndex getAccountIdIndex() {
+        return accountIdIndex;
+    }
+
+    public AccountService getAccountService() {
+        return accountService;
+    }
+
+    public MessageService getMessageService() {
+        return messageService;
+    }
+
+    public SessionTokens getSessionTokens() {
+        return sessionTokens;
+    }
+
+    /**
+     * @return encoded bodies of message and timeline GETs, or null when cache.response.enabled
+     * or etag.enabled is false
+     */
+    public EncodedResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * @return the executor blocking handlers are offloaded to, or null to run them on the Jetty thread
+     */
+    public ExecutorService getBlockingExecutor() {
+        return blockingExecutor;
+    }
+}
@@ -1,18 +1,49 @@
 package Controller;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntFunction;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import DAO.DatabaseSnapshot;
+import DAO.InMemoryMessageRepository;
+import DAO.MessageBatchWriter;
+import DAO.MessageWal;
 import Model.Account;
 import Model.Message;
 import Service.AccountService;
+import Service.EncodedResponseCache;
+import Service.EntityTags;
 import Service.MessageService;
+import Service.PendingWriteException;
+import Service.SessionTokens;
+import Util.AppConfig;
+import Util.ConnectionUnavailableException;
+import Util.ConnectionUtil;
+import Util.Metrics;
+import Util.QueryProfiler;
+import Util.ReplicaSet;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.NotFoundResponse;
+import io.javalin.http.UnauthorizedResponse;
+import io.javalin.json.JavalinJackson;
 
 /**
  * DONE: You will need to write your own endpoints and handlers for your controller. The endpoints you will need can be
@@ -20,33 +51,304 @@ import io.javalin.http.Context;
  * refer to prior mini-project labs and lecture materials for guidance on how a controller may be built.
  */
 public class SocialMediaController {
+    /**
+     * page size used by GET /messages and GET /accounts/{account_id}/messages when no ?limit= is given
+     */
+    private static final int DEFAULT_PAGE_SIZE = AppConfig.getInt("messages.defaultPageSize", 50);
+    /**
+     * upper bound on ?limit= so a single page can never pull the whole table
+     */
+    private static final int MAX_PAGE_SIZE = AppConfig.getInt("messages.maxPageSize", 1000);
+    /**
+     * most messages POST /messages/batch creates, or GET /messages?ids= looks up, in one request
+     */
+    private static final int MAX_BATCH_SIZE = AppConfig.getInt("messages.maxBatchSize", 100);
+    /**
+     * request attribute holding the account_id of a verified session token
+     */
+    private static final String ACCOUNT_ID = "account_id";
+    /**
+     * request attribute holding System.nanoTime() when the request came in
+     */
+    private static final String STARTED = "started";
+    /**
+     * request attribute holding the ETag conditional() answered with
+     */
+    private static final String ETAG = "etag";
+
+    /**
+     * the shared mapper, DAOs and services this controller is wired with
+     */
+    private final AppContext appContext;
+    private final ObjectMapper mapper;
+    private final AccountService accountService;
+    private final MessageService messageService;
+    private final SessionTokens sessionTokens;
+    private final EntityTags entityTags;
+    private final EncodedResponseCache responseCache;
+    private final Metrics metrics;
+    /**
+     * auth.enforce: when true, requests that change messages must carry a session token
+     */
+    private final boolean enforceAuth;
+    /**
+     * admin.token: the bearer token /admin/* and /metrics want, null to switch them off
+     */
+    private final byte[] adminToken;
+    /**
+     * executor the blocking handlers run on (see server.executionMode), null to stay on the Jetty thread
+     */
+    private final ExecutorService blockingExecutor;
+
+    /**
+     * No-args constructor that wires a default AppContext
+     */
+    public SocialMediaController() {
+        this(new AppContext());
+    }
+
+    /**
+     * Constructor that accepts an already built AppContext
+     * @param appContext the context providing the mapper and services
+     */
+    public SocialMediaController(AppContext appContext) {
+        this.appContext = appContext;
+        this.mapper = appContext.getObjectMapper();
+        this.accountService = appContext.getAccountService();
+        this.messageService = appContext.getMessageService();
+        this.sessionTokens = appContext.getSessionTokens();
+        this.entityTags = messageService.getEntityTags();
+        this.responseCache = appContext.getResponseCache();
+        this.metrics = appContext.getMetrics();
+        this.enforceAuth = AppConfig.getBoolean("auth.enforce", false);
+        String adminToken = AppConfig.getString("admin.token", "");
+        this.adminToken = adminToken.isEmpty() ? null : adminToken.getBytes(StandardCharsets.UTF_8);
+        this.blockingExecutor = appContext.getBlockingExecutor();
+    }
+
     /**
      * In order for the test cases to work, you will need to write the endpoints in the startAPI() method, as the test
      * suite must receive a Javalin object from this method.
      * @return a Javalin app object which defines the behavior of the Javalin controller.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
-        app.post("/register", this::registerHandler);
-        app.post("/login", this::loginHandler);
-        app.post("/messages", this::messagesHandler);
-        app.get("/messages", this::getAllMessagesHandler);
-        app.get("/messages/{message_id}", this::getMessageByIdHandler); // get localhost:8080/messages/{message_id} #5
-        app.delete("/messages/{message_id}", this::deleteMessageByIdHandler);// delete localhost:8080/messages/{message_id} #6
-        app.patch("/messages/{message_id}", this::patchMessageByIdHandler);// patch localhost:8080/messages/{message_id} #7
-        app.get("/accounts/{account_id}/messages", this::getAllMessageByAccountIdHandler);// get localhost:8080/accounts/{account_id}/messages #8
+        appContext.start();
+        // ctx.json() serializes with the same pre-warmed mapper the handlers read with
+        Javalin app = Javalin.create(config -> config.jsonMapper(new JavalinJackson(mapper)));
+        app.before(context -> context.attribute(STARTED, System.nanoTime()));
+        // on the Jetty thread: checking a token is cheap and never touches the database
+        app.before(this::authenticate);
+        app.after(this::recordRequest);
+        app.post("/register", blocking(this::registerHandler));
+        app.post("/login", blocking(this::loginHandler));
+        app.post("/logout", this::logoutHandler);
+        app.post("/messages", blocking(this::messagesHandler));
+        app.post("/messages/batch", blocking(this::messagesBatchHandler));
+        app.get("/messages", blocking(this::getAllMessagesHandler));
+        // before /messages/{message_id}, so "search" is not taken for an id
+        app.get("/messages/search", blocking(this::searchMessagesHandler));
+        app.get("/messages/{message_id}", conditional(entityTags == null ? null : entityTags::messageTag,
+            "message_id", blocking(this::getMessageByIdHandler))); // get localhost:8080/messages/{message_id} #5
+        app.delete("/messages/{message_id}", blocking(this::deleteMessageByIdHandler));// delete localhost:8080/messages/{message_id} #6
+        app.patch("/messages/{message_id}", blocking(this::patchMessageByIdHandler));// patch localhost:8080/messages/{message_id} #7
+        app.get("/accounts/{account_id}/messages", conditional(entityTags == null ? null : entityTags::timelineTag,
+            "account_id", blocking(this::getAllMessageByAccountIdHandler)));// get localhost:8080/accounts/{account_id}/messages #8
+        app.get("/metrics", this::metricsHandler);
+        app.get("/admin/pool", this::poolStatsHandler);
+        app.get("/admin/queries", this::queryStatsHandler);
+        app.get("/admin/caches", this::cacheStatsHandler);
+        app.get("/admin/batching", this::batchingStatsHandler);
+        app.get("/admin/store", this::storeStatsHandler);
+        app.get("/admin/wal", this::walStatsHandler);
+        app.get("/admin/sessions", this::sessionStatsHandler);
+        app.get("/admin/replicas", this::replicaStatsHandler);
+        app.post("/admin/snapshot", blocking(this::snapshotHandler));
+
+        // the group-commit queue or the request executor is full: tell the client to back off and retry
+        app.exception(RejectedExecutionException.class, (e, context) -> context.status(429));
+        // thrown by authenticate(); answered with an empty body like every other 401
+        app.exception(UnauthorizedResponse.class, (e, context) -> context.status(401));
+        // thrown by authenticate() for the admin routes while admin.token is unset
+        app.exception(NotFoundResponse.class, (e, context) -> context.status(404));
+        // no database connection within pool.acquireTimeoutMillis: overloaded, worth retrying later
+        app.exception(ConnectionUnavailableException.class, (e, context) -> context.status(503));
+        // the message was queued and may still be written; not 429, which would invite a duplicate
+        app.exception(PendingWriteException.class, (e, context) -> context.status(504));
+        app.events(event -> event.serverStopped(appContext::shutdown));
         app.get("example-endpoint", this::exampleHandler);
 
         return app;
     }
 
-    private void registerHandler(Context context) throws JsonProcessingException {
-        // OM mapper object to map json to account body of account object
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(context.body(), Account.class);
+    /**
+     * Wraps a handler that blocks on JDBC. In the executor and virtual thread modes the handler is
+     * run on blockingExecutor through ctx.future(), which releases the Jetty thread while it waits.
+     * @param handler the blocking handler
+     * @return the handler to register with Javalin
+     */
+    private Handler blocking(Handler handler) {
+        ReplicaSet replicas = ConnectionUtil.getReplicaSet();
+        Handler reading = replicas == null ? handler : context -> readingOwnWrites(context, replicas, handler);
+        if (blockingExecutor == null) {
+            return reading;
+        }
+        return context -> context.future(() -> CompletableFuture.runAsync(() -> {
+            try {
+                reading.handle(context);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, blockingExecutor));
+    }
+
+    /**
+     * Answers a GET whose If-None-Match names the current ETag with 304, on the Jetty thread and
+     * without calling the handler; any other request gets the ETag header and goes on to the
+     * handler. The tag is read before the handler loads anything, so a write landing in between
+     * can only make the tag older than the body, which the next request then refetches.
+     * @param tagOf the ETag for the id in the path parameter, or null when etag.enabled is false
+     * @param pathParam the path parameter holding the id
+     * @param handler the handler producing the full response
+     */
+    private Handler conditional(IntFunction<String> tagOf, String pathParam, Handler handler) {
+        if (tagOf == null) {
+            return handler;
+        }
+        return context -> {
+            int id;
+            try {
+                id = Integer.parseInt(context.pathParam(pathParam));
+            } catch (NumberFormatException e) {
+                // not an id, let the handler answer as it always has
+                handler.handle(context);
+                return;
+            }
+            String etag = tagOf.apply(id);
+            context.header("ETag", etag);
+            context.attribute(ETAG, etag);
+            if (EntityTags.matches(context.header("If-None-Match"), etag)) {
+                context.status(304);
+                return;
+            }
+            handler.handle(context);
+        };
+    }
+
+    /**
+     * Runs the handler with a read floor, so its reads come from the primary until a replica has
+     * the latest write to the message in the path, to the account in the path (its timeline),
+     * or by the account the request is authenticated as. Runs on the thread that handles the
+     * request, where the DAOs will look for the floor.
+     */
+    private void readingOwnWrites(Context context, ReplicaSet replicas, Handler handler) throws Exception {
+        Map<String, String> path = context.pathParamMap();
+        long floor = replicas.lastWrite(pathId(path, "account_id"), pathId(path, "message_id"));
+        Integer accountId = context.attribute(ACCOUNT_ID);
+        if (accountId != null) {
+            floor = ReplicaSet.later(floor, replicas.lastWrite(accountId, 0));
+        }
+        ReplicaSet.setReadFloor(floor);
+        try {
+            handler.handle(context);
+        } finally {
+            ReplicaSet.clearReadFloor();
+        }
+    }
+
+    /**
+     * @return the numeric path parameter, or 0 if it is missing or not a number
+     */
+    private static int pathId(Map<String, String> path, String name) {
+        String value = path.get(name);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Before filter: a request with an Authorization: Bearer token has the token's account_id
+     * stored in the ACCOUNT_ID attribute, or is refused with 401 if the token is forged, expired
+     * or revoked. Requests without a token pass through, unless auth.enforce is on and they
+     * change messages. /admin/* and /metrics are 404 while admin.token is unset, and otherwise
+     * need it as their bearer token, whatever auth.enforce says.
+     */
+    private void authenticate(Context context) {
+        String path = context.path();
+        if (path.startsWith("/admin/") || path.equals("/metrics")) {
+            authorizeAdmin(context);
+            return;
+        }
+        String token = bearerToken(context);
+        if (token == null) {
+            if (enforceAuth && context.method() != HandlerType.GET && path.startsWith("/messages")) {
+                throw new UnauthorizedResponse();
+            }
+            return;
+        }
+        int accountId = sessionTokens.verify(token);
+        if (accountId < 0) {
+            throw new UnauthorizedResponse();
+        }
+        context.attribute(ACCOUNT_ID, accountId);
+    }
+
+    private void authorizeAdmin(Context context) {
+        if (adminToken == null) {
+            throw new NotFoundResponse();
+        }
+        String token = bearerToken(context);
+        // compared in constant time, so the token cannot be guessed a byte at a time
+        if (token == null || !MessageDigest.isEqual(adminToken, token.getBytes(StandardCharsets.UTF_8))) {
+            throw new UnauthorizedResponse();
+        }
+    }
+
+    /**
+     * @return the token from an Authorization: Bearer header, or null
+     */
+    private static String bearerToken(Context context) {
+        String header = context.header("Authorization");
+        if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return null;
+        }
+        return header.substring(7).trim();
+    }
+
+    /**
+     * A request authenticated as another account than the owner is answered with 403.
+     * Requests without a token are left to auth.enforce, see authenticate().
+     * @return true if the request may act on the owner's messages
+     */
+    private boolean actsFor(Context context, int owner) {
+        Integer accountId = context.attribute(ACCOUNT_ID);
+        if (accountId != null && accountId != owner) {
+            context.status(403);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * actsFor() with the poster of the message as owner. Requests without a token skip the lookup.
+     */
+    private boolean actsForOwnerOf(Context context, int messageId) {
+        if (context.attribute(ACCOUNT_ID) == null) {
+            return true;
+        }
+        Message message = messageService.getMessageById(messageId);
+        return message == null || actsFor(context, message.getPosted_by());
+    }
+
+    private void registerHandler(Context context) throws IOException {
+        // shared reader to map the json body to an account object
+        Account account = appContext.getAccountReader().readValue(context.bodyAsBytes());
         
         // use the AccountService layer to register the account
-        AccountService accountService = new AccountService();
         Account createdAccount = accountService.registerAccount(account);
 
         // if account creation failed (already exists or else) return 400
@@ -58,32 +360,43 @@ public class SocialMediaController {
         context.status(200).json(createdAccount);
     }
 
-    private void loginHandler(Context context) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(context.body(), Account.class);
+    private void loginHandler(Context context) throws IOException {
+        Account account = appContext.getAccountReader().readValue(context.bodyAsBytes());
 
         // username match & password check 
         // Half done: add verification once service layer is implemented
-        AccountService accountService = new AccountService();
         Account existingAccount = accountService.login(account); 
 
         // one we implement service layers and the login is successful we would be able to provide the json data upon successful login
         if (existingAccount != null) {
+            // the body stays the account; the session token for later requests goes in a header
+            context.header("X-Session-Token", sessionTokens.issue(existingAccount.getAccount_id()));
             context.status(200).json(existingAccount);
         } else {
             context.status(401); // if login not successful we are asked to return (Unauthorized #401)
         }
+    }
 
-        // future goals - implement  a Session token to allow the user to securily use the site/ authorize themselves
+    /**
+     * Handler for POST /logout: revokes the Authorization: Bearer token until it expires.
+     * The before filter has already refused invalid tokens, so only a missing one is left to answer 401.
+     */
+    private void logoutHandler(Context context) {
+        if (!sessionTokens.revoke(bearerToken(context))) {
+            context.status(401);
+            return;
+        }
+        context.status(200);
     }
 
-    private void messagesHandler(Context context) throws JsonProcessingException {
-        //ObjectMapper and Account object declarations
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(context.body(), Message.class);
+    private void messagesHandler(Context context) throws IOException {
+        // shared reader to map the json body to a message object
+        Message message = appContext.getMessageReader().readValue(context.bodyAsBytes());
+        if (!actsFor(context, message.getPosted_by())) {
+            return;
+        }
 
-        // use the MessageService to create a MS object and the message
-        MessageService messageService = new MessageService();
+        // use the MessageService to create the message
         Message createdMessage = messageService.createMessage(message);
         
         // if message creation failed, return 400
@@ -96,20 +409,155 @@ public class SocialMediaController {
         context.status(200).json(createdMessage);
     }
     
-    private void getAllMessagesHandler(Context context) throws JsonProcessingException {
-        MessageService messageService = new MessageService();
-        // List<Message> messages object to hold
-        List<Message> messages = messageService.getAllMessages(); 
-        //return all messagess
+    /**
+     * Handler for POST /messages/batch: creates every message in the array, or none of them and
+     * answers 400 if any is invalid, and returns them with their new ids in the same order.
+     * More than messages.maxBatchSize messages is a 400 too.
+     */
+    private void messagesBatchHandler(Context context) throws IOException {
+        List<Message> messages = appContext.getMessageListReader().readValue(context.bodyAsBytes());
+        if (messages == null || messages.isEmpty() || messages.size() > MAX_BATCH_SIZE || messages.contains(null)) {
+            context.status(400);
+            return;
+        }
+        for (Message message : messages) {
+            if (!actsFor(context, message.getPosted_by())) {
+                return;
+            }
+        }
+
+        List<Message> createdMessages = messageService.createMessages(messages);
+        if (createdMessages == null) {
+            context.status(400);
+            return;
+        }
+        context.status(200).json(createdMessages);
+    }
+
+    private void getAllMessagesHandler(Context context) throws IOException {
+        // ?ids=1,2,3: those messages only, looked up together
+        String idsParam = context.queryParam("ids");
+        if (idsParam != null) {
+            getMessagesByIds(context, idsParam);
+            return;
+        }
+
+        String afterParam = context.queryParam("after");
+        String limitParam = context.queryParam("limit");
+
+        // no paging parameters: stream the whole table row by row instead of building a list
+        if (afterParam == null && limitParam == null) {
+            streamAllMessages(context);
+            return;
+        }
+
+        int after;
+        int limit;
+        try {
+            after = afterParam == null ? 0 : Integer.parseInt(afterParam);
+            limit = limitParam == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limitParam);
+        } catch (NumberFormatException e) {
+            context.status(400);
+            return;
+        }
+        if (after < 0 || limit < 1) {
+            context.status(400);
+            return;
+        }
+        limit = Math.min(limit, MAX_PAGE_SIZE);
+
+        List<Message> messages = messageService.getMessagesAfter(after, limit);
+        // a full page means there may be more, so hand the client the cursor for the next one
+        if (messages.size() == limit) {
+            context.header("X-Next-After", String.valueOf(messages.get(messages.size() - 1).getMessage_id()));
+        }
         context.status(200).json(messages);
     }
+
+    /**
+     * Answers GET /messages?ids=1,2,3 with one entry per id, in the order given: the message,
+     * or null if there is none. 400 if an id is not a number or there are more than
+     * messages.maxBatchSize of them.
+     */
+    private void getMessagesByIds(Context context, String idsParam) {
+        String[] parts = idsParam.split(",");
+        if (parts.length > MAX_BATCH_SIZE) {
+            context.status(400);
+            return;
+        }
+        int[] ids = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                ids[i] = Integer.parseInt(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            context.status(400);
+            return;
+        }
+        context.status(200).json(messageService.getMessagesByIds(ids));
+    }
+
+    /**
+     * Handler for GET /messages/search?q=&limit=: the newest messages matching every word,
+     * "quoted phrase" and prefix* in q. 400 without a q, 404 when search.enabled is false.
+     */
+    private void searchMessagesHandler(Context context) {
+        String query = context.queryParam("q");
+        String limitParam = context.queryParam("limit");
+        int limit;
+        try {
+            limit = limitParam == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limitParam);
+        } catch (NumberFormatException e) {
+            context.status(400);
+            return;
+        }
+        if (query == null || query.isBlank() || limit < 1) {
+            context.status(400);
+            return;
+        }
+        List<Message> messages = messageService.searchMessages(query, Math.min(limit, MAX_PAGE_SIZE));
+        if (messages == null) {
+            context.status(404);
+            return;
+        }
+        context.status(200).json(messages);
+    }
+
+    /**
+     * Writes the messages as a JSON array directly to the response as they come off the
+     * ResultSet, so memory use does not grow with the size of the table.
+     */
+    private void streamAllMessages(Context context) throws IOException {
+        context.status(200).contentType("application/json");
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(context.outputStream())) {
+            generator.writeStartArray();
+            messageService.streamAllMessages(message -> {
+                try {
+                    generator.writeObject(message);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        } catch (UncheckedIOException e) {
+            // the client went away mid-stream, nothing left to send
+            System.out.println(e.getMessage());
+        }
+    }
     
-    private void getMessageByIdHandler(Context context) throws JsonProcessingException {
+    private void getMessageByIdHandler(Context context) throws IOException {
         // Extract message_id from path parameter
         int messageId = Integer.parseInt(context.pathParam("message_id"));
 
-        // get the message from service layer
-        MessageService messageService = new MessageService();
+        String etag = context.attribute(ETAG);
+        if (responseCache != null && etag != null) {
+            // the tag names the message's version, so the body encoded for it still holds
+            writeEncoded(context, responseCache.get(etag,
+                key -> responseCache.encode(messageService.getMessageById(messageId))));
+            return;
+        }
+
+        // get the message from service layer (served from its cache when possible)
         Message message = messageService.getMessageById(messageId);
 
         // return the message with status 200 always
@@ -125,12 +573,14 @@ public class SocialMediaController {
     private void deleteMessageByIdHandler(Context context) throws JsonProcessingException {
         // Extract message_id from path parameter
         int messageId = Integer.parseInt(context.pathParam("message_id"));
+        if (!actsForOwnerOf(context, messageId)) {
+            return;
+        }
 
         // Debug: Print message ID
         // System.out.println("Deleting message with ID: " + messageId);
 
         // call the service layer to delete the message
-        MessageService messageService = new MessageService();
         Message deletedMessage = messageService.deleteMessage(messageId); 
 
         // Debug: Check if message was found
@@ -149,19 +599,20 @@ public class SocialMediaController {
         }
     }
 
-    private void patchMessageByIdHandler(Context context) throws JsonProcessingException {
+    private void patchMessageByIdHandler(Context context) throws IOException {
         // Extract message_id from path parameter
         int messageId = Integer.parseInt(context.pathParam("message_id"));
+        if (!actsForOwnerOf(context, messageId)) {
+            return;
+        }
 
-        // use OM class to create an OM object  to directly map the JSON to a Map collection
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String, String> requestMap = mapper.readValue(context.body(), new TypeReference<Map<String, String>>() {});
+        // use the shared reader to directly map the JSON to a Map collection
+        Map<String, String> requestMap = appContext.getMessageTextReader().readValue(context.bodyAsBytes());
 
         // get the message_text from the map
         String newMessageText = requestMap.get("message_text");
 
         // call the service layer to update the message
-        MessageService messageService = new MessageService();
         Message updatedMessage = messageService.updateMessageText(messageId, newMessageText); 
 
         // if the message update was successful (not null), return 200 with the updated message
@@ -174,18 +625,251 @@ public class SocialMediaController {
 
     }
 
-    private void getAllMessageByAccountIdHandler(Context context) throws JsonProcessingException {
+    private void getAllMessageByAccountIdHandler(Context context) throws IOException {
         // Extract account_id from path parameter
         int accountId = Integer.parseInt(context.pathParam("account_id"));
+        String beforeParam = context.queryParam("before");
+        String limitParam = context.queryParam("limit");
+        String etag = context.attribute(ETAG);
+
+        // no paging parameters: the whole timeline, newest first
+        if (beforeParam == null && limitParam == null) {
+            if (responseCache != null && etag != null) {
+                writeEncoded(context, responseCache.get(etag,
+                    key -> responseCache.encode(messageService.getMessagesByUser(accountId))));
+                return;
+            }
+            // get all message from the user via the service layer
+            List<Message> userMessages = messageService.getMessagesByUser(accountId);
+
+            // return the message in json with status 200
+            context.status(200).json(userMessages);
+            return;
+        }
+
+        // the cursor is "time_posted_epoch:message_id" of the last message already seen, or just
+        // a time_posted_epoch to start below that second
+        Long beforeTime = null;
+        int beforeId = Integer.MAX_VALUE;
+        int limit;
+        try {
+            if (beforeParam != null) {
+                int separator = beforeParam.indexOf(':');
+                if (separator < 0) {
+                    beforeTime = Long.parseLong(beforeParam);
+                } else {
+                    beforeTime = Long.parseLong(beforeParam.substring(0, separator));
+                    beforeId = Integer.parseInt(beforeParam.substring(separator + 1));
+                }
+            }
+            limit = limitParam == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limitParam);
+        } catch (NumberFormatException e) {
+            context.status(400);
+            return;
+        }
+        if (limit < 1) {
+            context.status(400);
+            return;
+        }
+        limit = Math.min(limit, MAX_PAGE_SIZE);
+
+        if (responseCache != null && etag != null) {
+            // every page of the timeline shares its tag, so the cursor and limit pick the entry
+            Long time = beforeTime;
+            int id = beforeId;
+            int size = limit;
+            writeEncoded(context, responseCache.get(etag + "?" + beforeTime + ":" + beforeId + ":" + limit,
+                key -> encodeTimelinePage(accountId, time, id, size)));
+            return;
+        }
+
+        List<Message> messages = messageService.getMessagesByUser(accountId, beforeTime, beforeId, limit);
+        // a full page means there may be more, so hand the client the cursor for the next one
+        String next = nextBefore(messages, limit);
+        if (next != null) {
+            context.header("X-Next-Before", next);
+        }
+        context.status(200).json(messages);
+    }
+
+    private EncodedResponseCache.Encoded encodeTimelinePage(int accountId, Long beforeTime, int beforeId, int limit) {
+        List<Message> messages = messageService.getMessagesByUser(accountId, beforeTime, beforeId, limit);
+        String next = nextBefore(messages, limit);
+        return next == null ? responseCache.encode(messages) : responseCache.encode(messages, "X-Next-Before", next);
+    }
+
+    /**
+     * @return the cursor of the page after a full one, or null if this page is the last
+     */
+    private static String nextBefore(List<Message> messages, int limit) {
+        if (messages.size() < limit) {
+            return null;
+        }
+        Message last = messages.get(messages.size() - 1);
+        return last.getTime_posted_epoch() + ":" + last.getMessage_id();
+    }
+
+    /**
+     * Writes a body from the response cache as it is, gzip encoded if the client accepts gzip
+     * and the body is long enough. Both go straight to the servlet response: Javalin would
+     * otherwise compress the gzip bytes a second time, or compress the JSON anew each request.
+     * The gzip body is sent under its own ETag (EntityTags.gzipTag), and conditional() takes either.
+     */
+    private void writeEncoded(Context context, EncodedResponseCache.Encoded encoded) throws IOException {
+        context.status(200);
+        if (encoded.getHeaderName() != null) {
+            context.header(encoded.getHeaderName(), encoded.getHeaderValue());
+        }
+        byte[] body = encoded.getJson();
+        if (body.length == 0) {
+            // no such message: 200 with an empty body, as ever
+            return;
+        }
+        context.contentType("application/json");
+        String acceptEncoding = context.header("Accept-Encoding");
+        byte[] gzip = acceptEncoding != null && acceptEncoding.contains("gzip") ? encoded.getGzip() : null;
+        if (gzip != null) {
+            context.header("Content-Encoding", "gzip");
+            String etag = context.attribute(ETAG);
+            if (etag != null) {
+                // the gzip bytes are a different representation, so they get a tag of their own
+                context.header("ETag", EntityTags.gzipTag(etag));
+            }
+            body = gzip;
+        }
+        context.header("Vary", "Accept-Encoding");
+        context.res().getOutputStream().write(body);
+    }
+
+
+    /**
+     * After filter: times the request under its route template (not the raw path, so
+     * /messages/1 and /messages/2 share one timer), method and status.
+     */
+    private void recordRequest(Context context) {
+        Long started = context.attribute(STARTED);
+        if (started == null) {
+            return;
+        }
+        String route = context.endpointHandlerPath();
+        if (!route.startsWith("/")) {
+            // Javalin's placeholder when no endpoint matched; keep unknown paths out of the labels
+            route = "unmatched";
+        }
+        metrics.timer("http_server_requests_seconds", "Time from the first before filter to the last after filter",
+            "method=\"" + context.method() + "\",route=\"" + Metrics.escape(route) + "\",status=\""
+                + context.statusCode() + "\"").record(started);
+    }
+
+    /**
+     * Handler for GET /metrics: every timer and gauge in the Prometheus text format
+     */
+    private void metricsHandler(Context context) {
+        context.status(200).contentType("text/plain; version=0.0.4; charset=utf-8").result(metrics.scrape());
+    }
+
+    private void poolStatsHandler(Context context) {
+        // expose the connection pool counters so the pool can be sized for the request rate
+        context.status(200).json(ConnectionUtil.getPoolStats());
+    }
+
+
+    /**
+     * Handler for GET /admin/queries?limit=: the statements with the most total time over the
+     * last one to two profiler windows, with their EXPLAIN plan if they were ever slow.
+     * 404 when profiler.enabled is false.
+     */
+    private void queryStatsHandler(Context context) {
+        QueryProfiler profiler = ConnectionUtil.getQueryProfiler();
+        if (profiler == null) {
+            context.status(404);
+            return;
+        }
+        String limitParam = context.queryParam("limit");
+        int limit;
+        try {
+            limit = limitParam == null ? AppConfig.getInt("profiler.topN", 20) : Integer.parseInt(limitParam);
+        } catch (NumberFormatException e) {
+            context.status(400);
+            return;
+        }
+        if (limit < 1) {
+            context.status(400);
+            return;
+        }
+        context.status(200).json(profiler.getStats(limit));
+    }
 
-        // get all message from the user via the service layer
-        MessageService messageService = new MessageService();
-        List<Message> userMessages = messageService.getMessagesByUser(accountId); 
+    private void cacheStatsHandler(Context context) {
+        Map<String, Object> caches = new LinkedHashMap<>();
+        caches.put("message", messageService.getMessageCacheStats());
+        caches.put("timeline", messageService.getTimelineCacheStats());
+        caches.put("search", messageService.getSearchIndexStats());
+        if (responseCache != null) {
+            caches.put("response", responseCache.getStats());
+        }
+        context.status(200).json(caches);
+    }
 
-        // return the message in json with status 200
-        context.status(200).json(userMessages);
 
+    private void batchingStatsHandler(Context context) {
+        MessageBatchWriter.Stats stats = messageService.getBatchWriterStats();
+        if (stats == null) {
+            // group commit is switched off
+            context.status(404);
+            return;
+        }
+        context.status(200).json(stats);
+    }
+
+
+    private void storeStatsHandler(Context context) {
+        InMemoryMessageRepository store = appContext.getMessageStore();
+        if (store == null) {
+            // messages are kept in H2 only
+            context.status(404);
+            return;
+        }
+        context.status(200).json(store.getStats());
+    }
 
+    /**
+     * Dumps every account and message to a new binary snapshot under snapshot.dir, which
+     * snapshot.restoreFile can point at on the next start.
+     */
+    private void snapshotHandler(Context context) {
+        Path file = Paths.get(AppConfig.getString("snapshot.dir", "snapshots"),
+            "snapshot-" + System.currentTimeMillis() + ".bin");
+        DatabaseSnapshot.Stats stats = appContext.getDatabaseSnapshot().dump(file);
+        if (stats == null) {
+            context.status(500);
+            return;
+        }
+        context.status(200).json(stats);
+    }
+
+    private void replicaStatsHandler(Context context) {
+        ReplicaSet replicas = ConnectionUtil.getReplicaSet();
+        if (replicas == null) {
+            // every read goes to the primary
+            context.status(404);
+            return;
+        }
+        context.status(200).json(replicas.getStats());
+    }
+
+    private void sessionStatsHandler(Context context) {
+        context.status(200).json(sessionTokens.getStats());
+    }
+
+    private void walStatsHandler(Context context) {
+        MessageWal wal = appContext.getMessageWal();
+        if (wal == null) {
+            // the in-memory store is off, or writes H2 behind instead of logging
+            context.status(404);
+            return;
+        }
+        context.status(200).json(wal.getStats());
     }
 
 
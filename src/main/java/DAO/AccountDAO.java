@@ -2,35 +2,27 @@ package DAO;
 
 import Model.Account;
 import Util.ConnectionUtil;
+import Util.ReplicaSet;
 
 import java.sql.*;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 public class AccountDAO {
+    /**
+     * read replicas of the main database, null when there are none
+     */
+    private final ReplicaSet replicas = ConnectionUtil.getReplicaSet();
+
     /**
      * Retrieves an account by username
      * @param username the username to search for
      * @return the Account if found, null otherwise
      */
     public Account getAccountByUsername(String username) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "SELECT * FROM account WHERE username = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, username);
-
-            ResultSet rs = preparedStatement.executeQuery();
-            if (rs.next()) {
-                Account account = new Account(
-                    rs.getInt("account_id"),
-                    rs.getString("username"),
-                    rs.getString("password")
-                );
-                return account;
-            }
-        } catch (SQLException e) {
-            System.out.println(e.getMessage());
-        }
-        return null;
+        return findAccount("SELECT * FROM account WHERE username = ?", username);
     }
 
     /**
@@ -39,20 +31,35 @@ public class AccountDAO {
      * @return the Account if found, null otherwise
      */
     public Account getAccountById(int account_id) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "SELECT * FROM account WHERE account_id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, account_id);
-
-            ResultSet rs = preparedStatement.executeQuery();
-            if (rs.next()) {
-                Account account = new Account (
-                    rs.getInt("account_id"),
-                    rs.getString("username"),
-                    rs.getString("password")
-                );
-                return account;
+        return findAccount("SELECT * FROM account WHERE account_id = ?", account_id);
+    }
+
+    /**
+     * looks the account up on a replica, and on the primary if the replica does not have it
+     * (it may just have registered)
+     */
+    private Account findAccount(String sql, Object key) {
+        Account account = findAccount(ConnectionUtil.getReadConnection(), sql, key);
+        if (account == null && replicas != null) {
+            account = findAccount(ConnectionUtil.getConnection(), sql, key);
+        }
+        return account;
+    }
+
+    private Account findAccount(Connection from, String sql, Object key) {
+        try (Connection connection = from;
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, key);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    Account account = new Account(
+                        rs.getInt("account_id"),
+                        rs.getString("username"),
+                        rs.getString("password")
+                    );
+                    return account;
+                }
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -60,25 +67,108 @@ public class AccountDAO {
         return null;
     }
 
+    /**
+     * Checks many account ids with one query, and the ones a replica does not have with a
+     * second one on the primary (they may just have registered)
+     * @param account_ids the ids to check
+     * @return the ids that belong to an account
+     */
+    public Set<Integer> getExistingAccountIds(Set<Integer> account_ids) {
+        Set<Integer> existing = new HashSet<>();
+        findAccountIds(ConnectionUtil.getReadConnection(), account_ids, existing);
+        if (existing.size() < account_ids.size() && replicas != null) {
+            findAccountIds(ConnectionUtil.getConnection(), account_ids, existing);
+        }
+        return existing;
+    }
+
+    private void findAccountIds(Connection from, Set<Integer> account_ids, Set<Integer> into) {
+        String sql = "SELECT account_id FROM account WHERE account_id = ANY(?)";
+        try (Connection connection = from;
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, account_ids.toArray(new Integer[0]));
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    into.add(rs.getInt(1));
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Passes every account_id to the consumer, used to build the in-memory account index
+     * @param consumer receives each account_id
+     * @return the number of ids read
+     */
+    public int forEachAccountId(IntConsumer consumer) {
+        int count = 0;
+        String sql = "SELECT account_id FROM account";
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql);
+             ResultSet rs = preparedStatement.executeQuery()) {
+            while (rs.next()) {
+                consumer.accept(rs.getInt(1));
+                count++;
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return count;
+    }
+
+    /**
+     * Passes every account to the consumer in account_id order, straight off the ResultSet
+     * @param consumer receives each account
+     * @return the number of accounts read
+     */
+    public int streamAllAccounts(Consumer<Account> consumer) {
+        int count = 0;
+        String sql = "SELECT * FROM account ORDER BY account_id";
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setFetchSize(1000);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(new Account(
+                        rs.getInt("account_id"),
+                        rs.getString("username"),
+                        rs.getString("password")
+                    ));
+                    count++;
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return count;
+    }
+
     /**
      * Inserts a new account into the database
      * @param is account, the account to insert (without account_id, this will autogen)
      * @return the inserted account with its new account_id, or null if insertion failed
      */
     public Account createAccount(Account account) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "INSERT INTO account (username, password) VALUES(?, ?)";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
+        String sql = "INSERT INTO account (username, password) VALUES(?, ?)";
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
             preparedStatement.setString(1, account.getUsername());
             preparedStatement.setString(2, account.getPassword());
 
             int rowsAffected = preparedStatement.executeUpdate();
             if (rowsAffected > 0) {
-                ResultSet rs = preparedStatement.getGeneratedKeys();
-                if(rs.next()) {
-                    int generatedId = rs.getInt(1);
-                    return new Account(generatedId, account.getUsername(), account.getPassword());
+                try (ResultSet rs = preparedStatement.getGeneratedKeys()) {
+                    if(rs.next()) {
+                        int generatedId = rs.getInt(1);
+                        if (replicas != null) {
+                            replicas.wrote(generatedId, 0);
+                        }
+                        return new Account(generatedId, account.getUsername(), account.getPassword());
+                    }
                 }
             }
         } catch (SQLException e) {
@@ -86,4 +176,27 @@ public class AccountDAO {
         }
         return null;
     }
+
+    /**
+     * Replaces the stored password of an account, used to upgrade its hash on login
+     * @param account_id the account to update
+     * @param password the new stored value
+     * @return true if a row was updated
+     */
+    public boolean updatePassword(int account_id, String password) {
+        String sql = "UPDATE account SET password = ? WHERE account_id = ?";
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, password);
+            preparedStatement.setInt(2, account_id);
+            boolean updated = preparedStatement.executeUpdate() > 0;
+            if (updated && replicas != null) {
+                replicas.wrote(account_id, 0);
+            }
+            return updated;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
 }
@@ -0,0 +1,505 @@
+package DAO;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.Varint;
+
+/**
+ * Dumps every account and message to a compact binary file and loads one back, which is much
+ * faster than running a SQL script through H2's parser: a message is a varint record of a few
+ * bytes plus its text, read back with plain buffer gets and inserted in JDBC batches.
+ *
+ * File layout: magic, version, then sections (a tag byte followed by records, each a varint
+ * length and its body, ended by a zero length), an end tag and a CRC32 of everything before it.
+ * Message bodies hold the zigzag varint deltas of message_id and time_posted_epoch from the
+ * previous message, the varint posted_by and the UTF-8 text; account bodies hold the varint
+ * account_id, the varint length of the username, the username and the password.
+ */
+public class DatabaseSnapshot {
+    private static final int MAGIC = 0x534D4442;
+    private static final byte VERSION = 1;
+    private static final byte END = 0;
+    private static final byte MESSAGES = 1;
+    private static final byte ACCOUNTS = 2;
+    private static final int BUFFER_BYTES = 1 << 20;
+    /**
+     * large enough for any record: varchar(255) columns are at most 1020 UTF-8 bytes each
+     */
+    private static final int MAX_RECORD_BYTES = 4096;
+    private static final int INSERT_BATCH = 1000;
+    private static final Pattern CREATE_INDEX = Pattern.compile("^CREATE (UNIQUE )?INDEX (\\S+) ON ");
+    private static final Pattern ADD_CONSTRAINT = Pattern.compile("^ALTER TABLE (\\S+) ADD CONSTRAINT (\\S+) ");
+
+    private final AccountDAO accountDAO;
+    private final MessageRepository messageRepository;
+
+    /**
+     * @param messageRepository where messages are dumped from: the in-memory store or H2
+     */
+    public DatabaseSnapshot(AccountDAO accountDAO, MessageRepository messageRepository) {
+        this.accountDAO = accountDAO;
+        this.messageRepository = messageRepository;
+    }
+
+    /**
+     * Writes every message and account to file, through a temporary file that is forced and
+     * renamed into place, so a reader never sees half a snapshot.
+     * @return what was written, or null if the file could not be written
+     */
+    public Stats dump(Path file) {
+        long started = System.nanoTime();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            int messages;
+            int accounts;
+            long bytes;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                Writer writer = new Writer(channel);
+                // messages first: accounts are never deleted, so the author of every message
+                // dumped is still there when the accounts are read afterwards
+                writer.section(MESSAGES);
+                messages = messageRepository.streamAllMessages(writer::message);
+                writer.section(ACCOUNTS);
+                accounts = accountDAO.streamAllAccounts(writer::account);
+                bytes = writer.finish();
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return new Stats(file.toString(), accounts, messages, bytes, (System.nanoTime() - started) / 1_000_000);
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Could not write snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return true if H2 holds no account and no message, the only state startup restores into;
+     *         false if it does or cannot be asked
+     */
+    public boolean databaseIsEmpty() {
+        String sql = "SELECT NOT EXISTS (SELECT 1 FROM account) AND NOT EXISTS (SELECT 1 FROM message)";
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(sql)) {
+            return rs.next() && rs.getBoolean(1);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Replaces every account and message in H2 with the snapshot's, inserting in JDBC batches
+     * with the secondary indexes and constraints dropped until the rows are in (the snapshot is
+     * consistent on its own), and moves both id sequences past the restored ids. The old rows
+     * are deleted and the new ones inserted in one transaction, so a restore that fails partway
+     * leaves the tables as they were; only the dropped indexes are rebuilt either way. Meant
+     * for startup, as concurrent writers would be blocked for the whole load. Each row is also
+     * handed to the consumers, so in-memory indexes can be filled from the same pass instead of
+     * querying H2 afterwards. The checksum is verified before anything is deleted.
+     * @return what was restored, or null if the file is damaged or H2 refused it
+     */
+    public Stats restore(Path file, Consumer<Account> onAccount, Consumer<Message> onMessage) {
+        long started = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            verifyChecksum(channel);
+            channel.position(0);
+            Reader reader = new Reader(channel);
+            if (reader.buffer.getInt() != MAGIC || reader.buffer.get() != VERSION) {
+                throw new IOException("not a database snapshot");
+            }
+            try (Connection connection = ConnectionUtil.getConnection()) {
+                int[] counts = load(connection, reader, onAccount, onMessage);
+                return new Stats(file.toString(), counts[0], counts[1], channel.size(),
+                    (System.nanoTime() - started) / 1_000_000);
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            System.out.println("Could not restore snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of accounts and messages inserted
+     */
+    private int[] load(Connection connection, Reader reader, Consumer<Account> onAccount,
+            Consumer<Message> onMessage) throws IOException, SQLException {
+        int accounts = 0;
+        int messages = 0;
+        try (Statement statement = connection.createStatement()) {
+            // H2 builds an index over loaded rows several times faster than it maintains one row
+            // by row, so everything but the primary keys is dropped for the load and rebuilt after
+            List<String> rebuild = secondaryIndexes(statement);
+            for (int i = rebuild.size() - 1; i >= 0; i--) {
+                statement.execute(dropStatement(rebuild.get(i)));
+            }
+            try {
+                // DELETE rather than TRUNCATE, which H2 commits on the spot
+                connection.setAutoCommit(false);
+                statement.execute("DELETE FROM message");
+                statement.execute("DELETE FROM account");
+                try (PreparedStatement insertMessage = connection.prepareStatement(
+                        "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?)");
+                     PreparedStatement insertAccount = connection.prepareStatement(
+                        "INSERT INTO account (account_id, username, password) VALUES (?, ?, ?)")) {
+                    int previousId = 0;
+                    long previousTime = 0;
+                    for (byte tag = reader.tag(); tag != END; tag = reader.tag()) {
+                        for (ByteBuffer body = reader.record(); body != null; body = reader.record()) {
+                            if (tag == MESSAGES) {
+                                int messageId = previousId + (int) Varint.unzigzag(Varint.getLong(body));
+                                int postedBy = Varint.getInt(body);
+                                long time = previousTime + Varint.unzigzag(Varint.getLong(body));
+                                Message message = new Message(messageId, postedBy, text(body, body.remaining()), time);
+                                previousId = messageId;
+                                previousTime = time;
+                                insertMessage.setInt(1, messageId);
+                                insertMessage.setInt(2, postedBy);
+                                insertMessage.setString(3, message.getMessage_text());
+                                insertMessage.setLong(4, time);
+                                insertMessage.addBatch();
+                                onMessage.accept(message);
+                                messages++;
+                                flush(insertMessage, messages);
+                            } else if (tag == ACCOUNTS) {
+                                int accountId = Varint.getInt(body);
+                                String username = text(body, Varint.getInt(body));
+                                Account account = new Account(accountId, username, text(body, body.remaining()));
+                                insertAccount.setInt(1, accountId);
+                                insertAccount.setString(2, username);
+                                insertAccount.setString(3, account.getPassword());
+                                insertAccount.addBatch();
+                                onAccount.accept(account);
+                                accounts++;
+                                flush(insertAccount, accounts);
+                            }
+                            // records of a section this version does not know are skipped
+                        }
+                    }
+                    insertMessage.executeBatch();
+                    insertAccount.executeBatch();
+                }
+                connection.commit();
+            } catch (IOException | SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+                for (String ddl : rebuild) {
+                    statement.execute(ddl);
+                }
+            }
+            restartIdentity(statement, "message", "message_id");
+            restartIdentity(statement, "account", "account_id");
+        }
+        return new int[] {accounts, messages};
+    }
+
+    /**
+     * @return the statements that recreate the secondary indexes and the unique and foreign key
+     *         constraints of account and message, in the order H2 scripts them
+     */
+    private static List<String> secondaryIndexes(Statement statement) throws SQLException {
+        List<String> ddl = new ArrayList<>();
+        try (ResultSet rs = statement.executeQuery("SCRIPT NODATA NOPASSWORDS NOSETTINGS TABLE account, message")) {
+            while (rs.next()) {
+                String line = rs.getString(1);
+                if (CREATE_INDEX.matcher(line).find()
+                        || (ADD_CONSTRAINT.matcher(line).find() && !line.contains(" PRIMARY KEY"))) {
+                    ddl.add(line);
+                }
+            }
+        }
+        return ddl;
+    }
+
+    /**
+     * @return the statement that drops what a secondaryIndexes() statement creates
+     */
+    private static String dropStatement(String ddl) {
+        Matcher index = CREATE_INDEX.matcher(ddl);
+        if (index.find()) {
+            return "DROP INDEX " + index.group(2);
+        }
+        Matcher constraint = ADD_CONSTRAINT.matcher(ddl);
+        constraint.find();
+        return "ALTER TABLE " + constraint.group(1) + " DROP CONSTRAINT " + constraint.group(2);
+    }
+
+    /**
+     * sends a full batch; nothing is committed until the whole file is in
+     */
+    private static void flush(PreparedStatement preparedStatement, int rows) throws SQLException {
+        if (rows % INSERT_BATCH == 0) {
+            preparedStatement.executeBatch();
+        }
+    }
+
+    /**
+     * explicit ids do not advance H2's identity, so move it past them
+     */
+    private static void restartIdentity(Statement statement, String table, String column) throws SQLException {
+        int next;
+        try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(" + column + "), 0) + 1 FROM " + table)) {
+            rs.next();
+            next = rs.getInt(1);
+        }
+        statement.execute("ALTER TABLE " + table + " ALTER COLUMN " + column + " RESTART WITH " + next);
+    }
+
+    private static String text(ByteBuffer body, int length) {
+        byte[] utf8 = new byte[length];
+        body.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * reads the whole file once, so a damaged snapshot is refused before H2 is touched
+     */
+    private static void verifyChecksum(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < 4) {
+            throw new EOFException("snapshot is empty");
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        long position = 0;
+        while (position < size - 4) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - 4 - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("snapshot ends early");
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += read;
+        }
+        buffer.clear();
+        buffer.limit(4);
+        channel.read(buffer, size - 4);
+        buffer.flip();
+        if (buffer.remaining() < 4 || buffer.getInt() != (int) crc.getValue()) {
+            throw new IOException("snapshot checksum does not match");
+        }
+    }
+
+    /**
+     * Buffers records into a direct buffer and writes it out through the channel when full,
+     * checksumming each chunk on the way. The consumers passed to streamAllMessages() cannot
+     * throw IOException, so write failures surface as UncheckedIOException.
+     */
+    private static class Writer {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        final ByteBuffer body = ByteBuffer.allocate(MAX_RECORD_BYTES);
+        final CRC32 crc = new CRC32();
+        boolean inSection;
+        int previousId;
+        long previousTime;
+        long written;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+            buffer.putInt(MAGIC);
+            buffer.put(VERSION);
+        }
+
+        void section(byte tag) {
+            endSection();
+            buffer.put(tag);
+            inSection = true;
+        }
+
+        void endSection() {
+            if (inSection) {
+                reserve(1);
+                Varint.putInt(buffer, 0);
+                inSection = false;
+            }
+        }
+
+        void message(Message message) {
+            body.clear();
+            Varint.putLong(body, Varint.zigzag(message.getMessage_id() - previousId));
+            Varint.putInt(body, message.getPosted_by());
+            Varint.putLong(body, Varint.zigzag(message.getTime_posted_epoch() - previousTime));
+            body.put(message.getMessage_text().getBytes(StandardCharsets.UTF_8));
+            previousId = message.getMessage_id();
+            previousTime = message.getTime_posted_epoch();
+            record();
+        }
+
+        void account(Account account) {
+            byte[] username = account.getUsername().getBytes(StandardCharsets.UTF_8);
+            body.clear();
+            Varint.putInt(body, account.getAccount_id());
+            Varint.putInt(body, username.length);
+            body.put(username);
+            body.put(account.getPassword().getBytes(StandardCharsets.UTF_8));
+            record();
+        }
+
+        private void record() {
+            body.flip();
+            reserve(Varint.MAX_INT_BYTES + body.remaining());
+            Varint.putInt(buffer, body.remaining());
+            buffer.put(body);
+        }
+
+        /**
+         * ends the last section and writes the end tag and checksum
+         * @return the file's size
+         */
+        long finish() throws IOException {
+            endSection();
+            reserve(1 + 4);
+            buffer.put(END);
+            drain();
+            buffer.putInt((int) crc.getValue());
+            drain();
+            channel.force(true);
+            return written;
+        }
+
+        private void reserve(int bytes) {
+            if (buffer.remaining() < bytes) {
+                try {
+                    drain();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads records through a direct buffer that is refilled from the channel as it drains.
+     */
+    private static class Reader {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+        Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            buffer.flip();
+            fill(5);
+        }
+
+        byte tag() throws IOException {
+            fill(1);
+            return buffer.get();
+        }
+
+        /**
+         * @return the next record's body, or null at the end of the section
+         */
+        ByteBuffer record() throws IOException {
+            fill(Varint.MAX_INT_BYTES);
+            int length = Varint.getInt(buffer);
+            if (length == 0) {
+                return null;
+            }
+            fill(length);
+            if (buffer.remaining() < length) {
+                throw new EOFException("snapshot ends inside a record");
+            }
+            ByteBuffer body = buffer.slice();
+            body.limit(length);
+            buffer.position(buffer.position() + length);
+            return body;
+        }
+
+        /**
+         * makes at least bytes readable, unless the file ends first
+         */
+        private void fill(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes && channel.read(buffer) > 0) {
+                // keep reading until there is enough or the file ends
+            }
+            buffer.flip();
+            if (!buffer.hasRemaining()) {
+                throw new BufferUnderflowException();
+            }
+        }
+    }
+
+    /**
+     * What a dump or restore covered.
+     */
+    public static class Stats {
+        private final String file;
+        private final int accounts;
+        private final int messages;
+        private final long bytes;
+        private final long millis;
+
+        Stats(String file, int accounts, int messages, long bytes, long millis) {
+            this.file = file;
+            this.accounts = accounts;
+            this.messages = messages;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public int getAccounts() {
+            return accounts;
+        }
+
+        public int getMessages() {
+            return messages;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+}
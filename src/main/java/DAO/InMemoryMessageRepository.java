@@ -0,0 +1,696 @@
+package DAO;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import Model.Message;
+import Util.IntIntHashMap;
+import Util.TextArena;
+
+/**
+ * Holds every message in memory as packed primitive columns: one row per message across
+ * int[] ids, int[] postedBy and long[] epochs, with the text as UTF-8 in an off-heap TextArena
+ * addressed by long[] textAddresses and int[] textLengths. A message costs about 28 bytes of
+ * heap plus its text bytes off-heap, instead of a Message, a String and its array.
+ *
+ * Rows are appended in message_id order (ids are assigned here), so id ranges are binary
+ * searches. An IntIntHashMap maps message_id to row, and each author has a posting list of rows
+ * kept in timeline order, so a user's timeline page is a binary search plus a short walk.
+ * Deleted rows are tombstoned (textLengths of -1) and squeezed out once they outnumber the live
+ * ones; dead text is reclaimed the same way.
+ *
+ * Durability comes from a MessageChangeLog that sees every write before it is applied: either
+ * H2 written behind (load() fills the columns from H2 at startup) or a local MessageWal
+ * (recover() rebuilds them from its snapshot and log). One read/write lock guards everything;
+ * reads decode a fresh Message per row, so callers never see the columns change under them.
+ */
+public class InMemoryMessageRepository implements MessageRepository {
+    private static final int DELETED = -1;
+    /**
+     * rows handed to streamAllMessages' consumer per read lock, so a slow client never holds it long
+     */
+    private static final int STREAM_CHUNK = 500;
+    /**
+     * tombstones and dead text below this are not worth compacting
+     */
+    private static final int MIN_COMPACTION = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final MessageChangeLog sink;
+    private final int arenaChunkBytes;
+
+    private int[] ids = new int[1024];
+    private int[] postedBy = new int[1024];
+    private long[] epochs = new long[1024];
+    private long[] textAddresses = new long[1024];
+    private int[] textLengths = new int[1024];
+    private int rowCount;
+    private int deletedRows;
+    private int nextId = 1;
+    private TextArena arena;
+
+    private IntIntHashMap rowById = new IntIntHashMap();
+    /**
+     * posted_by to its slot in postings
+     */
+    private IntIntHashMap authorSlots = new IntIntHashMap();
+    /**
+     * per author, the rows of their messages oldest first (time_posted_epoch ascending, then
+     * message_id descending), so a timeline reads backwards from the end and new messages append
+     */
+    private int[][] postings = new int[64][];
+    private int[] postingSizes = new int[64];
+    private int authorCount;
+
+    /**
+     * @param sink makes each write durable (H2 write-behind or a local log), or null to keep
+     *        messages in memory only
+     * @param arenaChunkBytes size of each off-heap text buffer
+     */
+    public InMemoryMessageRepository(MessageChangeLog sink, int arenaChunkBytes) {
+        this.sink = sink;
+        this.arenaChunkBytes = arenaChunkBytes;
+        this.arena = new TextArena(arenaChunkBytes);
+    }
+
+    /**
+     * replaces whatever is held with the messages currently in H2
+     * @return the number of messages loaded
+     */
+    public int load(MessageDAO messageDAO) {
+        return load(messageDAO::streamAllMessages);
+    }
+
+    /**
+     * replaces whatever is held with the messages a source streams, in message_id order, to the
+     * consumer it is given (a DatabaseSnapshot restore, for example)
+     * @return the number of messages loaded
+     */
+    public int load(Consumer<Consumer<Message>> source) {
+        lock.writeLock().lock();
+        try {
+            clear();
+            source.accept(this::append);
+            return rowCount;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * replaces whatever is held with the state recorded in the log (its snapshot, then every
+     * change after it)
+     * @return the number of messages recovered
+     */
+    public int recover(MessageWal wal) throws IOException {
+        lock.writeLock().lock();
+        try {
+            clear();
+            wal.replay(new Replay());
+            return rowCount - deletedRows;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return a snapshot source that copies the columns and the log position they correspond to
+     * under the read lock, then streams the copy into the snapshot file after releasing it, so
+     * writers only wait for the copy, not the disk. Changes are logged under the write lock, so
+     * the copy and the position are in step. Text is read from a frozen view of the arena, whose
+     * bytes are never overwritten, so it stays valid whatever the store appends or compacts.
+     */
+    public MessageWal.SnapshotSource snapshotSource(MessageWal wal) {
+        return out -> {
+            int rows;
+            int[] idColumn;
+            int[] postedByColumn;
+            long[] epochColumn;
+            long[] addressColumn;
+            int[] lengthColumn;
+            TextArena text;
+            long position;
+            lock.readLock().lock();
+            try {
+                rows = rowCount;
+                idColumn = Arrays.copyOf(ids, rows);
+                postedByColumn = Arrays.copyOf(postedBy, rows);
+                epochColumn = Arrays.copyOf(epochs, rows);
+                addressColumn = Arrays.copyOf(textAddresses, rows);
+                lengthColumn = Arrays.copyOf(textLengths, rows);
+                text = arena.frozenView();
+                position = wal.position();
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (int row = 0; row < rows; row++) {
+                if (lengthColumn[row] != DELETED) {
+                    out.insert(idColumn[row], postedByColumn[row], epochColumn[row],
+                        text.bytes(addressColumn[row], lengthColumn[row]));
+                }
+            }
+            return position;
+        };
+    }
+
+    private void clear() {
+        rowCount = 0;
+        deletedRows = 0;
+        nextId = 1;
+        arena = new TextArena(arenaChunkBytes);
+        rowById = new IntIntHashMap();
+        authorSlots = new IntIntHashMap();
+        postings = new int[64][];
+        postingSizes = new int[64];
+        authorCount = 0;
+    }
+
+    public List<Message> getAllMessages() {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>(rowCount - deletedRows);
+            for (int row = 0; row < rowCount; row++) {
+                if (textLengths[row] != DELETED) {
+                    messages.add(toMessage(row));
+                }
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Message> getMessagesAfter(int afterMessageId, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>(Math.min(limit, STREAM_CHUNK));
+            for (int row = firstRowAfter(afterMessageId); row < rowCount && messages.size() < limit; row++) {
+                if (textLengths[row] != DELETED) {
+                    messages.add(toMessage(row));
+                }
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int streamAllMessages(Consumer<Message> consumer) {
+        int count = 0;
+        int after = 0;
+        while (true) {
+            List<Message> chunk = getMessagesAfter(after, STREAM_CHUNK);
+            for (Message message : chunk) {
+                consumer.accept(message);
+            }
+            count += chunk.size();
+            if (chunk.size() < STREAM_CHUNK) {
+                return count;
+            }
+            after = chunk.get(chunk.size() - 1).getMessage_id();
+        }
+    }
+
+    public Message getMessageById(int message_id) {
+        lock.readLock().lock();
+        try {
+            int row = rowById.get(message_id);
+            return row == IntIntHashMap.MISSING ? null : toMessage(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Message> getMessagesByIds(int[] message_ids) {
+        List<Message> found = new ArrayList<>(message_ids.length);
+        lock.readLock().lock();
+        try {
+            for (int message_id : message_ids) {
+                int row = rowById.get(message_id);
+                if (row != IntIntHashMap.MISSING) {
+                    found.add(toMessage(row));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    public Message createMessage(Message message) {
+        Message created;
+        long position = 0;
+        lock.writeLock().lock();
+        try {
+            created = new Message(nextId, message.getPosted_by(), message.getMessage_text(),
+                message.getTime_posted_epoch());
+            if (sink != null) {
+                position = sink.inserted(created);
+            }
+            append(created);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        awaitDurable(position);
+        return created;
+    }
+
+    public List<Message> createMessages(List<Message> messages) {
+        List<Message> created = new ArrayList<>(messages.size());
+        long position = 0;
+        lock.writeLock().lock();
+        try {
+            for (Message message : messages) {
+                Message withId = new Message(nextId, message.getPosted_by(), message.getMessage_text(),
+                    message.getTime_posted_epoch());
+                if (sink != null) {
+                    position = sink.inserted(withId);
+                }
+                append(withId);
+                created.add(withId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // the last change is durable only once everything before it is
+        awaitDurable(position);
+        return created;
+    }
+
+    public Message deleteMessage(int message_id) {
+        Message deleted;
+        long position = 0;
+        lock.writeLock().lock();
+        try {
+            int row = rowById.get(message_id);
+            if (row == IntIntHashMap.MISSING) {
+                return null;
+            }
+            deleted = toMessage(row);
+            if (sink != null) {
+                position = sink.deleted(deleted);
+            }
+            removeRow(row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        awaitDurable(position);
+        return deleted;
+    }
+
+    public Message updateMessageText(int message_id, String newMessageText) {
+        Message updated;
+        long position = 0;
+        lock.writeLock().lock();
+        try {
+            int row = rowById.get(message_id);
+            if (row == IntIntHashMap.MISSING) {
+                return null;
+            }
+            updated = new Message(message_id, postedBy[row], newMessageText, epochs[row]);
+            if (sink != null) {
+                position = sink.updated(updated);
+            }
+            replaceText(row, newMessageText);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        awaitDurable(position);
+        return updated;
+    }
+
+    /**
+     * waits, outside the lock, for the change log to make a change durable
+     */
+    private void awaitDurable(long position) {
+        if (sink != null) {
+            sink.awaitDurable(position);
+        }
+    }
+
+    public List<Message> getMessagesByUser(int account_id) {
+        return getMessagesByUser(account_id, null, 0, Integer.MAX_VALUE);
+    }
+
+    public List<Message> getMessagesByUser(int account_id, Long beforeTime, int beforeId, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>();
+            int slot = authorSlots.get(account_id);
+            if (slot == IntIntHashMap.MISSING) {
+                return messages;
+            }
+            int[] rows = postings[slot];
+            // everything below end is older than the cursor; walk down from there, newest first
+            int end = beforeTime == null ? postingSizes[slot] : olderCount(slot, beforeTime, beforeId);
+            for (int i = end - 1; i >= 0 && messages.size() < limit; i--) {
+                messages.add(toMessage(rows[i]));
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * adds a row for a message that already has its id; callers hold the write lock
+     */
+    private void append(Message message) {
+        if (rowCount == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            postedBy = Arrays.copyOf(postedBy, capacity);
+            epochs = Arrays.copyOf(epochs, capacity);
+            textAddresses = Arrays.copyOf(textAddresses, capacity);
+            textLengths = Arrays.copyOf(textLengths, capacity);
+        }
+        int row = rowCount++;
+        byte[] utf8 = TextArena.encode(message.getMessage_text());
+        ids[row] = message.getMessage_id();
+        postedBy[row] = message.getPosted_by();
+        epochs[row] = message.getTime_posted_epoch();
+        textAddresses[row] = arena.append(utf8);
+        textLengths[row] = utf8.length;
+        rowById.put(message.getMessage_id(), row);
+        addPosting(row);
+        nextId = Math.max(nextId, message.getMessage_id() + 1);
+    }
+
+    /**
+     * tombstones a row; callers hold the write lock
+     */
+    private void removeRow(int row) {
+        rowById.remove(ids[row]);
+        removePosting(row);
+        arena.release(textLengths[row]);
+        textLengths[row] = DELETED;
+        deletedRows++;
+        if (deletedRows >= MIN_COMPACTION && deletedRows * 2 > rowCount) {
+            compactRows();
+        }
+    }
+
+    /**
+     * points a row at new text, leaving the old bytes as garbage; callers hold the write lock
+     */
+    private void replaceText(int row, String text) {
+        byte[] utf8 = TextArena.encode(text);
+        arena.release(textLengths[row]);
+        textAddresses[row] = arena.append(utf8);
+        textLengths[row] = utf8.length;
+        long deadBytes = arena.usedBytes() - arena.liveBytes();
+        if (deadBytes >= arenaChunkBytes && deadBytes > arena.liveBytes()) {
+            compactText();
+        }
+    }
+
+    private Message toMessage(int row) {
+        return new Message(ids[row], postedBy[row], arena.read(textAddresses[row], textLengths[row]), epochs[row]);
+    }
+
+    /**
+     * @return the first row whose message_id is larger than messageId
+     */
+    private int firstRowAfter(int messageId) {
+        int low = 0;
+        int high = rowCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] <= messageId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return true if the row sorts before (time, messageId) in a posting list, i.e. comes after
+     *         it on the timeline: posted earlier, or in the same second with a larger message_id
+     */
+    private boolean olderThan(int row, long time, int messageId) {
+        return epochs[row] < time || (epochs[row] == time && ids[row] > messageId);
+    }
+
+    /**
+     * @return how many of the author's messages are older than (time, messageId)
+     */
+    private int olderCount(int slot, long time, int messageId) {
+        int[] rows = postings[slot];
+        int low = 0;
+        int high = postingSizes[slot];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (olderThan(rows[mid], time, messageId)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void addPosting(int row) {
+        int slot = authorSlots.get(postedBy[row]);
+        if (slot == IntIntHashMap.MISSING) {
+            if (authorCount == postings.length) {
+                postings = Arrays.copyOf(postings, authorCount * 2);
+                postingSizes = Arrays.copyOf(postingSizes, authorCount * 2);
+            }
+            slot = authorCount++;
+            authorSlots.put(postedBy[row], slot);
+            postings[slot] = new int[4];
+        }
+        int size = postingSizes[slot];
+        if (size == postings[slot].length) {
+            postings[slot] = Arrays.copyOf(postings[slot], size * 2);
+        }
+        int[] rows = postings[slot];
+        // usually the newest message, which appends at the end
+        int position = olderCount(slot, epochs[row], ids[row]);
+        System.arraycopy(rows, position, rows, position + 1, size - position);
+        rows[position] = row;
+        postingSizes[slot] = size + 1;
+    }
+
+    private void removePosting(int row) {
+        int slot = authorSlots.get(postedBy[row]);
+        int[] rows = postings[slot];
+        int size = postingSizes[slot];
+        int position = olderCount(slot, epochs[row], ids[row]);
+        System.arraycopy(rows, position + 1, rows, position, size - position - 1);
+        postingSizes[slot] = size - 1;
+    }
+
+    /**
+     * squeezes tombstoned rows out of the columns and renumbers the indexes; callers hold the write lock
+     */
+    private void compactRows() {
+        int[] newRowOf = new int[rowCount];
+        int live = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (textLengths[row] == DELETED) {
+                newRowOf[row] = DELETED;
+                continue;
+            }
+            ids[live] = ids[row];
+            postedBy[live] = postedBy[row];
+            epochs[live] = epochs[row];
+            textAddresses[live] = textAddresses[row];
+            textLengths[live] = textLengths[row];
+            newRowOf[row] = live++;
+        }
+        rowCount = live;
+        deletedRows = 0;
+
+        rowById = new IntIntHashMap(live);
+        for (int row = 0; row < live; row++) {
+            rowById.put(ids[row], row);
+        }
+        for (int slot = 0; slot < authorCount; slot++) {
+            int[] rows = postings[slot];
+            for (int i = 0; i < postingSizes[slot]; i++) {
+                rows[i] = newRowOf[rows[i]];
+            }
+        }
+    }
+
+    /**
+     * copies the live text into a fresh arena, dropping the bytes of edited and deleted messages
+     */
+    private void compactText() {
+        TextArena compacted = new TextArena(arenaChunkBytes);
+        for (int row = 0; row < rowCount; row++) {
+            if (textLengths[row] != DELETED) {
+                textAddresses[row] = arena.copyTo(compacted, textAddresses[row], textLengths[row]);
+            }
+        }
+        arena = compacted;
+    }
+
+    /**
+     * @return how many messages are held
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rowCount - deletedRows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * stops the change log once everything it was given is durable
+     */
+    public void shutdown() {
+        if (sink != null) {
+            sink.shutdown();
+        }
+    }
+
+    /**
+     * @return the change log writes go through, or null when messages are only kept in memory
+     */
+    public MessageChangeLog getSink() {
+        return sink;
+    }
+
+    /**
+     * @return a snapshot of the store's size, memory use and write-behind progress
+     */
+    public Stats getStats() {
+        lock.readLock().lock();
+        try {
+            long columnBytes = ids.length * (4L + 4L + 8L + 8L + 4L);
+            long postingBytes = 0;
+            for (int slot = 0; slot < authorCount; slot++) {
+                postingBytes += 16L + postings[slot].length * 4L;
+            }
+            long heapBytes = columnBytes + postingBytes + rowById.memoryBytes() + authorSlots.memoryBytes();
+            int messages = rowCount - deletedRows;
+            MessageWriteBehind writeBehind = sink instanceof MessageWriteBehind ? (MessageWriteBehind) sink : null;
+            return new Stats(messages, deletedRows, authorCount, heapBytes, arena.capacityBytes(),
+                arena.liveBytes(), messages == 0 ? 0.0 : (double) heapBytes / messages,
+                writeBehind == null ? 0 : writeBehind.getQueueDepth(),
+                writeBehind == null ? 0 : writeBehind.getApplied(),
+                writeBehind == null ? 0 : writeBehind.getFailures(),
+                writeBehind == null ? 0 : writeBehind.getRejected());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies logged changes during recovery without logging them again; callers hold the write lock.
+     */
+    private class Replay implements MessageChangeLog {
+        public long inserted(Message message) {
+            append(message);
+            return 0;
+        }
+
+        public long updated(Message message) {
+            int row = rowById.get(message.getMessage_id());
+            if (row != IntIntHashMap.MISSING) {
+                replaceText(row, message.getMessage_text());
+            }
+            return 0;
+        }
+
+        public long deleted(Message message) {
+            int row = rowById.get(message.getMessage_id());
+            if (row != IntIntHashMap.MISSING) {
+                removeRow(row);
+            }
+            return 0;
+        }
+
+        public void shutdown() {
+        }
+    }
+
+    /**
+     * Snapshot of the in-memory store. Heap bytes count the columns, posting lists and id maps;
+     * off-heap bytes are the text arena's reserved buffers, of which textBytes are still live.
+     * The write-behind counters stay 0 unless the store writes H2 behind.
+     */
+    public static class Stats {
+        private final int messages;
+        private final int deletedRows;
+        private final int authors;
+        private final long heapBytes;
+        private final long offHeapBytes;
+        private final long textBytes;
+        private final double heapBytesPerMessage;
+        private final int writeBehindQueueDepth;
+        private final long writeBehindApplied;
+        private final long writeBehindFailures;
+        private final long writeBehindRejected;
+
+        Stats(int messages, int deletedRows, int authors, long heapBytes, long offHeapBytes, long textBytes,
+                double heapBytesPerMessage, int writeBehindQueueDepth, long writeBehindApplied,
+                long writeBehindFailures, long writeBehindRejected) {
+            this.messages = messages;
+            this.deletedRows = deletedRows;
+            this.authors = authors;
+            this.heapBytes = heapBytes;
+            this.offHeapBytes = offHeapBytes;
+            this.textBytes = textBytes;
+            this.heapBytesPerMessage = heapBytesPerMessage;
+            this.writeBehindQueueDepth = writeBehindQueueDepth;
+            this.writeBehindApplied = writeBehindApplied;
+            this.writeBehindFailures = writeBehindFailures;
+            this.writeBehindRejected = writeBehindRejected;
+        }
+
+        public int getMessages() {
+            return messages;
+        }
+
+        public int getDeletedRows() {
+            return deletedRows;
+        }
+
+        public int getAuthors() {
+            return authors;
+        }
+
+        public long getHeapBytes() {
+            return heapBytes;
+        }
+
+        public long getOffHeapBytes() {
+            return offHeapBytes;
+        }
+
+        public long getTextBytes() {
+            return textBytes;
+        }
+
+        public double getHeapBytesPerMessage() {
+            return heapBytesPerMessage;
+        }
+
+        public int getWriteBehindQueueDepth() {
+            return writeBehindQueueDepth;
+        }
+
+        public long getWriteBehindApplied() {
+            return writeBehindApplied;
+        }
+
+        public long getWriteBehindFailures() {
+            return writeBehindFailures;
+        }
+
+        public long getWriteBehindRejected() {
+            return writeBehindRejected;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package DAO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Model.Message;
+
+/**
+ * Group-commit ingestion for new messages. Callers enqueue a message and get a future; a
+ * single writer thread drains up to maxBatchSize queued messages (waiting at most
+ * maxDelayMillis after the first one for more to arrive), inserts them with one JDBC batch in
+ * one transaction, and completes each future with the message and its generated id.
+ *
+ * The queue is bounded: when it is full submit() throws RejectedExecutionException right away
+ * so the caller can shed load instead of piling up threads. Every future submit() hands out is
+ * completed: messages still queued when the writer stops are failed with
+ * RejectedExecutionException rather than left waiting.
+ */
+public class MessageBatchWriter {
+    private final MessageRepository messageDAO;
+    private final BlockingQueue<Pending> queue;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong maxBatch = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    /**
+     * @param messageDAO the repository used to write each batch
+     * @param queueCapacity how many messages may wait before submit() starts rejecting
+     * @param maxBatchSize the most messages written in one transaction
+     * @param maxDelayMillis how long the writer waits to fill a batch once it has one message
+     */
+    public MessageBatchWriter(MessageRepository messageDAO, int queueCapacity, int maxBatchSize, long maxDelayMillis) {
+        this.messageDAO = messageDAO;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.writer = new Thread(this::run, "message-batch-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * queues a message for the next batch
+     * @param message the message to create (excluding message_id)
+     * @return a future completed with the created message, or with null if it could not be inserted
+     * @throws RejectedExecutionException if the queue is full or the writer has been stopped
+     */
+    public CompletableFuture<Message> submit(Message message) {
+        Pending pending = new Pending(message);
+        if (!running || !queue.offer(pending)) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Message write queue is full");
+        }
+        // the writer may have stopped between the check and the offer; if it has not taken the
+        // message by now it never will, so take it back
+        if (!running && queue.remove(pending)) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Message writer has been stopped");
+        }
+        return pending.future;
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                // stop without writing the batch being filled; it is failed along with the queue
+                running = false;
+                fail(batch);
+                break;
+            } catch (RuntimeException e) {
+                // never let one bad batch kill the writer; fail what we were holding
+                System.out.println(e.getMessage());
+                for (Pending pending : batch) {
+                    pending.future.completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+
+        List<Pending> left = new ArrayList<>();
+        queue.drainTo(left);
+        fail(left);
+    }
+
+    private static void fail(List<Pending> batch) {
+        for (Pending pending : batch) {
+            pending.future.completeExceptionally(new RejectedExecutionException("Message writer has been stopped"));
+        }
+    }
+
+    private void write(List<Pending> batch) {
+        long start = System.nanoTime();
+        List<Message> toInsert = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            long queued = start - pending.enqueuedAtNanos;
+            totalQueueNanos.addAndGet(queued);
+            maxQueueNanos.accumulateAndGet(queued, Math::max);
+            toInsert.add(pending.message);
+        }
+        batches.incrementAndGet();
+        messages.addAndGet(batch.size());
+        maxBatch.accumulateAndGet(batch.size(), Math::max);
+
+        List<Message> created = messageDAO.createMessages(toInsert);
+        if (created != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(created.get(i));
+            }
+            return;
+        }
+
+        // one bad row rolls back the whole batch, so retry one by one to isolate it
+        fallbacks.incrementAndGet();
+        for (Pending pending : batch) {
+            pending.future.complete(messageDAO.createMessage(pending.message));
+        }
+    }
+
+    /**
+     * stops accepting messages, writes whatever is still queued and waits for the writer to finish;
+     * if it has not within 10 seconds, it is interrupted and what is left is failed
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+            if (writer.isAlive()) {
+                writer.interrupt();
+                writer.join(TimeUnit.SECONDS.toMillis(1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return a snapshot of batching activity
+     */
+    public Stats getStats() {
+        long batchCount = batches.get();
+        long messageCount = messages.get();
+        return new Stats(queue.size(), batchCount, messageCount, maxBatch.get(), rejected.get(), fallbacks.get(),
+                batchCount == 0 ? 0.0 : (double) messageCount / batchCount,
+                messageCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalQueueNanos.get() / messageCount),
+                TimeUnit.NANOSECONDS.toMicros(maxQueueNanos.get()));
+    }
+
+    private static class Pending {
+        final Message message;
+        final CompletableFuture<Message> future = new CompletableFuture<>();
+        final long enqueuedAtNanos = System.nanoTime();
+
+        Pending(Message message) {
+            this.message = message;
+        }
+    }
+
+    /**
+     * Snapshot of batching activity. Queue latency is the time between submit() and the start
+     * of the batch that wrote the message, in microseconds.
+     */
+    public static class Stats {
+        private final int queueDepth;
+        private final long batches;
+        private final long messages;
+        private final long maxBatchSize;
+        private final long rejected;
+        private final long fallbacks;
+        private final double averageBatchSize;
+        private final long averageQueueMicros;
+        private final long maxQueueMicros;
+
+        Stats(int queueDepth, long batches, long messages, long maxBatchSize, long rejected, long fallbacks,
+                double averageBatchSize, long averageQueueMicros, long maxQueueMicros) {
+            this.queueDepth = queueDepth;
+            this.batches = batches;
+            this.messages = messages;
+            this.maxBatchSize = maxBatchSize;
+            this.rejected = rejected;
+            this.fallbacks = fallbacks;
+            this.averageBatchSize = averageBatchSize;
+            this.averageQueueMicros = averageQueueMicros;
+            this.maxQueueMicros = maxQueueMicros;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        public long getMessages() {
+            return messages;
+        }
+
+        public long getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getFallbacks() {
+            return fallbacks;
+        }
+
+        public double getAverageBatchSize() {
+            return averageBatchSize;
+        }
+
+        public long getAverageQueueMicros() {
+            return averageQueueMicros;
+        }
+
+        public long getMaxQueueMicros() {
+            return maxQueueMicros;
+        }
+    }
+}
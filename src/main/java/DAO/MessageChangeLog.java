@@ -0,0 +1,44 @@
+package DAO;
+
+import Model.Message;
+
+/**
+ * Receives every change the in-memory message store makes, in order, so they can be made
+ * durable: MessageWriteBehind replays them into H2, MessageWal appends them to a local log.
+ *
+ * The store calls these while holding its write lock, before it applies the change, and calls
+ * awaitDurable() after releasing the lock; a log that cannot accept a change throws, and the
+ * store leaves its state untouched.
+ */
+public interface MessageChangeLog {
+
+    /**
+     * @param message the new message, with the message_id the store assigned
+     * @return a position to pass to awaitDurable()
+     */
+    long inserted(Message message);
+
+    /**
+     * @param message the message after the edit; message_id and message_text are what changed
+     * @return a position to pass to awaitDurable()
+     */
+    long updated(Message message);
+
+    /**
+     * @param message the message that was removed
+     * @return a position to pass to awaitDurable()
+     */
+    long deleted(Message message);
+
+    /**
+     * Blocks until the change at position will survive a crash, as far as this log promises.
+     * The default is to return right away.
+     */
+    default void awaitDurable(long position) {
+    }
+
+    /**
+     * stops any background work once everything accepted so far has been written
+     */
+    void shutdown();
+}
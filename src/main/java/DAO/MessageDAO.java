@@ -2,26 +2,97 @@ package DAO;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import Model.Message;
 import Util.ConnectionUtil;
+import Util.ReplicaSet;
 
-public class MessageDAO {
-    
+public class MessageDAO implements MessageRepository {
+
+    /**
+     * rows fetched per round trip while streaming
+     */
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    // H2 costs the foreign key's own posted_by index the same as the composite one and would
+    // pick it and sort afterwards, so name the index; leading the ORDER BY with posted_by lets
+    // the planner see that the index already returns rows in this order. Public so tests can
+    // EXPLAIN exactly what runs.
+
+    /**
+     * every message of one user, newest first; binds posted_by
+     */
+    public static final String MESSAGES_BY_USER_SQL = "SELECT * FROM message USE INDEX (idx_message_posted_by_time) "
+        + "WHERE posted_by = ? ORDER BY posted_by, time_posted_epoch DESC, message_id";
+
+    /**
+     * the first page of a user's timeline; binds posted_by and the limit
+     */
+    public static final String TIMELINE_FIRST_PAGE_SQL = MESSAGES_BY_USER_SQL + " LIMIT ?";
+
+    /**
+     * a keyset page of a user's timeline after the cursor; binds posted_by, the cursor's time twice,
+     * its message_id and the limit. The redundant time_posted_epoch <= ? bounds the index range;
+     * the OR only filters.
+     */
+    public static final String TIMELINE_PAGE_BEFORE_SQL = "SELECT * FROM message USE INDEX (idx_message_posted_by_time) "
+        + "WHERE posted_by = ? AND time_posted_epoch <= ? AND (time_posted_epoch < ? OR message_id > ?) "
+        + "ORDER BY posted_by, time_posted_epoch DESC, message_id LIMIT ?";
+
+    /**
+     * where connections come from: the main database, or one shard of it
+     */
+    private final Supplier<Connection> connections;
+    /**
+     * where reads go: a replica when one is fresh enough, otherwise the same as connections
+     */
+    private final Supplier<Connection> readConnections;
     /**
-     * Retrieves all messages from the database
+     * told about every write so its author reads it back, null without replicas
+     */
+    private final ReplicaSet replicas;
+
+    /**
+     * a DAO over the main database, reading from its replicas if there are any
+     */
+    public MessageDAO() {
+        this(ConnectionUtil::getConnection, ConnectionUtil.getReplicaSet());
+    }
+
+    /**
+     * a DAO over another database with the same message table, e.g. one shard
+     * @param connections hands out a connection per call, like ConnectionUtil.getConnection()
+     */
+    public MessageDAO(Supplier<Connection> connections) {
+        this(connections, null);
+    }
+
+    /**
+     * @param connections hands out connections to the database written to
+     * @param replicas replicas of that database to read from, or null to read from it too
+     */
+    public MessageDAO(Supplier<Connection> connections, ReplicaSet replicas) {
+        this.connections = connections;
+        this.replicas = replicas;
+        this.readConnections = replicas == null ? connections : replicas::getReadConnection;
+    }
+
+    /**
+     * Retrieves all messages from the database, in message_id order
      * @return a list of all messages
      */
     public List<Message> getAllMessages() {
-        Connection connection = ConnectionUtil.getConnection();
         List<Message> messages = new ArrayList<>();
-        try {
-            String sql = "SELECT * FROM message";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-
-            ResultSet rs = preparedStatement.executeQuery();
-            if (rs.next()) {
+        String sql = "SELECT * FROM message ORDER BY message_id";
+        try (Connection connection = readConnections.get();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql);
+             ResultSet rs = preparedStatement.executeQuery()) {
+            while (rs.next()) {
                 Message message = new Message (
                     rs.getInt("message_id"),
                     rs.getInt("posted_by"),
@@ -30,13 +101,101 @@ public class MessageDAO {
                 );
                 messages.add(message);
             }
-            
+
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
         return messages;
     }
 
+    /**
+     * Retrieves one page of messages using keyset pagination on message_id, so every page
+     * costs the same no matter how deep into the table it is
+     * @param afterMessageId only messages with a larger message_id are returned (0 for the first page)
+     * @param limit the maximum number of messages to return
+     * @return up to limit messages ordered by message_id
+     */
+    public List<Message> getMessagesAfter(int afterMessageId, int limit) {
+        List<Message> messages = new ArrayList<>();
+        String sql = "SELECT * FROM message WHERE message_id > ? ORDER BY message_id LIMIT ?";
+        try (Connection connection = readConnections.get();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, afterMessageId);
+            preparedStatement.setInt(2, limit);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(mapRow(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return messages;
+    }
+
+    /**
+     * Streams every message to the consumer straight off the ResultSet, one row at a time.
+     * The query runs lazily so H2 does not materialize the table either, which keeps memory
+     * flat however many rows there are. The connection is held until the consumer is done
+     * with the last row.
+     * @param consumer receives each message in message_id order
+     * @return the number of messages streamed
+     */
+    public int streamAllMessages(Consumer<Message> consumer) {
+        int count = 0;
+        String sql = "SELECT * FROM message ORDER BY message_id";
+        try (Connection connection = readConnections.get()) {
+            setLazyExecution(connection, true);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(mapRow(rs));
+                        count++;
+                    }
+                }
+            } finally {
+                // pooled connections are reused, so put the session setting back
+                setLazyExecution(connection, false);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return count;
+    }
+
+    private void setLazyExecution(Connection connection, boolean lazy) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET LAZY_QUERY_EXECUTION " + (lazy ? "TRUE" : "FALSE"));
+        }
+    }
+
+    /**
+     * tells the replicas about a committed write, so its author reads it from the primary until
+     * they have it
+     * @return the message written
+     */
+    private Message wrote(Message message) {
+        if (replicas != null) {
+            replicas.wrote(message.getPosted_by(), message.getMessage_id());
+        }
+        return message;
+    }
+
+    /**
+     * maps the current row of a message ResultSet
+     */
+    private Message mapRow(ResultSet rs) throws SQLException {
+        return new Message(
+            rs.getInt("message_id"),
+            rs.getInt("posted_by"),
+            rs.getString("message_text"),
+            rs.getLong("time_posted_epoch")
+        );
+    }
+
     /**
      * retrieves a message by its ID
      * @param message_id the message ID to search for
@@ -44,20 +203,65 @@ public class MessageDAO {
      */
 
      public Message getMessageById(int message_id) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "SELECT * FROM message WHERE message_id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        Message message = findMessageById(readConnections, message_id);
+        if (message == null && readConnections != connections) {
+            // a replica may just not have it yet
+            message = findMessageById(connections, message_id);
+        }
+        return message;
+     }
+
+     /**
+      * looks the messages up with one query, and the ones a replica does not have yet with a
+      * second one on the primary
+      */
+     public List<Message> getMessagesByIds(int[] message_ids) {
+        Set<Integer> wanted = new HashSet<>(message_ids.length);
+        for (int message_id : message_ids) {
+            wanted.add(message_id);
+        }
+        List<Message> messages = new ArrayList<>(wanted.size());
+        findMessagesByIds(readConnections, wanted, messages);
+        if (messages.size() < wanted.size() && readConnections != connections) {
+            for (Message message : messages) {
+                wanted.remove(message.getMessage_id());
+            }
+            findMessagesByIds(connections, wanted, messages);
+        }
+        return messages;
+     }
+
+     private void findMessagesByIds(Supplier<Connection> from, Set<Integer> message_ids, List<Message> into) {
+        String sql = "SELECT * FROM message WHERE message_id = ANY(?)";
+        try (Connection connection = from.get();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, message_ids.toArray(new Integer[0]));
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    into.add(mapRow(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+     }
+
+     private Message findMessageById(Supplier<Connection> from, int message_id) {
+        String sql = "SELECT * FROM message WHERE message_id = ?";
+        try (Connection connection = from.get();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setInt(1, message_id);
 
-            ResultSet rs = preparedStatement.executeQuery();
-            if (rs.next()) {
-                return new Message (
-                    rs.getInt("message_id"),
-                    rs.getInt("posted_by"),
-                    rs.getString("message_text"),
-                    rs.getLong("time_posted_epoch")
-                    );
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    return new Message (
+                        rs.getInt("message_id"),
+                        rs.getInt("posted_by"),
+                        rs.getString("message_text"),
+                        rs.getLong("time_posted_epoch")
+                        );
+                }
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -71,26 +275,73 @@ public class MessageDAO {
       * @return the newly created messsage  with its new message_id, or null if creation failed
       */
      public Message createMessage(Message message) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
+        String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
+        try (Connection connection = connections.get();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
             preparedStatement.setInt(1, message.getPosted_by());
             preparedStatement.setString(2, message.getMessage_text());
             preparedStatement.setLong(3, message.getTime_posted_epoch());
 
             int rowsAffected = preparedStatement.executeUpdate();
             if(rowsAffected > 0) {
-                ResultSet rs = preparedStatement.getGeneratedKeys();
-                if (rs.next()) {
-                    int generatedId = rs.getInt(1);
-                    return new Message (
-                        generatedId,
-                        message.getPosted_by(),
-                        message.getMessage_text(),
-                        message.getTime_posted_epoch()
-                    );
+                try (ResultSet rs = preparedStatement.getGeneratedKeys()) {
+                    if (rs.next()) {
+                        int generatedId = rs.getInt(1);
+                        return wrote(new Message (
+                            generatedId,
+                            message.getPosted_by(),
+                            message.getMessage_text(),
+                            message.getTime_posted_epoch()
+                        ));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return null;
+     }
+
+     /**
+      * inserts several messages as one JDBC batch in a single transaction, so the whole group
+      * pays for one commit
+      * @param messages the messages to create (excluding message_id)
+      * @return the created messages with their new message_ids in the same order, or null if
+      *         the batch failed and was rolled back
+      */
+     public List<Message> createMessages(List<Message> messages) {
+        String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
+        try (Connection connection = connections.get()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+                for (Message message : messages) {
+                    preparedStatement.setInt(1, message.getPosted_by());
+                    preparedStatement.setString(2, message.getMessage_text());
+                    preparedStatement.setLong(3, message.getTime_posted_epoch());
+                    preparedStatement.addBatch();
                 }
+                preparedStatement.executeBatch();
+
+                List<Message> created = new ArrayList<>(messages.size());
+                try (ResultSet rs = preparedStatement.getGeneratedKeys()) {
+                    for (Message message : messages) {
+                        if (!rs.next()) {
+                            throw new SQLException("Missing generated key for batched message");
+                        }
+                        created.add(new Message(
+                            rs.getInt(1),
+                            message.getPosted_by(),
+                            message.getMessage_text(),
+                            message.getTime_posted_epoch()
+                        ));
+                    }
+                }
+                connection.commit();
+                created.forEach(this::wrote);
+                return created;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -104,24 +355,18 @@ public class MessageDAO {
       * @return the deleted message, or null if the message didnt exist
       */
       public Message deleteMessage(int message_id) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            // first we need to get the message 
-            Message message = getMessageById(message_id);
-            if (message == null) {
-                return null;
-            }
-
-            String sql = "DELETE FROM message WHERE message_id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        // OLD TABLE hands back the row as it was just before the DELETE removed it, so the
+        // read and the delete are one atomic statement and one round trip
+        String sql = "SELECT * FROM OLD TABLE (DELETE FROM message WHERE message_id = ?)";
+        try (Connection connection = connections.get();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setInt(1, message_id);
 
-            // Use executeUpdate for DELETE statements, not executeQuery
-            int rowsAffected = preparedStatement.executeUpdate();
-            
-            // If the delete was successful, return the original message object
-            if (rowsAffected > 0) {
-                return message;
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                // no row means there was nothing to delete
+                if (rs.next()) {
+                    return wrote(mapRow(rs));
+                }
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -133,19 +378,21 @@ public class MessageDAO {
        * updates a message's text
        * @param message_id, the id of the message to update
        * @param newMessageText the new text for the message
-       * @return the updated message, or null if update failed
+       * @return the updated message, or null if no message has that id or the update failed
        */
       public Message updateMessageText(int message_id, String newMessageText) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "UPDATE message SET message_text = ? WHERE message_id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        // FINAL TABLE returns the row as the UPDATE left it, so no read-back SELECT is needed
+        // and a concurrent edit can't slip in between the write and the read
+        String sql = "SELECT * FROM FINAL TABLE (UPDATE message SET message_text = ? WHERE message_id = ?)";
+        try (Connection connection = connections.get();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setString(1, newMessageText);
             preparedStatement.setInt(2, message_id);
 
-            int rowsAffected = preparedStatement.executeUpdate();
-            if (rowsAffected > 0) {
-                return getMessageById(message_id);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    return wrote(mapRow(rs));
+                }
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -156,25 +403,53 @@ public class MessageDAO {
       /**
        *  retrieves all message posted by a specific user
        *  @param account_id the Account ID of the user
-       *  @return a list of message posted by the user
+       *  @return a list of message posted by the user, newest first
        */
       public List<Message> getMessagesByUser(int account_id) {
-        Connection connection = ConnectionUtil.getConnection();
         List<Message> messages = new ArrayList<>();
-        try {
-            String sql = "SELECT * FROM message WHERE posted_by = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        try (Connection connection = readConnections.get();
+             PreparedStatement preparedStatement = connection.prepareStatement(MESSAGES_BY_USER_SQL)) {
             preparedStatement.setInt(1, account_id);
 
-            ResultSet rs = preparedStatement.executeQuery();
-            if(rs.next()) {
-                Message message = new Message(
-                    rs.getInt("message_id"),
-                    rs.getInt("posted_by"),
-                    rs.getString("message_text"),
-                    rs.getLong("time_posted_epoch")
-                );
-                messages.add(message);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(mapRow(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return messages;
+      }
+
+      /**
+       * retrieves one keyset page of a user's timeline, newest first (time_posted_epoch
+       * descending, then message_id). The cursor is the last message of the previous page, so
+       * the query seeks straight to it in idx_message_posted_by_time however deep the page is.
+       * @param account_id the Account ID of the user
+       * @param beforeTime time_posted_epoch of the cursor, or null for the first page
+       * @param beforeId message_id of the cursor; Integer.MAX_VALUE skips every message at beforeTime
+       * @param limit the page size
+       * @return up to limit messages that come after the cursor
+       */
+      public List<Message> getMessagesByUser(int account_id, Long beforeTime, int beforeId, int limit) {
+        List<Message> messages = new ArrayList<>();
+        String sql = beforeTime == null ? TIMELINE_FIRST_PAGE_SQL : TIMELINE_PAGE_BEFORE_SQL;
+        try (Connection connection = readConnections.get();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int index = 1;
+            preparedStatement.setInt(index++, account_id);
+            if (beforeTime != null) {
+                preparedStatement.setLong(index++, beforeTime);
+                preparedStatement.setLong(index++, beforeTime);
+                preparedStatement.setInt(index++, beforeId);
+            }
+            preparedStatement.setInt(index, limit);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(mapRow(rs));
+                }
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -0,0 +1,78 @@
+package DAO;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import Model.Message;
+
+/**
+ * Storage for messages. MessageDAO keeps them in H2; InMemoryMessageRepository keeps them in
+ * packed in-memory columns and writes H2 behind. Chosen with messages.store.
+ */
+public interface MessageRepository {
+
+    /**
+     * @return every message, in message_id order
+     */
+    List<Message> getAllMessages();
+
+    /**
+     * @param afterMessageId the last message_id of the previous page (0 for the first page)
+     * @param limit the page size
+     * @return up to limit messages with a larger message_id, in message_id order
+     */
+    List<Message> getMessagesAfter(int afterMessageId, int limit);
+
+    /**
+     * passes every message to the consumer in message_id order without collecting them
+     * @return the number of messages passed
+     */
+    int streamAllMessages(Consumer<Message> consumer);
+
+    /**
+     * @return the message, or null if none has this id
+     */
+    Message getMessageById(int message_id);
+
+    /**
+     * looks up many messages at once
+     * @param message_ids the ids to look up, possibly repeated
+     * @return the messages found, in no particular order; ids without a message are left out
+     */
+    List<Message> getMessagesByIds(int[] message_ids);
+
+    /**
+     * @param message the message to insert (its message_id is ignored)
+     * @return the message with its new message_id, or null if it could not be inserted
+     */
+    Message createMessage(Message message);
+
+    /**
+     * inserts all of the messages or none of them
+     * @return the messages with their new ids in the same order, or null if nothing was inserted
+     */
+    List<Message> createMessages(List<Message> messages);
+
+    /**
+     * @return the deleted message, or null if none has this id
+     */
+    Message deleteMessage(int message_id);
+
+    /**
+     * @return the updated message, or null if none has this id
+     */
+    Message updateMessageText(int message_id, String newMessageText);
+
+    /**
+     * @return every message posted by the account, newest first (time_posted_epoch, then message_id)
+     */
+    List<Message> getMessagesByUser(int account_id);
+
+    /**
+     * one keyset page of an account's timeline, in the same order as getMessagesByUser(int)
+     * @param beforeTime time_posted_epoch of the cursor, or null for the first page
+     * @param beforeId message_id of the cursor; Integer.MAX_VALUE skips every message at beforeTime
+     * @param limit the page size
+     */
+    List<Message> getMessagesByUser(int account_id, Long beforeTime, int beforeId, int limit);
+}
@@ -0,0 +1,729 @@
+package DAO;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import Model.Message;
+
+/**
+ * A write-ahead log for the in-memory message store: every create, update and delete is appended
+ * to a memory-mapped segment file before the store applies it, so the store can be rebuilt after
+ * a crash without H2. Positions are byte offsets into the whole log; a segment is named after the
+ * position of its first byte (wal-00000000000000000000.log) and a new one is started once the
+ * current one cannot hold the next record.
+ *
+ * Each record is [int length][int crc32][byte type][payload], the checksum covering type and
+ * payload. Segments are zero-filled when mapped, so a length of 0 marks the end of the log, and a
+ * checksum that does not match marks a write torn by a crash; replay() stops at either and
+ * appends from there.
+ *
+ * How often the mapped pages are forced to disk is the FsyncPolicy. Snapshots (every message
+ * as of a log position) bound recovery time: once one is written, the segments wholly before its
+ * position are deleted.
+ */
+public class MessageWal implements MessageChangeLog {
+    /**
+     * when appended records are forced to disk
+     */
+    public enum FsyncPolicy {
+        /**
+         * before every append returns; slowest, nothing acknowledged is ever lost
+         */
+        WRITE,
+        /**
+         * by a flusher thread that writers wait on, so one force covers everything appended
+         * while the previous one ran; nothing acknowledged is lost
+         */
+        GROUP,
+        /**
+         * by a flusher thread every intervalMillis, without waiting; a crash loses at most the
+         * last interval
+         */
+        INTERVAL;
+
+        public static FsyncPolicy fromName(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    private static final byte INSERT = 1;
+    private static final byte UPDATE = 2;
+    private static final byte DELETE = 3;
+    /**
+     * length and checksum ahead of every record body
+     */
+    private static final int HEADER_BYTES = 8;
+    private static final int SNAPSHOT_MAGIC = 0x4D534E50;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final FsyncPolicy policy;
+    private final long intervalMillis;
+    private final CRC32 crc = new CRC32();
+
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment current;
+    private boolean recovered;
+    private boolean fresh;
+    /**
+     * position just past the last appended record
+     */
+    private long position;
+    private long durablePosition;
+    /**
+     * highest position a GROUP writer is waiting on
+     */
+    private long requestedPosition;
+    private long lastSnapshotPosition;
+    private long appends;
+    private long forces;
+    private long snapshots;
+    private long recoveredRecords;
+
+    private volatile boolean running = true;
+    private final Thread flusher;
+    private Thread compactor;
+
+    /**
+     * @param dir where segments and snapshots live; created if missing
+     * @param segmentBytes size of each mapped segment file
+     * @param policy when appends are forced to disk
+     * @param intervalMillis how often INTERVAL forces
+     */
+    public MessageWal(Path dir, int segmentBytes, FsyncPolicy policy, long intervalMillis) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.policy = policy;
+        this.intervalMillis = intervalMillis;
+        if (policy == FsyncPolicy.WRITE) {
+            flusher = null;
+        } else {
+            flusher = new Thread(this::flushLoop, "message-wal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /**
+     * Rebuilds state from disk: feeds the newest snapshot's messages and then every logged change
+     * after it to target, in order, and readies the log for appending. Must be called once before
+     * anything is appended.
+     * @return how many logged changes were replayed after the snapshot
+     */
+    public synchronized long replay(MessageChangeLog target) throws IOException {
+        Files.createDirectories(dir);
+        long start = 0;
+        Path snapshot = newestSnapshot();
+        if (snapshot != null) {
+            start = readSnapshot(snapshot, target);
+            lastSnapshotPosition = start;
+        }
+
+        List<Path> files = listFiles("wal-", ".log");
+        long replayed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            long base = positionOf(files.get(i));
+            long nextBase = i + 1 < files.size() ? positionOf(files.get(i + 1)) : Long.MAX_VALUE;
+            Segment segment = openSegment(base);
+            segments.add(segment);
+            if (nextBase <= start) {
+                // wholly before the snapshot; compaction would have deleted it
+                continue;
+            }
+            MappedByteBuffer buffer = segment.buffer;
+            buffer.position((int) Math.max(0, start - base));
+            replayed += replaySegment(buffer, target);
+            current = segment;
+            if (i + 1 < files.size() && base + buffer.position() != nextBase) {
+                // a damaged record mid-log: nothing after it can be applied in order
+                System.out.println("Message log is damaged in " + files.get(i) + " at offset "
+                    + buffer.position() + "; setting aside the segments after it");
+                for (int j = i + 1; j < files.size(); j++) {
+                    Files.move(files.get(j), files.get(j).resolveSibling(files.get(j).getFileName() + ".damaged"),
+                        StandardCopyOption.REPLACE_EXISTING);
+                }
+                break;
+            }
+        }
+        if (current == null) {
+            current = openSegment(start);
+            segments.add(current);
+        }
+        // clear whatever a torn write left past the last good record
+        MappedByteBuffer buffer = current.buffer;
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.force();
+
+        fresh = snapshot == null && replayed == 0;
+        recoveredRecords = replayed;
+        position = current.base + buffer.position();
+        durablePosition = position;
+        requestedPosition = position;
+        recovered = true;
+        return replayed;
+    }
+
+    /**
+     * applies the records from the buffer's position on, leaving the position after the last good one
+     */
+    private long replaySegment(MappedByteBuffer buffer, MessageChangeLog target) {
+        long count = 0;
+        while (true) {
+            int start = buffer.position();
+            Message message = readRecord(buffer);
+            if (message == null) {
+                buffer.position(start);
+                return count;
+            }
+            byte type = buffer.get(start + HEADER_BYTES);
+            if (type == INSERT) {
+                target.inserted(message);
+            } else if (type == UPDATE) {
+                target.updated(message);
+            } else {
+                target.deleted(message);
+            }
+            count++;
+        }
+    }
+
+    /**
+     * @return true if replay() found neither a snapshot nor any logged change
+     */
+    public synchronized boolean isFresh() {
+        return fresh;
+    }
+
+    public long inserted(Message message) {
+        return append(INSERT, message);
+    }
+
+    /**
+     * logs message_id and the new message_text
+     */
+    public long updated(Message message) {
+        return append(UPDATE, message);
+    }
+
+    /**
+     * logs the message_id only
+     */
+    public long deleted(Message message) {
+        return append(DELETE, message);
+    }
+
+    /**
+     * @return the position just past the record, to pass to awaitDurable()
+     */
+    private synchronized long append(byte type, Message message) {
+        if (!recovered) {
+            throw new IllegalStateException("replay() the message log before appending to it");
+        }
+        if (!running) {
+            throw new IllegalStateException("the message log is shut down");
+        }
+        byte[] text = type == DELETE ? null : message.getMessage_text().getBytes(StandardCharsets.UTF_8);
+        int recordBytes = HEADER_BYTES + bodyBytes(type, text);
+        if (recordBytes > segmentBytes) {
+            throw new IllegalArgumentException("a " + recordBytes + " byte record does not fit a log segment");
+        }
+        try {
+            if (current.buffer.remaining() < recordBytes) {
+                roll();
+            }
+            writeRecord(current.buffer, type, message, text);
+            appends++;
+            position = current.base + current.buffer.position();
+            if (policy == FsyncPolicy.WRITE) {
+                current.buffer.force();
+                forces++;
+                durablePosition = position;
+            }
+            return position;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * forces the full segment and starts the next one where it ended; callers hold the monitor
+     */
+    private void roll() throws IOException {
+        current.buffer.force();
+        forces++;
+        long base = current.base + current.buffer.position();
+        durablePosition = Math.max(durablePosition, base);
+        notifyAll();
+        current = openSegment(base);
+        segments.add(current);
+    }
+
+    /**
+     * Under GROUP, blocks until a force has covered position; WRITE has already forced it and
+     * INTERVAL does not wait.
+     */
+    @Override
+    public void awaitDurable(long position) {
+        if (policy != FsyncPolicy.GROUP || position == 0) {
+            return;
+        }
+        synchronized (this) {
+            if (position > requestedPosition) {
+                requestedPosition = position;
+                notifyAll();
+            }
+            while (durablePosition < position && running) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long target;
+            Segment segment;
+            synchronized (this) {
+                try {
+                    if (policy == FsyncPolicy.GROUP) {
+                        while (running && requestedPosition <= durablePosition) {
+                            wait();
+                        }
+                    } else if (running) {
+                        wait(intervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (position <= durablePosition) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+                target = position;
+                segment = current;
+            }
+            // outside the monitor, so writers keep appending while the pages are forced
+            segment.buffer.force();
+            synchronized (this) {
+                forces++;
+                durablePosition = Math.max(durablePosition, target);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot (to a temporary file, forced, then renamed into place) and deletes the
+     * segments and snapshots it makes redundant. The messages the source writes must be exactly
+     * the state after every change before the position it returns.
+     */
+    public void writeSnapshot(SnapshotSource source) throws IOException {
+        Path temp = dir.resolve("snapshot.tmp");
+        long snapshotPosition;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            SnapshotWriter out = new SnapshotWriter(channel, Math.max(1 << 16, segmentBytes / 16));
+            snapshotPosition = source.writeTo(out);
+            out.finish(snapshotPosition);
+            channel.force(true);
+        }
+        Files.move(temp, dir.resolve(String.format("snapshot-%020d.snap", snapshotPosition)),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        synchronized (this) {
+            lastSnapshotPosition = Math.max(lastSnapshotPosition, snapshotPosition);
+            snapshots++;
+            // a segment can go once the next one starts at or before the snapshot
+            while (segments.size() > 1 && segments.get(1).base <= lastSnapshotPosition) {
+                Files.deleteIfExists(segments.remove(0).path);
+            }
+        }
+        for (Path old : listFiles("snapshot-", ".snap")) {
+            if (positionOf(old) < snapshotPosition) {
+                Files.deleteIfExists(old);
+            }
+        }
+    }
+
+    /**
+     * Starts a daemon thread that checks every intervalMillis whether a segment's worth of log
+     * has been written since the last snapshot, and if so writes a new one from source.
+     */
+    public synchronized void startCompaction(SnapshotSource source, long intervalMillis) {
+        if (compactor != null) {
+            return;
+        }
+        compactor = new Thread(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(intervalMillis);
+                    if (logBytesSinceSnapshot() >= segmentBytes) {
+                        writeSnapshot(source);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    // keep logging; the next round tries again
+                    System.out.println(e.getMessage());
+                }
+            }
+        }, "message-wal-compaction");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    private synchronized long logBytesSinceSnapshot() {
+        return position - lastSnapshotPosition;
+    }
+
+    /**
+     * @return the position just past the last appended record
+     */
+    public synchronized long position() {
+        return position;
+    }
+
+    /**
+     * stops the background threads and forces whatever is still only in memory
+     */
+    public void shutdown() {
+        Thread compaction;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            notifyAll();
+            compaction = compactor;
+        }
+        if (compaction != null) {
+            compaction.interrupt();
+        }
+        try {
+            if (flusher != null) {
+                flusher.join(10000);
+            }
+            if (compaction != null) {
+                compaction.join(10000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (current != null && durablePosition < position) {
+                current.buffer.force();
+                forces++;
+                durablePosition = position;
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the log's size and fsync progress
+     */
+    public synchronized Stats getStats() {
+        return new Stats(policy.name().toLowerCase(), segments.size(), segmentBytes, position, durablePosition,
+            appends, forces, snapshots, lastSnapshotPosition, recoveredRecords);
+    }
+
+    /**
+     * @return the body size (type byte and payload) of a record
+     */
+    private static int bodyBytes(byte type, byte[] text) {
+        switch (type) {
+        case INSERT:
+            return 1 + 4 + 4 + 8 + 4 + text.length;
+        case UPDATE:
+            return 1 + 4 + 4 + text.length;
+        default:
+            return 1 + 4;
+        }
+    }
+
+    private void writeRecord(ByteBuffer buffer, byte type, Message message, byte[] text) {
+        writeRecord(buffer, type, message.getMessage_id(), message.getPosted_by(), message.getTime_posted_epoch(), text);
+    }
+
+    private void writeRecord(ByteBuffer buffer, byte type, int messageId, int postedBy, long epoch,
+            byte[] text) {
+        int start = buffer.position();
+        buffer.putInt(bodyBytes(type, text));
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putInt(messageId);
+        if (type == INSERT) {
+            buffer.putInt(postedBy);
+            buffer.putLong(epoch);
+        }
+        if (type != DELETE) {
+            buffer.putInt(text.length);
+            buffer.put(text);
+        }
+        buffer.putInt(start + 4, checksum(buffer, start + HEADER_BYTES, buffer.position()));
+    }
+
+    /**
+     * @return the record at the buffer's position, or null at the end of the log or a damaged
+     *         record; for deletes only message_id is set, for updates message_id and message_text
+     */
+    private Message readRecord(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_BYTES + 1) {
+            return null;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt();
+        int expected = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()
+                || checksum(buffer, start + HEADER_BYTES, start + HEADER_BYTES + length) != expected) {
+            return null;
+        }
+        byte type = buffer.get();
+        int messageId = buffer.getInt();
+        switch (type) {
+        case INSERT:
+            int postedBy = buffer.getInt();
+            long epoch = buffer.getLong();
+            return new Message(messageId, postedBy, readText(buffer), epoch);
+        case UPDATE:
+            return new Message(messageId, 0, readText(buffer), 0);
+        case DELETE:
+            return new Message(messageId, 0, null, 0);
+        default:
+            return null;
+        }
+    }
+
+    private static String readText(ByteBuffer buffer) {
+        byte[] text = new byte[buffer.getInt()];
+        buffer.get(text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * callers hold the monitor or own the buffer, since the checksum is shared
+     */
+    private int checksum(ByteBuffer buffer, int from, int to) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(to);
+        body.position(from);
+        synchronized (crc) {
+            crc.reset();
+            crc.update(body);
+            return (int) crc.getValue();
+        }
+    }
+
+    /**
+     * loads a snapshot's messages into target
+     * @return the log position the snapshot was taken at
+     */
+    private long readSnapshot(Path file, MessageChangeLog target) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 12 || buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(file + " is not a message snapshot");
+            }
+            long snapshotPosition = buffer.getLong();
+            while (buffer.hasRemaining()) {
+                Message message = readRecord(buffer);
+                if (message == null) {
+                    // snapshots are renamed into place only once complete, so this is real damage
+                    throw new IOException(file + " is damaged at offset " + buffer.position());
+                }
+                target.inserted(message);
+            }
+            return snapshotPosition;
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private Segment openSegment(long base) throws IOException {
+        Path path = dir.resolve(String.format("wal-%020d.log", base));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping outlives the channel; new files are zero-filled up to segmentBytes
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(segmentBytes, channel.size()));
+            return new Segment(path, base, buffer);
+        }
+    }
+
+    private Path newestSnapshot() throws IOException {
+        List<Path> files = listFiles("snapshot-", ".snap");
+        return files.isEmpty() ? null : files.get(files.size() - 1);
+    }
+
+    /**
+     * @return the matching files, oldest position first (the zero-padded names sort that way)
+     */
+    private List<Path> listFiles(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(prefix) && name.endsWith(suffix);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static long positionOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.lastIndexOf('.')));
+    }
+
+    private static class Segment {
+        final Path path;
+        final long base;
+        final MappedByteBuffer buffer;
+
+        Segment(Path path, long base, MappedByteBuffer buffer) {
+            this.path = path;
+            this.base = base;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Every message as of a log position, for writeSnapshot().
+     */
+    public interface SnapshotSource {
+        /**
+         * hands every message to out, one insert() each
+         * @return the log position the messages correspond to
+         */
+        long writeTo(SnapshotWriter out) throws IOException;
+    }
+
+    /**
+     * Appends a snapshot's records to its file, draining to the channel as the buffer fills, so
+     * the messages are never gathered in memory first.
+     */
+    public class SnapshotWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        SnapshotWriter(FileChannel channel, int bufferBytes) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(bufferBytes);
+            // the position is filled in by finish(), once the source has returned it
+            buffer.putInt(SNAPSHOT_MAGIC);
+            buffer.putLong(0);
+        }
+
+        /**
+         * @param text the message_text as UTF-8
+         */
+        public void insert(int messageId, int postedBy, long epoch, byte[] text) throws IOException {
+            if (buffer.remaining() < HEADER_BYTES + bodyBytes(INSERT, text)) {
+                drain(buffer, channel);
+            }
+            writeRecord(buffer, INSERT, messageId, postedBy, epoch, text);
+        }
+
+        private void finish(long position) throws IOException {
+            drain(buffer, channel);
+            ByteBuffer header = ByteBuffer.allocate(8).putLong(position);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, 4 + 8 - header.remaining());
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the log. position - durablePosition is what a crash could still lose.
+     */
+    public static class Stats {
+        private final String fsync;
+        private final int segments;
+        private final int segmentBytes;
+        private final long position;
+        private final long durablePosition;
+        private final long appends;
+        private final long forces;
+        private final long snapshots;
+        private final long lastSnapshotPosition;
+        private final long recoveredRecords;
+
+        Stats(String fsync, int segments, int segmentBytes, long position, long durablePosition, long appends,
+                long forces, long snapshots, long lastSnapshotPosition, long recoveredRecords) {
+            this.fsync = fsync;
+            this.segments = segments;
+            this.segmentBytes = segmentBytes;
+            this.position = position;
+            this.durablePosition = durablePosition;
+            this.appends = appends;
+            this.forces = forces;
+            this.snapshots = snapshots;
+            this.lastSnapshotPosition = lastSnapshotPosition;
+            this.recoveredRecords = recoveredRecords;
+        }
+
+        public String getFsync() {
+            return fsync;
+        }
+
+        public int getSegments() {
+            return segments;
+        }
+
+        public int getSegmentBytes() {
+            return segmentBytes;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public long getDurablePosition() {
+            return durablePosition;
+        }
+
+        public long getAppends() {
+            return appends;
+        }
+
+        public long getForces() {
+            return forces;
+        }
+
+        public long getSnapshots() {
+            return snapshots;
+        }
+
+        public long getLastSnapshotPosition() {
+            return lastSnapshotPosition;
+        }
+
+        public long getRecoveredRecords() {
+            return recoveredRecords;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * Replays the in-memory store's writes into H2 on a background thread, so H2 stays the durable
+ * copy without being on the request path. Changes are applied in the order they were made,
+ * up to maxBatchSize per transaction, with each run of same-kind changes sent as one JDBC batch.
+ *
+ * The queue is bounded: once H2 falls queueCapacity changes behind, enqueue() waits up to
+ * offerTimeoutMillis for room and then throws RejectedExecutionException, before the store has
+ * applied the change, so the request gets 429. The store holds its write lock while it waits,
+ * so keep the timeout short. Changes still queued when the process dies are lost.
+ */
+public class MessageWriteBehind implements MessageChangeLog {
+    /**
+     * the kinds of change replayed into H2
+     */
+    enum Kind { INSERT, UPDATE, DELETE }
+
+    private final BlockingQueue<Change> queue;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long offerTimeoutMillis;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * largest message_id inserted so far, and the id H2's identity was last moved to; only the
+     * writer thread touches these
+     */
+    private int highestInsertedId;
+    private int identityRestartedAt;
+
+    /**
+     * @param queueCapacity how many changes may wait before writers are held back
+     * @param maxBatchSize the most changes applied in one transaction
+     * @param maxDelayMillis how long the writer waits to fill a batch once it has one change
+     * @param offerTimeoutMillis how long a write waits for room in a full queue before it is rejected
+     */
+    public MessageWriteBehind(int queueCapacity, int maxBatchSize, long maxDelayMillis, long offerTimeoutMillis) {
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.writer = new Thread(this::run, "message-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * queues a new message, including the message_id the store assigned
+     */
+    public long inserted(Message message) {
+        return enqueue(new Change(Kind.INSERT, message));
+    }
+
+    /**
+     * queues a text edit; only message_id and message_text are used
+     */
+    public long updated(Message message) {
+        return enqueue(new Change(Kind.UPDATE, message));
+    }
+
+    public long deleted(Message message) {
+        return enqueue(new Change(Kind.DELETE, message));
+    }
+
+    /**
+     * @return the change's sequence number; H2 is written behind, so there is nothing to wait for
+     * @throws RejectedExecutionException if the queue stayed full for offerTimeoutMillis, or the
+     * caller was interrupted while waiting; the change was not queued
+     */
+    private long enqueue(Change change) {
+        boolean queued;
+        try {
+            queued = queue.offer(change, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Interrupted before queueing a message change for H2");
+        }
+        if (!queued) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("H2 write-behind queue is full");
+        }
+        return enqueued.incrementAndGet();
+    }
+
+    private void run() {
+        List<Change> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Change first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    Change next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                // never let one bad batch kill the writer
+                System.out.println(e.getMessage());
+                failures.addAndGet(batch.size());
+            } finally {
+                applied.addAndGet(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Change> batch) {
+        batches.incrementAndGet();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                apply(connection, batch);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                // one bad change rolls back the whole batch, so replay one by one to isolate it
+                System.out.println(e.getMessage());
+                for (Change change : batch) {
+                    try {
+                        apply(connection, List.of(change));
+                        connection.commit();
+                    } catch (SQLException single) {
+                        connection.rollback();
+                        failures.incrementAndGet();
+                        System.out.println("Could not write message " + change.message.getMessage_id()
+                            + " to H2: " + single.getMessage());
+                    }
+                }
+            }
+            highestInsertedId = Math.max(highestInsertedId, highestInsertedId(batch));
+            // the ALTER TABLE costs a commit of its own, so only move the identity once caught up
+            if (highestInsertedId > identityRestartedAt && queue.isEmpty()) {
+                restartIdentity(connection, highestInsertedId + 1);
+                identityRestartedAt = highestInsertedId;
+            }
+        } catch (SQLException e) {
+            failures.addAndGet(batch.size());
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * applies the changes in order, one JDBC batch per run of the same kind
+     */
+    private void apply(Connection connection, List<Change> changes) throws SQLException {
+        int start = 0;
+        while (start < changes.size()) {
+            Kind kind = changes.get(start).kind;
+            int end = start + 1;
+            while (end < changes.size() && changes.get(end).kind == kind) {
+                end++;
+            }
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sqlFor(kind))) {
+                for (int i = start; i < end; i++) {
+                    Message message = changes.get(i).message;
+                    switch (kind) {
+                    case INSERT:
+                        preparedStatement.setInt(1, message.getMessage_id());
+                        preparedStatement.setInt(2, message.getPosted_by());
+                        preparedStatement.setString(3, message.getMessage_text());
+                        preparedStatement.setLong(4, message.getTime_posted_epoch());
+                        break;
+                    case UPDATE:
+                        preparedStatement.setString(1, message.getMessage_text());
+                        preparedStatement.setInt(2, message.getMessage_id());
+                        break;
+                    default:
+                        preparedStatement.setInt(1, message.getMessage_id());
+                    }
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+            }
+            start = end;
+        }
+    }
+
+    private static String sqlFor(Kind kind) {
+        switch (kind) {
+        case INSERT:
+            return "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?)";
+        case UPDATE:
+            return "UPDATE message SET message_text = ? WHERE message_id = ?";
+        default:
+            return "DELETE FROM message WHERE message_id = ?";
+        }
+    }
+
+    /**
+     * @return the largest message_id inserted by the batch, 0 if it inserted nothing
+     */
+    private static int highestInsertedId(List<Change> batch) {
+        int highest = 0;
+        for (Change change : batch) {
+            if (change.kind == Kind.INSERT) {
+                highest = Math.max(highest, change.message.getMessage_id());
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * Explicit ids do not advance H2's identity, so move it past them; otherwise switching back
+     * to messages.store=h2 would hand out ids that are already taken. Done whenever a batch
+     * leaves the queue empty, which the last one before shutdown always does.
+     */
+    private void restartIdentity(Connection connection, int nextId) throws SQLException {
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE message ALTER COLUMN message_id RESTART WITH " + nextId);
+        }
+    }
+
+    /**
+     * Waits until every change queued so far has been written (or has failed).
+     * @return true if the writer caught up within the timeout
+     */
+    public boolean awaitFlushed(long timeoutMillis) throws InterruptedException {
+        long target = enqueued.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (applied.get() < target) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * stops accepting changes, writes whatever is still queued and waits for the writer to finish
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getApplied() {
+        return applied.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return writes turned away because the queue was full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    private static class Change {
+        final Kind kind;
+        final Message message;
+
+        Change(Kind kind, Message message) {
+            this.kind = kind;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package DAO;
+
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import Model.Account;
+import Util.Metrics;
+
+/**
+ * An AccountDAO that times each of its queries and counts their rows, like
+ * MeteredMessageRepository does for messages.
+ */
+public class MeteredAccountDAO extends AccountDAO {
+    private final Metrics.Timer getAccountByUsername;
+    private final Metrics.Timer getAccountById;
+    private final Metrics.Timer getExistingAccountIds;
+    private final Metrics.Timer forEachAccountId;
+    private final Metrics.Timer streamAllAccounts;
+    private final Metrics.Timer createAccount;
+    private final Metrics.Timer updatePassword;
+
+    public MeteredAccountDAO(Metrics metrics) {
+        getAccountByUsername = MeteredMessageRepository.queryTimer(metrics, "AccountDAO", "getAccountByUsername");
+        getAccountById = MeteredMessageRepository.queryTimer(metrics, "AccountDAO", "getAccountById");
+        getExistingAccountIds = MeteredMessageRepository.queryTimer(metrics, "AccountDAO", "getExistingAccountIds");
+        forEachAccountId = MeteredMessageRepository.queryTimer(metrics, "AccountDAO", "forEachAccountId");
+        streamAllAccounts = MeteredMessageRepository.queryTimer(metrics, "AccountDAO", "streamAllAccounts");
+        createAccount = MeteredMessageRepository.queryTimer(metrics, "AccountDAO", "createAccount");
+        updatePassword = MeteredMessageRepository.queryTimer(metrics, "AccountDAO", "updatePassword");
+    }
+
+    @Override
+    public Account getAccountByUsername(String username) {
+        long start = System.nanoTime();
+        Account account = super.getAccountByUsername(username);
+        getAccountByUsername.record(start, account == null ? 0 : 1);
+        return account;
+    }
+
+    @Override
+    public Account getAccountById(int account_id) {
+        long start = System.nanoTime();
+        Account account = super.getAccountById(account_id);
+        getAccountById.record(start, account == null ? 0 : 1);
+        return account;
+    }
+
+    @Override
+    public Set<Integer> getExistingAccountIds(Set<Integer> account_ids) {
+        long start = System.nanoTime();
+        Set<Integer> existing = super.getExistingAccountIds(account_ids);
+        getExistingAccountIds.record(start, existing.size());
+        return existing;
+    }
+
+    @Override
+    public int forEachAccountId(IntConsumer consumer) {
+        long start = System.nanoTime();
+        int count = super.forEachAccountId(consumer);
+        forEachAccountId.record(start, count);
+        return count;
+    }
+
+    @Override
+    public int streamAllAccounts(Consumer<Account> consumer) {
+        long start = System.nanoTime();
+        int count = super.streamAllAccounts(consumer);
+        streamAllAccounts.record(start, count);
+        return count;
+    }
+
+    @Override
+    public Account createAccount(Account account) {
+        long start = System.nanoTime();
+        Account created = super.createAccount(account);
+        createAccount.record(start, created == null ? 0 : 1);
+        return created;
+    }
+
+    @Override
+    public boolean updatePassword(int account_id, String password) {
+        long start = System.nanoTime();
+        boolean updated = super.updatePassword(account_id, password);
+        updatePassword.record(start, updated ? 1 : 0);
+        return updated;
+    }
+}
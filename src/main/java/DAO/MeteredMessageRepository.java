@@ -0,0 +1,139 @@
+package DAO;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import Model.Message;
+import Util.Metrics;
+
+/**
+ * Times every call into another MessageRepository and counts the rows it returned or changed,
+ * reported as dao_query_seconds and dao_query_rows_total with the repository's class and the
+ * method as labels. The timers are looked up once here, so a call only adds the recording.
+ */
+public class MeteredMessageRepository implements MessageRepository {
+    private final MessageRepository delegate;
+    private final Metrics.Timer getAllMessages;
+    private final Metrics.Timer getMessagesAfter;
+    private final Metrics.Timer streamAllMessages;
+    private final Metrics.Timer getMessageById;
+    private final Metrics.Timer getMessagesByIds;
+    private final Metrics.Timer createMessage;
+    private final Metrics.Timer createMessages;
+    private final Metrics.Timer deleteMessage;
+    private final Metrics.Timer updateMessageText;
+    private final Metrics.Timer getMessagesByUser;
+    private final Metrics.Timer getMessagesByUserPage;
+
+    public MeteredMessageRepository(MessageRepository delegate, Metrics metrics) {
+        this.delegate = delegate;
+        String dao = delegate.getClass().getSimpleName();
+        getAllMessages = queryTimer(metrics, dao, "getAllMessages");
+        getMessagesAfter = queryTimer(metrics, dao, "getMessagesAfter");
+        streamAllMessages = queryTimer(metrics, dao, "streamAllMessages");
+        getMessageById = queryTimer(metrics, dao, "getMessageById");
+        getMessagesByIds = queryTimer(metrics, dao, "getMessagesByIds");
+        createMessage = queryTimer(metrics, dao, "createMessage");
+        createMessages = queryTimer(metrics, dao, "createMessages");
+        deleteMessage = queryTimer(metrics, dao, "deleteMessage");
+        updateMessageText = queryTimer(metrics, dao, "updateMessageText");
+        getMessagesByUser = queryTimer(metrics, dao, "getMessagesByUser");
+        getMessagesByUserPage = queryTimer(metrics, dao, "getMessagesByUserPage");
+    }
+
+    /**
+     * @return the timer for one DAO method; shared with MeteredAccountDAO
+     */
+    static Metrics.Timer queryTimer(Metrics metrics, String dao, String method) {
+        return metrics.timer("dao_query_seconds", "Time spent in each DAO method",
+            "dao=\"" + dao + "\",method=\"" + method + "\"");
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        long start = System.nanoTime();
+        List<Message> messages = delegate.getAllMessages();
+        getAllMessages.record(start, messages.size());
+        return messages;
+    }
+
+    @Override
+    public List<Message> getMessagesAfter(int afterMessageId, int limit) {
+        long start = System.nanoTime();
+        List<Message> messages = delegate.getMessagesAfter(afterMessageId, limit);
+        getMessagesAfter.record(start, messages.size());
+        return messages;
+    }
+
+    @Override
+    public int streamAllMessages(Consumer<Message> consumer) {
+        long start = System.nanoTime();
+        int count = delegate.streamAllMessages(consumer);
+        streamAllMessages.record(start, count);
+        return count;
+    }
+
+    @Override
+    public Message getMessageById(int message_id) {
+        long start = System.nanoTime();
+        Message message = delegate.getMessageById(message_id);
+        getMessageById.record(start, message == null ? 0 : 1);
+        return message;
+    }
+
+    @Override
+    public List<Message> getMessagesByIds(int[] message_ids) {
+        long start = System.nanoTime();
+        List<Message> messages = delegate.getMessagesByIds(message_ids);
+        getMessagesByIds.record(start, messages.size());
+        return messages;
+    }
+
+    @Override
+    public Message createMessage(Message message) {
+        long start = System.nanoTime();
+        Message created = delegate.createMessage(message);
+        createMessage.record(start, created == null ? 0 : 1);
+        return created;
+    }
+
+    @Override
+    public List<Message> createMessages(List<Message> messages) {
+        long start = System.nanoTime();
+        List<Message> created = delegate.createMessages(messages);
+        createMessages.record(start, created == null ? 0 : created.size());
+        return created;
+    }
+
+    @Override
+    public Message deleteMessage(int message_id) {
+        long start = System.nanoTime();
+        Message deleted = delegate.deleteMessage(message_id);
+        deleteMessage.record(start, deleted == null ? 0 : 1);
+        return deleted;
+    }
+
+    @Override
+    public Message updateMessageText(int message_id, String newMessageText) {
+        long start = System.nanoTime();
+        Message updated = delegate.updateMessageText(message_id, newMessageText);
+        updateMessageText.record(start, updated == null ? 0 : 1);
+        return updated;
+    }
+
+    @Override
+    public List<Message> getMessagesByUser(int account_id) {
+        long start = System.nanoTime();
+        List<Message> messages = delegate.getMessagesByUser(account_id);
+        getMessagesByUser.record(start, messages.size());
+        return messages;
+    }
+
+    @Override
+    public List<Message> getMessagesByUser(int account_id, Long beforeTime, int beforeId, int limit) {
+        long start = System.nanoTime();
+        List<Message> messages = delegate.getMessagesByUser(account_id, beforeTime, beforeId, limit);
+        getMessagesByUserPage.record(start, messages.size());
+        return messages;
+    }
+}
@@ -0,0 +1,364 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import Model.Message;
+import Util.AppConfig;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+
+/**
+ * Messages spread over N independent H2 databases, so writes by different accounts do not
+ * queue on one store. A message lives on shard shardOf(posted_by), and every shard hands out
+ * ids from its own identity column that starts at its shard number and steps by N, so
+ * message_id % N names the shard and ids stay unique across all of them without coordination.
+ * With one shard the ids are the usual 1, 2, 3...
+ *
+ * Lookups by id and by account go to one shard. Reads over every message are scattered to all
+ * shards in parallel on a ForkJoinPool and the per-shard results, each sorted by message_id,
+ * are k-way merged; streaming merges the shards' lazy result sets on the caller's thread, so
+ * memory stays flat.
+ *
+ * The shard databases have no account table, so posted_by is checked by MessageService (through
+ * the account index) rather than by a foreign key. The shard count cannot change once messages
+ * have been written.
+ */
+public class ShardedMessageRepository implements MessageRepository {
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private final ConnectionPool[] pools;
+    private final MessageDAO[] shards;
+    private final ForkJoinPool scatterPool;
+
+    /**
+     * Opens (and creates, if needed) every shard database
+     * @param urlPattern a JDBC URL with %d for the shard number, e.g. jdbc:h2:./h2/shard-%d;
+     * @param shardCount the number of shards, at least 1
+     */
+    public ShardedMessageRepository(String urlPattern, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1");
+        }
+        pools = new ConnectionPool[shardCount];
+        shards = new MessageDAO[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            ConnectionPool pool = ConnectionUtil.createPool(String.format(urlPattern, shard));
+            pools[shard] = pool;
+            shards[shard] = new MessageDAO(() -> ConnectionUtil.getConnection(pool));
+            createSchema(shard);
+        }
+        scatterPool = new ForkJoinPool(shardCount);
+    }
+
+    /**
+     * @return the repository described by messages.shards and messages.shards.url, or null when
+     * messages.shards is 0
+     */
+    public static ShardedMessageRepository fromConfig() {
+        int shardCount = AppConfig.getInt("messages.shards", 0);
+        if (shardCount < 1) {
+            return null;
+        }
+        return new ShardedMessageRepository(AppConfig.getString("messages.shards.url", "jdbc:h2:./h2/shard-%d;"),
+            shardCount);
+    }
+
+    private void createSchema(int shard) {
+        int shardCount = shards.length;
+        try (Connection connection = ConnectionUtil.getConnection(pools[shard]);
+             Statement statement = connection.createStatement()) {
+            // shard 0 starts at N rather than 0, so that no message_id is 0
+            statement.execute("create table if not exists message ("
+                + "message_id int generated by default as identity (start with " + (shard == 0 ? shardCount : shard)
+                + " increment by " + shardCount + ") primary key, "
+                + "posted_by int, message_text varchar(255), time_posted_epoch bigint)");
+            // the same index names as the main database, which MessageDAO's queries name
+            statement.execute("create index if not exists idx_message_posted_by_time "
+                + "on message (posted_by, time_posted_epoch desc, message_id)");
+            statement.execute("create index if not exists idx_message_time_posted on message (time_posted_epoch desc)");
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return the shard an account's messages are written to
+     */
+    public int shardOf(int posted_by) {
+        // murmur3's finalizer, so consecutive account ids spread evenly
+        int h = posted_by;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, shards.length);
+    }
+
+    /**
+     * @return the shard a message_id was handed out by
+     */
+    public int shardOfId(int message_id) {
+        return Math.floorMod(message_id, shards.length);
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return merge(scatter(shard -> shards[shard].getAllMessages()), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> getMessagesAfter(int afterMessageId, int limit) {
+        // each shard's first limit past the cursor holds every message the merged page can need
+        return merge(scatter(shard -> shards[shard].getMessagesAfter(afterMessageId, limit)), limit);
+    }
+
+    @Override
+    public int streamAllMessages(Consumer<Message> consumer) {
+        int count = 0;
+        Connection[] connections = new Connection[shards.length];
+        List<ResultSet> resultSets = new ArrayList<>(shards.length);
+        try {
+            PriorityQueue<Head> heads = new PriorityQueue<>(shards.length, Comparator.comparingInt(head -> head.message.getMessage_id()));
+            for (int shard = 0; shard < shards.length; shard++) {
+                connections[shard] = ConnectionUtil.getConnection(pools[shard]);
+                try (Statement statement = connections[shard].createStatement()) {
+                    statement.execute("SET LAZY_QUERY_EXECUTION TRUE");
+                }
+                PreparedStatement preparedStatement = connections[shard].prepareStatement("SELECT * FROM message ORDER BY message_id");
+                preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+                ResultSet rs = preparedStatement.executeQuery();
+                resultSets.add(rs);
+                if (rs.next()) {
+                    heads.add(new Head(rs));
+                }
+            }
+            Head head;
+            while ((head = heads.poll()) != null) {
+                consumer.accept(head.message);
+                count++;
+                if (head.rs.next()) {
+                    head.message = mapRow(head.rs);
+                    heads.add(head);
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            for (ResultSet rs : resultSets) {
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+            for (Connection connection : connections) {
+                if (connection == null) {
+                    continue;
+                }
+                // pooled connections are reused, so put the session setting back before closing
+                try (Connection c = connection; Statement statement = c.createStatement()) {
+                    statement.execute("SET LAZY_QUERY_EXECUTION FALSE");
+                } catch (SQLException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Message getMessageById(int message_id) {
+        return shards[shardOfId(message_id)].getMessageById(message_id);
+    }
+
+    /**
+     * Groups the ids by the shard their id names and asks each shard holding some of them,
+     * in parallel.
+     */
+    @Override
+    public List<Message> getMessagesByIds(int[] message_ids) {
+        List<List<Integer>> parts = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            parts.add(new ArrayList<>());
+        }
+        for (int message_id : message_ids) {
+            parts.get(shardOfId(message_id)).add(message_id);
+        }
+        List<Message> found = new ArrayList<>();
+        for (List<Message> part : scatter(shard -> parts.get(shard).isEmpty()
+                ? Collections.<Message>emptyList()
+                : shards[shard].getMessagesByIds(parts.get(shard).stream().mapToInt(Integer::intValue).toArray()))) {
+            found.addAll(part);
+        }
+        return found;
+    }
+
+    @Override
+    public Message createMessage(Message message) {
+        return shards[shardOf(message.getPosted_by())].createMessage(message);
+    }
+
+    /**
+     * Splits the batch by shard and inserts each part as one batch, all shards in parallel. The
+     * parts commit separately, so if one shard fails the others keep their rows and null is
+     * returned.
+     */
+    @Override
+    public List<Message> createMessages(List<Message> messages) {
+        List<List<Message>> parts = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Message message : messages) {
+            parts.get(shardOf(message.getPosted_by())).add(message);
+        }
+        List<List<Message>> created = scatter(shard -> parts.get(shard).isEmpty()
+            ? parts.get(shard) : shards[shard].createMessages(parts.get(shard)));
+        if (created.contains(null)) {
+            return null;
+        }
+        // back into the caller's order: each part kept the order of its messages
+        int[] next = new int[shards.length];
+        List<Message> result = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            int shard = shardOf(message.getPosted_by());
+            result.add(created.get(shard).get(next[shard]++));
+        }
+        return result;
+    }
+
+    @Override
+    public Message deleteMessage(int message_id) {
+        return shards[shardOfId(message_id)].deleteMessage(message_id);
+    }
+
+    @Override
+    public Message updateMessageText(int message_id, String newMessageText) {
+        return shards[shardOfId(message_id)].updateMessageText(message_id, newMessageText);
+    }
+
+    @Override
+    public List<Message> getMessagesByUser(int account_id) {
+        return shards[shardOf(account_id)].getMessagesByUser(account_id);
+    }
+
+    @Override
+    public List<Message> getMessagesByUser(int account_id, Long beforeTime, int beforeId, int limit) {
+        return shards[shardOf(account_id)].getMessagesByUser(account_id, beforeTime, beforeId, limit);
+    }
+
+    /**
+     * Deletes every message on every shard and restarts the ids, for tests and benchmarks
+     */
+    public void clear() {
+        for (int shard = 0; shard < shards.length; shard++) {
+            try (Connection connection = ConnectionUtil.getConnection(pools[shard]);
+                 Statement statement = connection.createStatement()) {
+                statement.execute("truncate table message restart identity");
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * stops the scatter threads and closes every shard's pool
+     */
+    public void shutdown() {
+        scatterPool.shutdown();
+        for (ConnectionPool pool : pools) {
+            pool.close();
+        }
+    }
+
+    /**
+     * runs query against every shard at once
+     * @return the results in shard order
+     */
+    private <T> List<T> scatter(IntFunction<T> query) {
+        if (shards.length == 1) {
+            return Collections.singletonList(query.apply(0));
+        }
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            int s = shard;
+            tasks.add(scatterPool.submit(() -> query.apply(s)));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        for (ForkJoinTask<T> task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+
+    /**
+     * k-way merge of lists that are each sorted by message_id
+     * @return the first limit messages of the merged order
+     */
+    static List<Message> merge(List<List<Message>> sorted, int limit) {
+        if (sorted.size() == 1) {
+            List<Message> only = sorted.get(0);
+            return only.size() <= limit ? only : new ArrayList<>(only.subList(0, limit));
+        }
+        int total = 0;
+        // each cursor is {list, position}; ordered by the message it points at
+        PriorityQueue<int[]> cursors = new PriorityQueue<>(sorted.size(),
+            Comparator.comparingInt(cursor -> sorted.get(cursor[0]).get(cursor[1]).getMessage_id()));
+        for (int i = 0; i < sorted.size(); i++) {
+            total += sorted.get(i).size();
+            if (!sorted.get(i).isEmpty()) {
+                cursors.add(new int[] { i, 0 });
+            }
+        }
+        List<Message> merged = new ArrayList<>(Math.min(total, limit));
+        int[] cursor;
+        while (merged.size() < limit && (cursor = cursors.poll()) != null) {
+            List<Message> list = sorted.get(cursor[0]);
+            merged.add(list.get(cursor[1]++));
+            if (cursor[1] < list.size()) {
+                cursors.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    private static Message mapRow(ResultSet rs) throws SQLException {
+        return new Message(
+            rs.getInt("message_id"),
+            rs.getInt("posted_by"),
+            rs.getString("message_text"),
+            rs.getLong("time_posted_epoch")
+        );
+    }
+
+    /**
+     * one shard's open result set and the row it is on
+     */
+    private static class Head {
+        final ResultSet rs;
+        Message message;
+
+        Head(ResultSet rs) throws SQLException {
+            this.rs = rs;
+            this.message = mapRow(rs);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package Service;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import DAO.AccountDAO;
+import Util.ConcurrentIntBitSet;
+
+/**
+ * In-memory set of every known account_id, shared by AccountService and MessageService. It is
+ * loaded once at startup and updated on registration, which turns the posted_by check on every
+ * new message into a bitmap lookup. Accounts are never deleted, so a hit is always trustworthy;
+ * a miss falls back to the database in case the account was created outside this process.
+ */
+public class AccountIdIndex {
+    private final AccountDAO accountDAO;
+    private final ConcurrentIntBitSet accountIds = new ConcurrentIntBitSet();
+
+    public AccountIdIndex(AccountDAO accountDAO) {
+        this.accountDAO = accountDAO;
+    }
+
+    /**
+     * reads every account_id from the database into the index
+     * @return the number of ids loaded
+     */
+    public int load() {
+        return accountDAO.forEachAccountId(accountIds::add);
+    }
+
+    /**
+     * records a newly registered account
+     * @param account_id the generated id
+     */
+    public void add(int account_id) {
+        accountIds.add(account_id);
+    }
+
+    /**
+     * checks that an account exists, asking the database only when the id is not in memory
+     * @param account_id the id to check
+     * @return true if the account exists
+     */
+    public boolean exists(int account_id) {
+        if (accountIds.contains(account_id)) {
+            return true;
+        }
+        if (accountDAO.getAccountById(account_id) != null) {
+            accountIds.add(account_id);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * checks that every account exists, asking the database once for all of the ids not in memory
+     * @param account_ids the ids to check
+     * @return true if they all exist
+     */
+    public boolean existAll(Set<Integer> account_ids) {
+        Set<Integer> unknown = new HashSet<>();
+        for (int account_id : account_ids) {
+            if (!accountIds.contains(account_id)) {
+                unknown.add(account_id);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return true;
+        }
+        Set<Integer> existing = accountDAO.getExistingAccountIds(unknown);
+        existing.forEach(accountIds::add);
+        return existing.size() == unknown.size();
+    }
+
+    public int size() {
+        return accountIds.size();
+    }
+}
@@ -1,18 +1,32 @@
 package Service;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
 import DAO.AccountDAO;
 import Model.Account;
+import Util.PasswordHasher;
 
 public class AccountService {
     // import the DAO layer into the class block
     private AccountDAO accountDAO;
+    // known account ids, shared with MessageService
+    private AccountIdIndex accountIdIndex;
+    // salted, tunable-cost password hashes
+    private final PasswordHasher passwordHasher;
+    // bounded pool the hashing runs on, null to hash on the calling thread
+    private final ExecutorService hashingExecutor;
+    // verified against when the username is unknown, so that a miss costs as much as a wrong password
+    private volatile String dummyHash;
 
     /**
      * No-args constructor that creates a default AccountDAO
      * 
      */
     public AccountService() {
-        accountDAO = new AccountDAO();
+        this(new AccountDAO());
     }
 
     /**
@@ -20,7 +34,31 @@ public class AccountService {
      * @param accountDAO the DAO to use
      */
     public AccountService(AccountDAO accountDAO) {
+        this(accountDAO, new AccountIdIndex(accountDAO));
+    }
+
+    /**
+     * Constructor that shares an account id index with other services
+     * @param accountDAO the DAO to use
+     * @param accountIdIndex the index to keep up to date on registration
+     */
+    public AccountService(AccountDAO accountDAO, AccountIdIndex accountIdIndex) {
+        this(accountDAO, accountIdIndex, PasswordHasher.fromConfig(), null);
+    }
+
+    /**
+     * Constructor that hashes passwords on a dedicated executor
+     * @param accountDAO the DAO to use
+     * @param accountIdIndex the index to keep up to date on registration
+     * @param passwordHasher the hasher (and cost) for new and upgraded passwords
+     * @param hashingExecutor the bounded pool hashing runs on, or null for the calling thread
+     */
+    public AccountService(AccountDAO accountDAO, AccountIdIndex accountIdIndex,
+                          PasswordHasher passwordHasher, ExecutorService hashingExecutor) {
         this.accountDAO = accountDAO;
+        this.accountIdIndex = accountIdIndex;
+        this.passwordHasher = passwordHasher;
+        this.hashingExecutor = hashingExecutor;
     }
 
     /**
@@ -44,25 +82,49 @@ public class AccountService {
             return null;
         }
 
-        // Create the account
-        return accountDAO.createAccount(account);
+        // Store only the salted hash, and remember the new id for message posting checks
+        String hash = onHashingThread(() -> passwordHasher.hash(account.getPassword()));
+        Account createdAccount = accountDAO.createAccount(new Account(account.getUsername(), hash));
+        if (createdAccount == null) {
+            return null;
+        }
+        accountIdIndex.add(createdAccount.getAccount_id());
+        return new Account(createdAccount.getAccount_id(), createdAccount.getUsername(), account.getPassword());
     }
 
     /**
      * user login
      * @param : account the account with username and password to check
-     * @return the full account if login successful, null otherwise
+     * Hashes stored at another cost (or still in plaintext) are replaced with one at the current
+     * cost once the password has been verified.
+     * @return the account with the password as submitted if login successful, null otherwise
      */
     public Account login(Account account) {
+        if (account.getPassword() == null) {
+            return null;
+        }
         // get the account from the db by username
         Account dbAccount = accountDAO.getAccountByUsername(account.getUsername());
+        String stored = dbAccount != null ? dbAccount.getPassword() : dummyHash();
 
-        // check if the account exists and if the password provided by user matches the password in the db
-        if (dbAccount != null && dbAccount.getPassword().equals(account.getPassword())) {
-            return dbAccount;
+        // verify, and work out the upgraded hash while still on the hashing thread
+        String[] rehash = new String[1];
+        boolean verified = onHashingThread(() -> {
+            if (!passwordHasher.verify(account.getPassword(), stored)) {
+                return false;
+            }
+            if (dbAccount != null && passwordHasher.needsRehash(stored)) {
+                rehash[0] = passwordHasher.hash(account.getPassword());
+            }
+            return true;
+        });
+        if (dbAccount == null || !verified) {
+            return null;
         }
-
-        return null;
+        if (rehash[0] != null) {
+            accountDAO.updatePassword(dbAccount.getAccount_id(), rehash[0]);
+        }
+        return new Account(dbAccount.getAccount_id(), dbAccount.getUsername(), account.getPassword());
     }
 
     /**
@@ -74,5 +136,36 @@ public class AccountService {
         return accountDAO.getAccountById(account_id);
     }
 
-    
+    public PasswordHasher getPasswordHasher() {
+        return passwordHasher;
+    }
+
+    private String dummyHash() {
+        String hash = dummyHash;
+        if (hash == null) {
+            hash = onHashingThread(() -> passwordHasher.hash("dummy password"));
+            dummyHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Runs a hashing task on the hashing executor and waits for it. Submitting to a full executor
+     * throws RejectedExecutionException instead of queueing behind it.
+     */
+    private <T> T onHashingThread(Supplier<T> task) {
+        if (hashingExecutor == null) {
+            return task.get();
+        }
+        Future<T> future = hashingExecutor.submit(task::get);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while hashing", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
 }
@@ -0,0 +1,134 @@
+package Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Util.ExpiringCache;
+
+/**
+ * Response bodies of GET /messages/{message_id} and GET /accounts/{account_id}/messages kept as
+ * the UTF-8 JSON bytes already written once, plus their gzip encoding once a client asks for
+ * it, so a hot read skips Jackson and the compressor.
+ *
+ * Entries are keyed by the response's ETag (see EntityTags) and whatever else picks the page.
+ * A write bumps the tag, so the next read looks up a key that was never cached and encodes
+ * afresh; the old entry is never looked up again and ages out of the LRU.
+ */
+public class EncodedResponseCache {
+    private final ObjectMapper mapper;
+    private final ExpiringCache<String, Encoded> entries;
+    private final int gzipMinBytes;
+
+    /**
+     * @param mapper serializes the bodies, the same mapper ctx.json() uses
+     * @param maxSize entries kept before the least recently used is dropped
+     * @param ttlMillis how long an entry is kept after it was encoded
+     * @param gzipMinBytes bodies shorter than this are always sent as they are
+     */
+    public EncodedResponseCache(ObjectMapper mapper, int maxSize, long ttlMillis, int gzipMinBytes) {
+        this.mapper = mapper;
+        this.entries = new ExpiringCache<>(maxSize, ttlMillis, 0);
+        this.gzipMinBytes = gzipMinBytes;
+    }
+
+    /**
+     * @param key the ETag of the response, followed by anything else that picks the body
+     * @param loader encodes the body on a miss, see encode()
+     * @return the encoded body
+     */
+    public Encoded get(String key, Function<String, Encoded> loader) {
+        return entries.get(key, loader);
+    }
+
+    /**
+     * @param value the body, or null for an empty one
+     * @return the body as JSON
+     */
+    public Encoded encode(Object value) {
+        return encode(value, null, null);
+    }
+
+    /**
+     * @param value the body, or null for an empty one
+     * @param headerName a header sent along with the body (the next page's cursor), or null
+     * @param headerValue its value
+     * @return the body as JSON
+     */
+    public Encoded encode(Object value, String headerName, String headerValue) {
+        byte[] json;
+        try {
+            json = value == null ? new byte[0] : mapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            // messages and lists of them always serialize
+            throw new UncheckedIOException(e);
+        }
+        return new Encoded(json, json.length >= gzipMinBytes, headerName, headerValue);
+    }
+
+    public ExpiringCache.Stats getStats() {
+        return entries.getStats();
+    }
+
+    /**
+     * One encoded response. The gzip bytes are made by the first request that accepts them;
+     * two requests racing for them both compress, and either result is kept.
+     */
+    public static class Encoded {
+        private final byte[] json;
+        private final boolean compressible;
+        private final String headerName;
+        private final String headerValue;
+        private volatile byte[] gzip;
+
+        Encoded(byte[] json, boolean compressible, String headerName, String headerValue) {
+            this.json = json;
+            this.compressible = compressible;
+            this.headerName = headerName;
+            this.headerValue = headerValue;
+        }
+
+        /**
+         * @return the UTF-8 JSON body, empty if there is none; not to be modified
+         */
+        public byte[] getJson() {
+            return json;
+        }
+
+        /**
+         * @return the gzip encoded body, or null if it is too short to be worth compressing
+         */
+        public byte[] getGzip() {
+            if (!compressible) {
+                return null;
+            }
+            byte[] encoded = gzip;
+            if (encoded == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4 + 64);
+                try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                    out.write(json);
+                } catch (IOException e) {
+                    // cannot happen writing to memory
+                    System.out.println(e.getMessage());
+                    return null;
+                }
+                encoded = bytes.toByteArray();
+                gzip = encoded;
+            }
+            return encoded;
+        }
+
+        public String getHeaderName() {
+            return headerName;
+        }
+
+        public String getHeaderValue() {
+            return headerValue;
+        }
+    }
+}
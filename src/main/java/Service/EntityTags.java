@@ -0,0 +1,91 @@
+package Service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import Model.Message;
+
+/**
+ * Strong ETags for GET /messages/{message_id} and GET /accounts/{account_id}/messages, made
+ * from generation counters rather than from the response body, so a conditional GET can be
+ * answered 304 without loading or serializing anything.
+ *
+ * Generations live in two fixed tables of slots, indexed by message id and by account id. Every
+ * write bumps the slot of the message and the slot of its poster's timeline. Two ids sharing a
+ * slot only costs a full response that was not needed, never a wrong 304, because slots only go
+ * up. Each tag also carries an epoch picked at startup, so tags handed out before a restart
+ * never match.
+ */
+public class EntityTags {
+    private final AtomicLongArray messageGenerations;
+    private final AtomicLongArray timelineGenerations;
+    private final int mask;
+    private final String epoch;
+
+    /**
+     * @param slots generations kept per table, rounded up to a power of two
+     */
+    public EntityTags(int slots) {
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        messageGenerations = new AtomicLongArray(size);
+        timelineGenerations = new AtomicLongArray(size);
+        mask = size - 1;
+        epoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+    }
+
+    /**
+     * @return the ETag of GET /messages/{message_id}, with its quotes
+     */
+    public String messageTag(int message_id) {
+        return "\"" + epoch + "-m" + message_id + "-" + messageGenerations.get(message_id & mask) + "\"";
+    }
+
+    /**
+     * @return the ETag of GET /accounts/{account_id}/messages, with its quotes; every page of the
+     * timeline shares it, as each page is its own URL
+     */
+    public String timelineTag(int account_id) {
+        return "\"" + epoch + "-a" + account_id + "-" + timelineGenerations.get(account_id & mask) + "\"";
+    }
+
+    /**
+     * Invalidates the tags of a message that was created, edited or deleted, and of its poster's
+     * timeline. Called after the change is stored, so a tag read before the change is stale by
+     * the time the change can be seen.
+     */
+    public void changed(Message message) {
+        messageGenerations.incrementAndGet(message.getMessage_id() & mask);
+        timelineGenerations.incrementAndGet(message.getPosted_by() & mask);
+    }
+
+    /**
+     * @param etag a tag from messageTag() or timelineTag()
+     * @return the tag of the same response sent gzip encoded, which a strong ETag must tell apart
+     */
+    public static String gzipTag(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    /**
+     * @param ifNoneMatch the If-None-Match header, a list of tags, possibly weak (W/"...")
+     * @param etag the current tag
+     * @return true if the header names the current tag or its gzip variant; either way the
+     * client has the current body
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            // If-None-Match compares weakly, so W/"x" matches "x"
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals(gzipTag(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
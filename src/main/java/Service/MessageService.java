@@ -1,15 +1,62 @@
 package Service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 import DAO.AccountDAO;
+import DAO.MessageBatchWriter;
 import DAO.MessageDAO;
-import Model.Account;
+import DAO.MessageRepository;
 import Model.Message;
+import Util.AppConfig;
+import Util.ExpiringCache;
 
 public class MessageService {
-    private MessageDAO messageDAO;
+    // H2 (MessageDAO) or the in-memory store, see messages.store
+    private MessageRepository messageDAO;
     private AccountDAO accountDAO;
+    // known account ids, so posted_by can usually be checked without a query
+    private AccountIdIndex accountIdIndex;
+    // group-commit writer for new messages, null when each insert commits on its own
+    private MessageBatchWriter batchWriter;
+    // how long createMessage waits for the batch carrying its message
+    private final long batchTimeoutMillis = AppConfig.getLong("messages.groupCommit.timeoutMillis", 10000);
+
+    /**
+     * read-through cache for getMessageById; ids that do not exist are cached too, for a shorter time
+     */
+    private final ExpiringCache<Integer, Message> messageCache = new ExpiringCache<>(
+        AppConfig.getInt("cache.message.maxSize", 10000),
+        AppConfig.getLong("cache.message.ttlMillis", 60000),
+        AppConfig.getLong("cache.message.negativeTtlMillis", 5000));
+
+    /**
+     * newest messages of recently read accounts, patched on every create, update and delete
+     */
+    private final TimelineCache timelineCache = new TimelineCache(
+        AppConfig.getInt("cache.timeline.maxAccounts", 10000),
+        AppConfig.getInt("cache.timeline.size", 50));
+
+    /**
+     * full-text index for searchMessages, kept up to date on every write; null when search.enabled is false
+     */
+    private final SearchIndex searchIndex = AppConfig.getBoolean("search.enabled", true) ? new SearchIndex() : null;
+
+    /**
+     * ETags of messages and timelines, bumped on every write; null when etag.enabled is false
+     */
+    private final EntityTags entityTags = AppConfig.getBoolean("etag.enabled", true)
+        ? new EntityTags(AppConfig.getInt("etag.slots", 65536)) : null;
 
     /**
      * no-args constructor that creaters default DAOs
@@ -17,6 +64,7 @@ public class MessageService {
     public MessageService() {
         messageDAO = new MessageDAO();
         accountDAO = new AccountDAO();
+        accountIdIndex = new AccountIdIndex(accountDAO);
     }
 
     /**
@@ -24,9 +72,33 @@ public class MessageService {
      * @param messageDAO the message DAO to use
      * @return accountDAO the account DAO to use
      */
-    public MessageService(MessageDAO messageDAO, AccountDAO accountDAO) {
+    public MessageService(MessageRepository messageDAO, AccountDAO accountDAO) {
+        this(messageDAO, accountDAO, new AccountIdIndex(accountDAO));
+    }
+
+    /**
+     * constructor that shares an account id index with AccountService
+     * @param messageDAO the message DAO to use
+     * @param accountDAO the account DAO to use
+     * @param accountIdIndex the index used to validate posted_by
+     */
+    public MessageService(MessageRepository messageDAO, AccountDAO accountDAO, AccountIdIndex accountIdIndex) {
+        this(messageDAO, accountDAO, accountIdIndex, null);
+    }
+
+    /**
+     * constructor that routes new messages through a group-commit batch writer
+     * @param messageDAO the message DAO to use
+     * @param accountDAO the account DAO to use
+     * @param accountIdIndex the index used to validate posted_by
+     * @param batchWriter the writer that batches inserts, or null to insert one at a time
+     */
+    public MessageService(MessageRepository messageDAO, AccountDAO accountDAO, AccountIdIndex accountIdIndex,
+            MessageBatchWriter batchWriter) {
         this.messageDAO = messageDAO;
         this.accountDAO = accountDAO;
+        this.accountIdIndex = accountIdIndex;
+        this.batchWriter = batchWriter;
     }
 
     /**
@@ -37,19 +109,72 @@ public class MessageService {
         return messageDAO.getAllMessages();
     }
 
+    /**
+     * gets one keyset page of messages
+     * @param afterMessageId the last message_id of the previous page (0 for the first page)
+     * @param limit the page size
+     * @return up to limit messages ordered by message_id
+     */
+    public List<Message> getMessagesAfter(int afterMessageId, int limit) {
+        return messageDAO.getMessagesAfter(afterMessageId, limit);
+    }
+
+    /**
+     * streams all messages to the consumer without holding them in memory
+     * @param consumer receives each message in message_id order
+     * @return the number of messages streamed
+     */
+    public int streamAllMessages(Consumer<Message> consumer) {
+        return messageDAO.streamAllMessages(consumer);
+    }
+
     /**
      * gets a specific message by its message_id
      * @param message_id
      * @return the message if found, null otherwise
      */
     public Message getMessageById(int message_id) {
-        return messageDAO.getMessageById(message_id);
+        return messageCache.get(message_id, messageDAO::getMessageById);
+    }
+
+    /**
+     * gets many messages with one lookup, past the message cache
+     * @param message_ids the ids to look up, possibly repeated
+     * @return the message for each id in the same order, null where there is none
+     */
+    public List<Message> getMessagesByIds(int[] message_ids) {
+        Map<Integer, Message> found = new HashMap<>();
+        for (Message message : messageDAO.getMessagesByIds(message_ids)) {
+            found.put(message.getMessage_id(), message);
+        }
+        List<Message> messages = new ArrayList<>(message_ids.length);
+        for (int message_id : message_ids) {
+            messages.add(found.get(message_id));
+        }
+        return messages;
+    }
+
+    /**
+     * @return hit/miss counters of the getMessageById cache
+     */
+    public ExpiringCache.Stats getMessageCacheStats() {
+        return messageCache.getStats();
+    }
+
+    /**
+     * @return hit/miss counters of the per-account timeline cache
+     */
+    public TimelineCache.Stats getTimelineCacheStats() {
+        return timelineCache.getStats();
     }
 
     /**
      * creates a new message
      * @param message to create (without message_id)
      * @return the created message with its new message_id, or nul if creation failed
+     * @throws java.util.concurrent.RejectedExecutionException if group commit is on and its queue is full,
+     * or its writer stopped
+     * @throws PendingWriteException if group commit is on and the batch has not committed in time
      */
     public Message createMessage(Message message) {
         // Validate message text (not blank, not over 255 chars)
@@ -59,9 +184,8 @@ public class MessageService {
                 return null;
             }
 
-            // validate that posted_by referes to a real user
-            Account account = accountDAO.getAccountById(message.getPosted_by());
-            if (account == null) {
+            // validate that posted_by referes to a real user (memory lookup, db only on a miss)
+            if (!accountIdIndex.exists(message.getPosted_by())) {
                 return null;
             }
 
@@ -75,8 +199,99 @@ public class MessageService {
                 );
             }
 
-            // create the message
-            return messageDAO.createMessage(message);
+            // create the message, replacing any cached "not found" for its new id
+            if (batchWriter != null) {
+                return createBatched(message);
+            }
+            Message createdMessage = messageDAO.createMessage(message);
+            if (createdMessage != null) {
+                created(createdMessage);
+            }
+            return createdMessage;
+    }
+
+    /**
+     * creates many messages at once: every message is validated like createMessage does, the
+     * posters are checked with at most one query, and the messages are inserted as one batch
+     * (past group commit, they already are one)
+     * @param messages to create (without message_id)
+     * @return the created messages with their new ids in the same order, or null if any of
+     * them is invalid or the batch failed, in which case none were created
+     */
+    public List<Message> createMessages(List<Message> messages) {
+        Set<Integer> posters = new HashSet<>();
+        List<Message> stamped = new ArrayList<>(messages.size());
+        long now = System.currentTimeMillis();
+        for (Message message : messages) {
+            if (message.getMessage_text() == null ||
+                message.getMessage_text().trim().isEmpty() ||
+                message.getMessage_text().length() > 255) {
+                return null;
+            }
+            posters.add(message.getPosted_by());
+            stamped.add(message.getTime_posted_epoch() != 0 ? message
+                : new Message(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(), now));
+        }
+        if (stamped.isEmpty() || !accountIdIndex.existAll(posters)) {
+            return null;
+        }
+
+        List<Message> createdMessages = messageDAO.createMessages(stamped);
+        if (createdMessages != null) {
+            createdMessages.forEach(this::created);
+        }
+        return createdMessages;
+    }
+
+    /**
+     * brings the caches, the search index and the ETags up to date with a new message
+     */
+    private void created(Message createdMessage) {
+        messageCache.put(createdMessage.getMessage_id(), createdMessage);
+        timelineCache.onCreate(createdMessage);
+        if (searchIndex != null) {
+            searchIndex.add(createdMessage);
+        }
+        if (entityTags != null) {
+            entityTags.changed(createdMessage);
+        }
+    }
+
+    /**
+     * hands the message to the batch writer and waits for the batch that commits it. The caches
+     * are updated by the batch itself, so a message committed after this gave up waiting still
+     * reaches them.
+     * @throws RejectedExecutionException if the writer stopped before writing it
+     * @throws PendingWriteException if it was not written within batchTimeoutMillis; it may still be
+     */
+    private Message createBatched(Message message) {
+        CompletableFuture<Message> written = batchWriter.submit(message).thenApply(createdMessage -> {
+            if (createdMessage != null) {
+                created(createdMessage);
+            }
+            return createdMessage;
+        });
+        try {
+            return written.get(batchTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PendingWriteException("Interrupted while waiting for the message batch");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                throw (RejectedExecutionException) e.getCause();
+            }
+            System.out.println(e.getMessage());
+        } catch (TimeoutException e) {
+            throw new PendingWriteException("Timed out after " + batchTimeoutMillis + "ms waiting for the message batch");
+        }
+        return null;
+    }
+
+    /**
+     * @return batching counters, or null when group commit is off
+     */
+    public MessageBatchWriter.Stats getBatchWriterStats() {
+        return batchWriter == null ? null : batchWriter.getStats();
     }
 
     /**
@@ -85,7 +300,18 @@ public class MessageService {
      * @return the deleted message, null if the message didnt exist
      */
     public Message deleteMessage(int message_id) {
-        return messageDAO.deleteMessage(message_id);
+        Message deletedMessage = messageDAO.deleteMessage(message_id);
+        messageCache.invalidate(message_id);
+        if (deletedMessage != null) {
+            timelineCache.onDelete(deletedMessage);
+            if (searchIndex != null) {
+                searchIndex.remove(message_id);
+            }
+            if (entityTags != null) {
+                entityTags.changed(deletedMessage);
+            }
+        }
+        return deletedMessage;
     }
 
     /**
@@ -95,12 +321,6 @@ public class MessageService {
      * @return the updated message, or null if update failed
      */
     public Message updateMessageText(int message_id, String newMessageText) {
-        // validate the message exists
-        Message exisitingMessage = messageDAO.getMessageById(message_id);
-        if(exisitingMessage == null) {
-            return null;
-        }
-
         // validate message text (not blank, and not over 255 chars)
         if (newMessageText == null ||
             newMessageText.trim().isEmpty() ||
@@ -108,16 +328,111 @@ public class MessageService {
                 return null;
             }
         
-        // update the message
-        return messageDAO.updateMessageText(message_id, newMessageText);
+        // update the message; the DAO returns null when no message has this id,
+        // so there is no need to look it up first
+        Message updatedMessage = messageDAO.updateMessageText(message_id, newMessageText);
+        messageCache.invalidate(message_id);
+        if (updatedMessage != null) {
+            timelineCache.onUpdate(updatedMessage);
+            if (searchIndex != null) {
+                searchIndex.update(updatedMessage);
+            }
+            if (entityTags != null) {
+                entityTags.changed(updatedMessage);
+            }
+        }
+        return updatedMessage;
     }
 
     /**
      * gets all messages posted by a specific user
      * @param account_id
-     * @return a list of messages posted by the user
+     * @return a list of messages posted by the user, newest first
      */
     public List<Message> getMessagesByUser(int account_id) {
-        return messageDAO.getMessagesByUser(account_id);
+        // served from memory when the cached timeline holds all of the user's messages
+        List<Message> cached = timelineCache.getAll(account_id, this::loadTimeline);
+        return cached != null ? cached : messageDAO.getMessagesByUser(account_id);
+    }
+
+    /**
+     * gets one keyset page of a user's timeline, newest first
+     * @param account_id
+     * @param beforeTime time_posted_epoch of the last message on the previous page, or null for the first page
+     * @param beforeId message_id of that message, or Integer.MAX_VALUE to skip everything posted at beforeTime
+     * @param limit the page size
+     * @return up to limit messages older than the cursor
+     */
+    public List<Message> getMessagesByUser(int account_id, Long beforeTime, int beforeId, int limit) {
+        List<Message> cached = timelineCache.getPage(account_id, beforeTime, beforeId, limit, this::loadTimeline);
+        return cached != null ? cached : messageDAO.getMessagesByUser(account_id, beforeTime, beforeId, limit);
+    }
+
+    /**
+     * (re)builds the search index from every stored message
+     * @return the number of messages indexed, 0 when search is off
+     */
+    public int loadSearchIndex() {
+        if (searchIndex == null) {
+            return 0;
+        }
+        searchIndex.clear();
+        return messageDAO.streamAllMessages(searchIndex::add);
+    }
+
+    /**
+     * empties the search index for a caller that hands it every stored message itself, such as
+     * a snapshot restore, instead of loadSearchIndex() reading them back
+     * @return where to hand the messages, ignoring them when search is off
+     */
+    public Consumer<Message> searchIndexLoader() {
+        if (searchIndex == null) {
+            return message -> {};
+        }
+        searchIndex.clear();
+        return searchIndex::add;
+    }
+
+    /**
+     * searches message_text
+     * @param query words, "quoted phrases" and prefix* terms, all of which must match
+     * @param limit the most messages to return
+     * @return the newest matching messages, or null when search is off
+     */
+    public List<Message> searchMessages(String query, int limit) {
+        if (searchIndex == null) {
+            return null;
+        }
+        int[] ids = searchIndex.search(query, limit);
+        List<Message> messages = new ArrayList<>(ids.length);
+        if (ids.length == 0) {
+            return messages;
+        }
+        // one lookup for every hit, handed back in ranking order
+        for (Message message : getMessagesByIds(ids)) {
+            // null if the message was removed outside this service since it was indexed
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @return the ETags of messages and timelines, or null when etag.enabled is false
+     */
+    public EntityTags getEntityTags() {
+        return entityTags;
+    }
+
+    /**
+     * @return size and memory use of the search index, or null when search is off
+     */
+    public SearchIndex.Stats getSearchIndexStats() {
+        return searchIndex == null ? null : searchIndex.getStats();
+    }
+
+    private List<Message> loadTimeline(int account_id) {
+        return messageDAO.getMessagesByUser(account_id, null, 0, timelineCache.getLoadSize());
     }
 }
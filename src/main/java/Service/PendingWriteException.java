@@ -0,0 +1,14 @@
+package Service;
+
+/**
+ * Thrown when a write was accepted but its outcome is not known yet: the group-commit batch
+ * carrying it has not committed within messages.groupCommit.timeoutMillis. The write may still
+ * land, and the caches are brought up to date if it does, so the controller answers 504 rather
+ * than a status that invites the client to send it again.
+ */
+public class PendingWriteException extends RuntimeException {
+
+    public PendingWriteException(String message) {
+        super(message);
+    }
+}
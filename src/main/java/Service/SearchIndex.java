@@ -0,0 +1,655 @@
+package Service;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import Model.Message;
+import Util.IntIntHashMap;
+import Util.Varint;
+
+/**
+ * In-process full-text index over message_text, so GET /messages/search never scans the table.
+ *
+ * Text is split into lowercase runs of letters and digits. Each term has a posting list of the
+ * message_ids containing it, ascending and stored as varint deltas (a new message usually costs
+ * one or two bytes per term). Each message also keeps its term sequence and time_posted_epoch,
+ * which answer phrase checks and recency ranking, and say which posting entries are still valid.
+ *
+ * Writes are applied as MessageService makes them. New ids append to the end of their lists;
+ * an edit that gives an older message a term puts its id in the term's small sorted side list,
+ * which queries merge in. Deletes and edits only mark entries stale, and a list is rewritten
+ * (side list folded in) once half of it is stale or the side list outgrows an eighth of it, so
+ * no single write pays for a long list. Queries skip stale entries by checking the message's
+ * current terms.
+ *
+ * Queries are whitespace-separated clauses that must all match: a word, a "quoted phrase" or a
+ * prefix*. Matches come back newest first. One read/write lock guards everything.
+ */
+public class SearchIndex {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * sorted, so prefix queries are a range scan
+     */
+    private final TreeMap<String, Term> terms = new TreeMap<>();
+    private final List<Term> termsById = new ArrayList<>();
+
+    /**
+     * message_id to its slot in the per-message arrays
+     */
+    private final IntIntHashMap slots = new IntIntHashMap();
+    private int[] slotIds = new int[1024];
+    private long[] slotTimes = new long[1024];
+    private int[][] slotTerms = new int[1024][];
+    private int slotCount;
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+
+    /**
+     * empties the index, before it is filled again from the repository
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            terms.clear();
+            termsById.clear();
+            slots.clear();
+            slotCount = 0;
+            freeCount = 0;
+            slotTerms = new int[1024][];
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * indexes a new message, or re-indexes one already indexed
+     */
+    public void add(Message message) {
+        lock.writeLock().lock();
+        try {
+            int slot = slots.get(message.getMessage_id());
+            if (slot != IntIntHashMap.MISSING) {
+                reindex(slot, message.getMessage_text());
+                return;
+            }
+            slot = allocateSlot();
+            slotIds[slot] = message.getMessage_id();
+            slotTimes[slot] = message.getTime_posted_epoch();
+            slotTerms[slot] = termIds(message.getMessage_text());
+            slots.put(message.getMessage_id(), slot);
+            for (int termId : distinct(slotTerms[slot])) {
+                termsById.get(termId).add(message.getMessage_id());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * re-indexes an edited message; only message_id and message_text are used
+     */
+    public void update(Message message) {
+        lock.writeLock().lock();
+        try {
+            int slot = slots.get(message.getMessage_id());
+            if (slot != IntIntHashMap.MISSING) {
+                reindex(slot, message.getMessage_text());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int message_id) {
+        lock.writeLock().lock();
+        try {
+            int slot = slots.remove(message_id);
+            if (slot == IntIntHashMap.MISSING) {
+                return;
+            }
+            int[] oldTerms = slotTerms[slot];
+            slotTerms[slot] = null;
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+            for (int termId : distinct(oldTerms)) {
+                markStale(termsById.get(termId));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * callers hold the write lock
+     */
+    private void reindex(int slot, String text) {
+        int messageId = slotIds[slot];
+        int[] oldTerms = distinct(slotTerms[slot]);
+        slotTerms[slot] = termIds(text);
+        int[] newTerms = distinct(slotTerms[slot]);
+        for (int termId : newTerms) {
+            if (Arrays.binarySearch(oldTerms, termId) < 0) {
+                termsById.get(termId).add(messageId);
+            }
+        }
+        for (int termId : oldTerms) {
+            if (Arrays.binarySearch(newTerms, termId) < 0) {
+                markStale(termsById.get(termId));
+            }
+        }
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == slotIds.length) {
+            int capacity = slotCount * 2;
+            slotIds = Arrays.copyOf(slotIds, capacity);
+            slotTimes = Arrays.copyOf(slotTimes, capacity);
+            slotTerms = Arrays.copyOf(slotTerms, capacity);
+        }
+        return slotCount++;
+    }
+
+    /**
+     * counts one more invalid entry in the list, rewriting it once they are half of it
+     */
+    private void markStale(Term term) {
+        term.stale++;
+        if (term.stale * 2 > term.count + term.pendingCount) {
+            compact(term);
+        }
+    }
+
+    /**
+     * rewrites the list with only its valid entries, the side list folded in
+     */
+    private void compact(Term term) {
+        int[] ids = term.allIds();
+        int live = 0;
+        for (int id : ids) {
+            if (contains(id, term.id)) {
+                ids[live++] = id;
+            }
+        }
+        term.rewrite(ids, live);
+    }
+
+    /**
+     * @return true if the message is indexed and currently contains the term
+     */
+    private boolean contains(int messageId, int termId) {
+        int slot = slots.get(messageId);
+        if (slot == IntIntHashMap.MISSING) {
+            return false;
+        }
+        for (int id : slotTerms[slot]) {
+            if (id == termId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the text's term ids in order, adding new terms to the dictionary
+     */
+    private int[] termIds(String text) {
+        List<String> tokens = tokenize(text);
+        int[] ids = new int[tokens.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Term term = terms.get(tokens.get(i));
+            if (term == null) {
+                term = new Term(termsById.size(), tokens.get(i));
+                terms.put(term.text, term);
+                termsById.add(term);
+            }
+            ids[i] = term.id;
+        }
+        return ids;
+    }
+
+    /**
+     * @return the ids sorted without repeats
+     */
+    private static int[] distinct(int[] termIds) {
+        int[] sorted = termIds.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+
+    /**
+     * @return the lowercase runs of letters and digits in text
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (Character.isLetterOrDigit(codePoint)) {
+                token.appendCodePoint(Character.toLowerCase(codePoint));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * @param query words, "quoted phrases" and prefix* clauses, all of which must match
+     * @param limit how many matches to return
+     * @return the message_ids of the newest matches (time_posted_epoch descending, then
+     *         message_id), empty when the query has no searchable terms
+     */
+    public int[] search(String query, int limit) {
+        List<String[]> clauses = parse(query);
+        if (clauses.isEmpty()) {
+            return new int[0];
+        }
+        lock.readLock().lock();
+        try {
+            int[] matches = null;
+            for (String[] clause : clauses) {
+                int[] ids = match(clause);
+                matches = matches == null ? ids : intersect(matches, ids);
+                if (matches.length == 0) {
+                    break;
+                }
+            }
+            return newest(matches, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Splits a query into clauses: a phrase or a multi-token word becomes several tokens that
+     * must appear in order, and a word or phrase ending in * keeps the * on its last token.
+     */
+    private static List<String[]> parse(String query) {
+        List<String[]> clauses = new ArrayList<>();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int end;
+            String text;
+            if (c == '"') {
+                end = query.indexOf('"', i + 1);
+                end = end < 0 ? query.length() : end;
+                text = query.substring(i + 1, end);
+                end++;
+            } else {
+                end = i;
+                while (end < query.length() && !Character.isWhitespace(query.charAt(end))) {
+                    end++;
+                }
+                text = query.substring(i, end);
+            }
+            List<String> tokens = tokenize(text);
+            if (!tokens.isEmpty()) {
+                if (text.endsWith("*")) {
+                    tokens.set(tokens.size() - 1, tokens.get(tokens.size() - 1) + "*");
+                }
+                clauses.add(tokens.toArray(new String[0]));
+            }
+            i = end;
+        }
+        return clauses;
+    }
+
+    /**
+     * @return the ascending ids of messages matching one clause
+     */
+    private int[] match(String[] tokens) {
+        if (tokens.length == 1) {
+            return postings(tokens[0]);
+        }
+        int[] candidates = null;
+        for (String token : tokens) {
+            int[] ids = postings(token);
+            candidates = candidates == null ? ids : intersect(candidates, ids);
+        }
+        // every token is there; keep the messages where they are also consecutive
+        int count = 0;
+        for (int id : candidates) {
+            if (containsPhrase(slotTerms[slots.get(id)], tokens)) {
+                candidates[count++] = id;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    /**
+     * @return the valid ids for a term, or for every term starting with it when it ends in *
+     */
+    private int[] postings(String token) {
+        if (!token.endsWith("*")) {
+            Term term = terms.get(token);
+            return term == null ? new int[0] : term.validIds();
+        }
+        String prefix = token.substring(0, token.length() - 1);
+        int[] union = new int[0];
+        for (Term term : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            union = union(union, term.validIds());
+        }
+        return union;
+    }
+
+    private boolean containsPhrase(int[] termIds, String[] tokens) {
+        for (int start = 0; start + tokens.length <= termIds.length; start++) {
+            boolean matched = true;
+            for (int i = 0; i < tokens.length && matched; i++) {
+                matched = matches(termIds[start + i], tokens[i]);
+            }
+            if (matched) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(int termId, String token) {
+        String text = termsById.get(termId).text;
+        return token.endsWith("*") ? text.startsWith(token.substring(0, token.length() - 1)) : text.equals(token);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[count++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return up to limit of the ids in timeline order, kept in a sorted array of the best so far
+     */
+    private int[] newest(int[] ids, int limit) {
+        int[] top = new int[Math.min(limit, ids.length)];
+        if (top.length == 0) {
+            return top;
+        }
+        int count = 0;
+        for (int id : ids) {
+            if (count == top.length && !before(id, top[count - 1])) {
+                continue;
+            }
+            int position = count == top.length ? count - 1 : count++;
+            while (position > 0 && before(id, top[position - 1])) {
+                top[position] = top[position - 1];
+                position--;
+            }
+            top[position] = id;
+        }
+        return top;
+    }
+
+    /**
+     * @return true if message a comes before message b on a timeline (newer, or same second and lower id)
+     */
+    private boolean before(int a, int b) {
+        long timeA = slotTimes[slots.get(a)];
+        long timeB = slotTimes[slots.get(b)];
+        return timeA > timeB || (timeA == timeB && a < b);
+    }
+
+    /**
+     * @return the index's size and an estimate of its memory use
+     */
+    public Stats getStats() {
+        lock.readLock().lock();
+        try {
+            long postingBytes = 0;
+            long postingEntries = 0;
+            long staleEntries = 0;
+            long dictionaryBytes = 0;
+            for (Map.Entry<String, Term> entry : terms.entrySet()) {
+                Term term = entry.getValue();
+                postingBytes += term.bytes.length + (term.pending == null ? 0 : term.pending.length * 4L);
+                postingEntries += term.count + term.pendingCount;
+                staleEntries += term.stale;
+                // TreeMap entry, String, its array and the Term object
+                dictionaryBytes += 40 + 24 + 16 + entry.getKey().length() + 40;
+            }
+            long messageBytes = slotIds.length * (4L + 8L + 8L) + slots.memoryBytes();
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (slotTerms[slot] != null) {
+                    messageBytes += 16L + slotTerms[slot].length * 4L;
+                }
+            }
+            int messages = slots.size();
+            long totalBytes = postingBytes + dictionaryBytes + messageBytes;
+            return new Stats(messages, terms.size(), postingEntries, staleEntries, postingBytes, dictionaryBytes,
+                messageBytes, totalBytes, messages == 0 ? 0.0 : (double) totalBytes / messages);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * One term's posting list: message_ids ascending, each stored as the varint gap from the
+     * previous, plus a sorted side list of ids below lastId that gained the term through an edit.
+     * An id can be in both when an edit took the term away and a later one gave it back; the
+     * entry in the list stays counted as stale until the next rewrite.
+     */
+    private class Term {
+        final int id;
+        final String text;
+        byte[] bytes = new byte[8];
+        int length;
+        int count;
+        int stale;
+        int lastId;
+        int[] pending;
+        int pendingCount;
+
+        Term(int id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        void add(int messageId) {
+            if (messageId > lastId) {
+                append(messageId);
+                return;
+            }
+            // an older message gained this term through an edit: keep it aside until the next rewrite
+            if (pending == null) {
+                pending = new int[8];
+            }
+            int position = Arrays.binarySearch(pending, 0, pendingCount, messageId);
+            if (position >= 0) {
+                // the stale entry left by an earlier edit is valid again
+                stale--;
+                return;
+            }
+            position = -position - 1;
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+            }
+            System.arraycopy(pending, position, pending, position + 1, pendingCount - position);
+            pending[position] = messageId;
+            pendingCount++;
+            if (pendingCount > Math.max(64, count / 8)) {
+                compact(this);
+            }
+        }
+
+        private void append(int messageId) {
+            if (bytes.length - length < Varint.MAX_INT_BYTES) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            buffer.position(length);
+            Varint.putInt(buffer, messageId - lastId);
+            length = buffer.position();
+            lastId = messageId;
+            count++;
+        }
+
+        int[] decode() {
+            int[] ids = new int[count];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+            int id = 0;
+            for (int i = 0; i < count; i++) {
+                id += Varint.getInt(buffer);
+                ids[i] = id;
+            }
+            return ids;
+        }
+
+        /**
+         * @return the decoded ids merged with the side list, ascending and without repeats
+         */
+        int[] allIds() {
+            int[] ids = decode();
+            return pendingCount == 0 ? ids : union(ids, Arrays.copyOf(pending, pendingCount));
+        }
+
+        /**
+         * @return the ids without the stale ones
+         */
+        int[] validIds() {
+            int[] ids = allIds();
+            if (stale == 0) {
+                return ids;
+            }
+            int live = 0;
+            for (int messageId : ids) {
+                if (contains(messageId, id)) {
+                    ids[live++] = messageId;
+                }
+            }
+            return Arrays.copyOf(ids, live);
+        }
+
+        void rewrite(int[] ids, int size) {
+            bytes = new byte[Math.max(8, size * 2)];
+            length = 0;
+            count = 0;
+            stale = 0;
+            lastId = 0;
+            pending = null;
+            pendingCount = 0;
+            for (int i = 0; i < size; i++) {
+                append(ids[i]);
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the index. Posting bytes are the compressed lists; dictionary and message bytes
+     * are estimates of the term map and the per-message terms, times and id map.
+     */
+    public static class Stats {
+        private final int messages;
+        private final int terms;
+        private final long postingEntries;
+        private final long staleEntries;
+        private final long postingBytes;
+        private final long dictionaryBytes;
+        private final long messageBytes;
+        private final long totalBytes;
+        private final double bytesPerMessage;
+
+        Stats(int messages, int terms, long postingEntries, long staleEntries, long postingBytes,
+                long dictionaryBytes, long messageBytes, long totalBytes, double bytesPerMessage) {
+            this.messages = messages;
+            this.terms = terms;
+            this.postingEntries = postingEntries;
+            this.staleEntries = staleEntries;
+            this.postingBytes = postingBytes;
+            this.dictionaryBytes = dictionaryBytes;
+            this.messageBytes = messageBytes;
+            this.totalBytes = totalBytes;
+            this.bytesPerMessage = bytesPerMessage;
+        }
+
+        public int getMessages() {
+            return messages;
+        }
+
+        public int getTerms() {
+            return terms;
+        }
+
+        public long getPostingEntries() {
+            return postingEntries;
+        }
+
+        public long getStaleEntries() {
+            return staleEntries;
+        }
+
+        public long getPostingBytes() {
+            return postingBytes;
+        }
+
+        public long getDictionaryBytes() {
+            return dictionaryBytes;
+        }
+
+        public long getMessageBytes() {
+            return messageBytes;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public double getBytesPerMessage() {
+            return bytesPerMessage;
+        }
+    }
+}
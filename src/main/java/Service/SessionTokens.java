@@ -0,0 +1,189 @@
+package Service;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import Util.AppConfig;
+
+/**
+ * Stateless session tokens issued by POST /login. A token is payload.signature, both unpadded
+ * Base64url: the payload is account_id (int), expiry (epoch seconds, long) and a random token id
+ * (long), the signature is HMAC-SHA256 over the payload. Verifying one is a MAC and a map
+ * lookup, with no database access. Logging out adds the token id to an in-memory revocation
+ * set, whose entries are dropped once the token would have expired anyway.
+ */
+public class SessionTokens {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int PAYLOAD_BYTES = Integer.BYTES + Long.BYTES + Long.BYTES;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+    private final LongSupplier clock;
+    private final SecureRandom random = new SecureRandom();
+    // Mac instances are not thread-safe
+    private final ThreadLocal<Mac> macs;
+    // token id -> expiry of the revoked token
+    private final Map<Long, Long> revoked = new ConcurrentHashMap<>();
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param secret the HMAC key, at least 32 bytes
+     * @param ttlSeconds how long an issued token stays valid
+     * @param clock the current time in epoch seconds
+     */
+    public SessionTokens(byte[] secret, long ttlSeconds, LongSupplier clock) {
+        if (secret.length < 32) {
+            throw new IllegalArgumentException("the token secret must be at least 32 bytes");
+        }
+        this.key = new SecretKeySpec(secret.clone(), ALGORITHM);
+        this.ttlSeconds = ttlSeconds;
+        this.clock = clock;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " is not available", e);
+            }
+        });
+    }
+
+    /**
+     * Reads auth.token.secret (Base64) and auth.token.ttlSeconds. Without a secret a random one
+     * is made, so tokens only last as long as the process.
+     */
+    public static SessionTokens fromConfig() {
+        String secret = AppConfig.getString("auth.token.secret", "");
+        byte[] key;
+        if (secret.isEmpty()) {
+            key = new byte[32];
+            new SecureRandom().nextBytes(key);
+        } else {
+            key = Base64.getDecoder().decode(secret);
+        }
+        return new SessionTokens(key, AppConfig.getLong("auth.token.ttlSeconds", 3600),
+            () -> System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * @return a signed token for the account, valid for ttlSeconds
+     */
+    public String issue(int accountId) {
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_BYTES);
+        payload.putInt(accountId).putLong(clock.getAsLong() + ttlSeconds).putLong(random.nextLong());
+        byte[] bytes = payload.array();
+        issued.incrementAndGet();
+        return ENCODER.encodeToString(bytes) + "." + ENCODER.encodeToString(macs.get().doFinal(bytes));
+    }
+
+    /**
+     * @return the account_id the token was issued to, or -1 if it is malformed, forged,
+     * expired or revoked
+     */
+    public int verify(String token) {
+        ByteBuffer payload = open(token);
+        if (payload == null || revoked.containsKey(payload.getLong(Integer.BYTES + Long.BYTES))) {
+            rejected.incrementAndGet();
+            return -1;
+        }
+        return payload.getInt(0);
+    }
+
+    /**
+     * Revokes a valid token until it expires
+     * @return false if the token was not valid to begin with
+     */
+    public boolean revoke(String token) {
+        ByteBuffer payload = open(token);
+        if (payload == null) {
+            return false;
+        }
+        long now = clock.getAsLong();
+        // the set only holds tokens that have not expired yet, so it stays small
+        for (Iterator<Long> expiries = revoked.values().iterator(); expiries.hasNext(); ) {
+            if (expiries.next() <= now) {
+                expiries.remove();
+            }
+        }
+        revoked.put(payload.getLong(Integer.BYTES + Long.BYTES), payload.getLong(Integer.BYTES));
+        return true;
+    }
+
+    /**
+     * @return the payload of a well-signed, unexpired token, or null
+     */
+    private ByteBuffer open(String token) {
+        if (token == null) {
+            return null;
+        }
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(token.substring(0, dot));
+            signature = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (payload.length != PAYLOAD_BYTES || !MessageDigest.isEqual(signature, macs.get().doFinal(payload))) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        return buffer.getLong(Integer.BYTES) > clock.getAsLong() ? buffer : null;
+    }
+
+    public Stats getStats() {
+        return new Stats(issued.get(), rejected.get(), revoked.size());
+    }
+
+    /**
+     * token counts since startup, serialized for /admin/sessions
+     */
+    public static class Stats {
+        private final long issued;
+        private final long rejected;
+        private final int revoked;
+
+        Stats(long issued, long rejected, int revoked) {
+            this.issued = issued;
+            this.rejected = rejected;
+            this.revoked = revoked;
+        }
+
+        public long getIssued() {
+            return issued;
+        }
+
+        /**
+         * @return tokens refused by verify(): malformed, forged, expired or revoked
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return revoked tokens that have not expired yet
+         */
+        public int getRevoked() {
+            return revoked;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import Model.Message;
+
+/**
+ * Keeps the newest messages of recently read accounts in memory, so most reads of
+ * GET /accounts/{account_id}/messages never reach the database.
+ *
+ * Each cached account has a ring buffer of up to capacity messages in timeline order
+ * (time_posted_epoch newest first, then message_id). New messages are slotted in as they are
+ * created and edits and deletes are patched in place, so a buffer never has to expire. A page is
+ * answered from memory when it lies inside the buffer, or when the buffer holds the account's
+ * whole timeline; deeper pages fall through to the database. Accounts are evicted
+ * least-recently-read once maxAccounts are cached.
+ *
+ * Like ExpiringCache, all access goes through one lock and the loader runs outside it.
+ */
+public class TimelineCache {
+    /**
+     * write stamps are kept per stripe of account ids rather than per account
+     */
+    private static final int STRIPES = 1024;
+
+    private final int maxAccounts;
+    private final int capacity;
+    private final LinkedHashMap<Integer, Timeline> timelines = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * bumped by every write to an account in the stripe, so a load that raced with a write is not cached
+     */
+    private final long[] writeStamps = new long[STRIPES];
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxAccounts how many accounts' timelines are kept
+     * @param capacity how many of the newest messages are kept per account
+     */
+    public TimelineCache(int maxAccounts, int capacity) {
+        this.maxAccounts = maxAccounts;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return how many messages the loader should return: one more than the buffer holds, so a
+     *         short result tells the cache it has the whole timeline
+     */
+    public int getLoadSize() {
+        return capacity + 1;
+    }
+
+    /**
+     * Returns one page of the account's timeline if it can be answered from memory.
+     * @param accountId the account whose messages are read
+     * @param beforeTime time_posted_epoch of the cursor, or null for the first page
+     * @param beforeId message_id of the cursor; Integer.MAX_VALUE skips everything at beforeTime
+     * @param limit the page size
+     * @param loader returns the newest getLoadSize() messages of an account, newest first
+     * @return the page, or null if it reaches past what is cached
+     */
+    public List<Message> getPage(int accountId, Long beforeTime, int beforeId, int limit,
+            IntFunction<List<Message>> loader) {
+        Timeline timeline = timeline(accountId, loader);
+        synchronized (this) {
+            int start = beforeTime == null ? 0 : timeline.firstAfter(beforeTime, beforeId);
+            if (timeline.complete || start + limit <= timeline.size) {
+                return timeline.copy(start, Math.min(timeline.size, start + limit));
+            }
+        }
+        overflows.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return every message of the account newest first, or null if it has more than are cached
+     */
+    public List<Message> getAll(int accountId, IntFunction<List<Message>> loader) {
+        Timeline timeline = timeline(accountId, loader);
+        synchronized (this) {
+            if (timeline.complete) {
+                return timeline.copy(0, timeline.size);
+            }
+        }
+        overflows.incrementAndGet();
+        return null;
+    }
+
+    private Timeline timeline(int accountId, IntFunction<List<Message>> loader) {
+        long stamp;
+        synchronized (this) {
+            Timeline timeline = timelines.get(accountId);
+            if (timeline != null) {
+                hits.incrementAndGet();
+                return timeline;
+            }
+            stamp = writeStamps[stripe(accountId)];
+        }
+
+        misses.incrementAndGet();
+        Timeline loaded = new Timeline(capacity, loader.apply(accountId));
+
+        synchronized (this) {
+            // a write landed while we were loading, so the rows may be stale; answer this one
+            // read from them (it is no older than a plain query) but do not keep them
+            if (stamp == writeStamps[stripe(accountId)] && maxAccounts > 0) {
+                timelines.put(accountId, loaded);
+                if (timelines.size() > maxAccounts) {
+                    Iterator<Map.Entry<Integer, Timeline>> eldest = timelines.entrySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * slots a newly created message into its account's timeline
+     */
+    public synchronized void onCreate(Message message) {
+        writeStamps[stripe(message.getPosted_by())]++;
+        Timeline timeline = timelines.get(message.getPosted_by());
+        if (timeline != null) {
+            timeline.insert(message);
+        }
+    }
+
+    /**
+     * replaces the cached copy of an edited message
+     */
+    public synchronized void onUpdate(Message message) {
+        writeStamps[stripe(message.getPosted_by())]++;
+        Timeline timeline = timelines.get(message.getPosted_by());
+        if (timeline != null) {
+            timeline.replace(message);
+        }
+    }
+
+    /**
+     * removes a deleted message from its account's timeline
+     */
+    public synchronized void onDelete(Message message) {
+        writeStamps[stripe(message.getPosted_by())]++;
+        Timeline timeline = timelines.get(message.getPosted_by());
+        if (timeline != null) {
+            timeline.remove(message.getMessage_id());
+        }
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            writeStamps[i]++;
+        }
+        timelines.clear();
+    }
+
+    public synchronized int size() {
+        return timelines.size();
+    }
+
+    private static int stripe(int accountId) {
+        return accountId & (STRIPES - 1);
+    }
+
+    /**
+     * @return true if message comes before (time, messageId) on a timeline: newer first, then the lower message_id
+     */
+    private static boolean precedes(Message message, long time, int messageId) {
+        return message.getTime_posted_epoch() > time
+            || (message.getTime_posted_epoch() == time && message.getMessage_id() < messageId);
+    }
+
+    /**
+     * @return a snapshot of the hit/miss counters
+     */
+    public Stats getStats() {
+        return new Stats(size(), maxAccounts, capacity, hits.get(), misses.get(), overflows.get(), evictions.get());
+    }
+
+    /**
+     * The newest messages of one account in a fixed ring, logical index 0 being the newest.
+     * Prepending a new newest message, the common case, only moves head.
+     */
+    private static class Timeline {
+        final Message[] ring;
+        int head;
+        int size;
+        /**
+         * true while the ring holds every message of the account
+         */
+        boolean complete;
+
+        Timeline(int capacity, List<Message> newest) {
+            ring = new Message[capacity];
+            size = Math.min(capacity, newest.size());
+            for (int i = 0; i < size; i++) {
+                ring[i] = newest.get(i);
+            }
+            complete = newest.size() <= capacity;
+        }
+
+        Message get(int i) {
+            return ring[(head + i) % ring.length];
+        }
+
+        void set(int i, Message message) {
+            ring[(head + i) % ring.length] = message;
+        }
+
+        /**
+         * @return the index of the first message after the cursor
+         */
+        int firstAfter(long beforeTime, int beforeId) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (precedes(get(mid), beforeTime, beforeId) || isCursor(get(mid), beforeTime, beforeId)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private static boolean isCursor(Message message, long time, int messageId) {
+            return message.getTime_posted_epoch() == time && message.getMessage_id() == messageId;
+        }
+
+        void insert(Message message) {
+            int position = firstAfter(message.getTime_posted_epoch(), message.getMessage_id());
+            if (!complete && position == size) {
+                // older than everything we hold while the database has older rows still: they may
+                // lie between our tail and this message, so it cannot go at the tail
+                return;
+            }
+            if (size == ring.length) {
+                if (position == size) {
+                    // older than everything we hold: the ring is still the newest messages, just not all of them
+                    complete = false;
+                    return;
+                }
+                // make room by dropping the oldest
+                size--;
+                complete = false;
+            }
+            if (position == 0) {
+                head = (head - 1 + ring.length) % ring.length;
+            } else {
+                for (int i = size; i > position; i--) {
+                    set(i, get(i - 1));
+                }
+            }
+            set(position, message);
+            size++;
+        }
+
+        void replace(Message message) {
+            for (int i = 0; i < size; i++) {
+                if (get(i).getMessage_id() == message.getMessage_id()) {
+                    set(i, message);
+                    return;
+                }
+            }
+        }
+
+        void remove(int messageId) {
+            for (int i = 0; i < size; i++) {
+                if (get(i).getMessage_id() == messageId) {
+                    for (int j = i; j < size - 1; j++) {
+                        set(j, get(j + 1));
+                    }
+                    size--;
+                    set(size, null);
+                    return;
+                }
+            }
+        }
+
+        List<Message> copy(int from, int to) {
+            List<Message> page = new ArrayList<>(Math.max(0, to - from));
+            for (int i = from; i < to; i++) {
+                page.add(get(i));
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Snapshot of cache activity. Overflows are reads that went past the cached messages and were
+     * sent to the database.
+     */
+    public static class Stats {
+        private final int accounts;
+        private final int maxAccounts;
+        private final int capacity;
+        private final long hits;
+        private final long misses;
+        private final long overflows;
+        private final long evictions;
+
+        Stats(int accounts, int maxAccounts, int capacity, long hits, long misses, long overflows, long evictions) {
+            this.accounts = accounts;
+            this.maxAccounts = maxAccounts;
+            this.capacity = capacity;
+            this.hits = hits;
+            this.misses = misses;
+            this.overflows = overflows;
+            this.evictions = evictions;
+        }
+
+        public int getAccounts() {
+            return accounts;
+        }
+
+        public int getMaxAccounts() {
+            return maxAccounts;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getOverflows() {
+            return overflows;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return the share of reads that found the account's timeline already cached
+         */
+        public double getHitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * The AppConfig class reads runtime settings from application.properties on the classpath.
+ * Any key can be overridden by a JVM system property with the same name, which is handy
+ * for tuning a running deployment without rebuilding.
+ */
+public class AppConfig {
+
+	/**
+	 * settings loaded once from application.properties
+	 */
+	private static final Properties properties = load();
+
+	private static Properties load() {
+		Properties props = new Properties();
+		try (InputStream in = AppConfig.class.getClassLoader().getResourceAsStream("application.properties")) {
+			if (in != null) {
+				props.load(in);
+			}
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+		return props;
+	}
+
+	/**
+	 * @param key the setting name
+	 * @param defaultValue the value to use when the setting is missing
+	 * @return the system property if set, otherwise the file value, otherwise the default
+	 */
+	public static String getString(String key, String defaultValue) {
+		String value = System.getProperty(key);
+		if (value == null) {
+			value = properties.getProperty(key);
+		}
+		return value == null ? defaultValue : value.trim();
+	}
+
+	public static int getInt(String key, int defaultValue) {
+		try {
+			return Integer.parseInt(getString(key, String.valueOf(defaultValue)));
+		} catch (NumberFormatException e) {
+			System.out.println("Invalid value for " + key + ": " + e.getMessage());
+			return defaultValue;
+		}
+	}
+
+	public static long getLong(String key, long defaultValue) {
+		try {
+			return Long.parseLong(getString(key, String.valueOf(defaultValue)));
+		} catch (NumberFormatException e) {
+			System.out.println("Invalid value for " + key + ": " + e.getMessage());
+			return defaultValue;
+		}
+	}
+
+	public static boolean getBoolean(String key, boolean defaultValue) {
+		return Boolean.parseBoolean(getString(key, String.valueOf(defaultValue)));
+	}
+}
@@ -0,0 +1,35 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.h2.api.Trigger;
+
+/**
+ * H2 row trigger installed by ReplicaSet on the account and message tables. Every insert,
+ * update and delete adds the table and the row's key (its first column) to change_log, in the
+ * writer's own transaction, so a change is queued for the replicas exactly when it commits.
+ * Only the key is logged; the shipper reads the row as it is when it ships it.
+ */
+public class ChangeLogTrigger implements Trigger {
+
+	private String table;
+
+	@Override
+	public void init(Connection connection, String schemaName, String triggerName, String tableName,
+			boolean before, int type) {
+		this.table = tableName.toLowerCase();
+	}
+
+	@Override
+	public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException {
+		Object key = (newRow != null ? newRow : oldRow)[0];
+		try (PreparedStatement preparedStatement = connection.prepareStatement(
+				"INSERT INTO change_log (table_name, row_id) VALUES (?, ?)")) {
+			preparedStatement.setString(1, table);
+			preparedStatement.setObject(2, key);
+			preparedStatement.executeUpdate();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A growable bitmap of non-negative ints. Lookups are lock-free (one volatile read and one
+ * atomic array read), while adds are serialized, which suits sets that are read constantly
+ * and written rarely. Memory is one bit per possible value up to the largest one added.
+ */
+public class ConcurrentIntBitSet {
+
+	private volatile AtomicLongArray words;
+	private volatile int cardinality;
+
+	public ConcurrentIntBitSet() {
+		this(64);
+	}
+
+	/**
+	 * @param initialCapacity the largest value expected without growing
+	 */
+	public ConcurrentIntBitSet(int initialCapacity) {
+		words = new AtomicLongArray(wordIndex(Math.max(initialCapacity, 1)) + 1);
+	}
+
+	public boolean contains(int value) {
+		if (value < 0) {
+			return false;
+		}
+		AtomicLongArray current = words;
+		int index = wordIndex(value);
+		return index < current.length() && (current.get(index) & (1L << value)) != 0;
+	}
+
+	/**
+	 * @return true if the value was not already present
+	 */
+	public synchronized boolean add(int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("value must not be negative: " + value);
+		}
+		int index = wordIndex(value);
+		AtomicLongArray current = words;
+		if (index >= current.length()) {
+			// double so a run of sequential ids only copies log(n) times
+			int newLength = Math.max(index + 1, (int) Math.min(Integer.MAX_VALUE, current.length() * 2L));
+			AtomicLongArray grown = new AtomicLongArray(newLength);
+			for (int i = 0; i < current.length(); i++) {
+				grown.set(i, current.get(i));
+			}
+			words = grown;
+			current = grown;
+		}
+		long mask = 1L << value;
+		long word = current.get(index);
+		if ((word & mask) != 0) {
+			return false;
+		}
+		current.set(index, word | mask);
+		cardinality++;
+		return true;
+	}
+
+	public int size() {
+		return cardinality;
+	}
+
+	/**
+	 * @return bytes held by the bitmap words
+	 */
+	public long memoryBytes() {
+		return words.length() * 8L;
+	}
+
+	private static int wordIndex(int value) {
+		return value >>> 6;
+	}
+}
@@ -0,0 +1,508 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+/**
+ * A small bounded JDBC connection pool. Physical connections are created lazily up to
+ * maxSize and handed out as proxies whose close() returns them to the pool, so DAOs can
+ * simply use try-with-resources.
+ *
+ * A background housekeeper evicts connections that sat idle longer than idleTimeoutMillis
+ * (never dropping below minIdle) and reports connections held longer than
+ * leakDetectionThresholdMillis together with the stack that borrowed them.
+ *
+ * Each physical connection also keeps a StatementCache of up to statementCacheSize prepared
+ * statements, so repeated prepareStatement calls for the same SQL skip parsing and planning.
+ */
+public class ConnectionPool {
+
+	private final DataSource dataSource;
+	private final int minIdle;
+	private final int maxSize;
+	private final long acquireTimeoutMillis;
+	private final long idleTimeoutMillis;
+	private final long leakDetectionThresholdMillis;
+	private final int validationTimeoutSeconds;
+	private final int statementCacheSize;
+
+	/**
+	 * one permit per connection that may be borrowed at once; idle connections hold none, so
+	 * the housekeeper's top-up checks idle plus borrowed against maxSize itself
+	 */
+	private final Semaphore permits;
+	/**
+	 * idle connections, most recently used first so the warm ones get reused
+	 */
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+	private final Set<Lease> borrowed = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService housekeeper;
+
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong destroyed = new AtomicLong();
+	private final AtomicLong borrows = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong validationFailures = new AtomicLong();
+	private final AtomicLong leaksDetected = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final AtomicLong statementCacheHits = new AtomicLong();
+	private final AtomicLong statementCacheMisses = new AtomicLong();
+	private final AtomicLong statementCacheEvictions = new AtomicLong();
+
+	private volatile boolean closed;
+
+	public ConnectionPool(DataSource dataSource, int minIdle, int maxSize, long acquireTimeoutMillis,
+			long idleTimeoutMillis, long leakDetectionThresholdMillis, int validationTimeoutSeconds,
+			long housekeepingIntervalMillis, int statementCacheSize) {
+		if (maxSize < 1 || minIdle < 0 || minIdle > maxSize) {
+			throw new IllegalArgumentException("pool sizes must satisfy 0 <= minIdle <= maxSize and maxSize >= 1");
+		}
+		this.dataSource = dataSource;
+		this.minIdle = minIdle;
+		this.maxSize = maxSize;
+		this.acquireTimeoutMillis = acquireTimeoutMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+		this.validationTimeoutSeconds = validationTimeoutSeconds;
+		this.statementCacheSize = statementCacheSize;
+		this.permits = new Semaphore(maxSize, true);
+
+		this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "connection-pool-housekeeper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		housekeeper.scheduleWithFixedDelay(this::housekeep, housekeepingIntervalMillis,
+				housekeepingIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a connection, waiting up to acquireTimeoutMillis for one to become free.
+	 * @return a pooled connection; closing it hands it back to the pool
+	 * @throws SQLException if the pool is exhausted or a new connection cannot be opened
+	 */
+	public Connection getConnection() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool is closed");
+		}
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				timeouts.incrementAndGet();
+				throw new SQLTransientConnectionException("Timed out after " + acquireTimeoutMillis
+						+ "ms waiting for a connection (" + borrowed.size() + " of " + maxSize + " in use)");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", e);
+		}
+
+		try {
+			PooledConnection pooled = takeValidIdleConnection();
+			if (pooled == null) {
+				pooled = newPooledConnection();
+				created.incrementAndGet();
+			}
+			long waited = System.nanoTime() - start;
+			totalWaitNanos.addAndGet(waited);
+			maxWaitNanos.accumulateAndGet(waited, Math::max);
+			borrows.incrementAndGet();
+
+			Lease lease = new Lease(pooled, leakDetectionThresholdMillis > 0
+					? new Throwable("Connection borrowed here") : null);
+			borrowed.add(lease);
+			return lease.proxy;
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * pops idle connections until one passes validation
+	 */
+	private PooledConnection takeValidIdleConnection() {
+		PooledConnection pooled;
+		while ((pooled = idle.pollFirst()) != null) {
+			try {
+				if (pooled.physical.isValid(validationTimeoutSeconds)) {
+					return pooled;
+				}
+			} catch (SQLException e) {
+				System.out.println(e.getMessage());
+			}
+			validationFailures.incrementAndGet();
+			destroy(pooled);
+		}
+		return null;
+	}
+
+	/**
+	 * Called when a borrower closes its proxy. The connection is reset and put back on the idle
+	 * deque, or dropped if it is broken or the pool has shut down.
+	 */
+	private void release(Lease lease) {
+		borrowed.remove(lease);
+		PooledConnection pooled = lease.pooled;
+		boolean reusable = !closed;
+		try {
+			if (reusable && pooled.physical.isClosed()) {
+				reusable = false;
+			}
+			if (reusable && !pooled.physical.getAutoCommit()) {
+				pooled.physical.rollback();
+				pooled.physical.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+			reusable = false;
+		}
+
+		if (reusable) {
+			pooled.lastUsedMillis = System.currentTimeMillis();
+			idle.offerFirst(pooled);
+		} else {
+			destroy(pooled);
+		}
+		permits.release();
+	}
+
+	private PooledConnection newPooledConnection() throws SQLException {
+		Connection physical = dataSource.getConnection();
+		StatementCache cache = statementCacheSize > 0 ? new StatementCache(physical, statementCacheSize,
+				statementCacheHits, statementCacheMisses, statementCacheEvictions) : null;
+		return new PooledConnection(physical, cache);
+	}
+
+	private void destroy(PooledConnection pooled) {
+		try {
+			if (pooled.statementCache != null) {
+				pooled.statementCache.clear();
+			}
+			pooled.physical.close();
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+		destroyed.incrementAndGet();
+	}
+
+	/**
+	 * evicts stale idle connections, tops the pool back up to minIdle and reports leaks
+	 */
+	private void housekeep() {
+		try {
+			long now = System.currentTimeMillis();
+
+			if (idleTimeoutMillis > 0) {
+				Iterator<PooledConnection> it = idle.descendingIterator();
+				while (it.hasNext() && idle.size() > minIdle) {
+					PooledConnection pooled = it.next();
+					if (now - pooled.lastUsedMillis > idleTimeoutMillis && idle.remove(pooled)) {
+						destroy(pooled);
+					}
+				}
+			}
+
+			while (!closed && idle.size() < minIdle && idle.size() + borrowed.size() < maxSize
+					&& permits.tryAcquire()) {
+				try {
+					idle.offerLast(newPooledConnection());
+					created.incrementAndGet();
+				} catch (SQLException e) {
+					System.out.println(e.getMessage());
+					break;
+				} finally {
+					permits.release();
+				}
+			}
+
+			if (leakDetectionThresholdMillis > 0) {
+				for (Lease lease : borrowed) {
+					if (!lease.leakReported && now - lease.borrowedAtMillis > leakDetectionThresholdMillis) {
+						lease.leakReported = true;
+						leaksDetected.incrementAndGet();
+						System.out.println("Possible connection leak: held for " + (now - lease.borrowedAtMillis)
+								+ "ms on thread " + lease.threadName);
+						if (lease.borrowTrace != null) {
+							lease.borrowTrace.printStackTrace(System.out);
+						}
+					}
+				}
+			}
+		} catch (RuntimeException e) {
+			// never let the housekeeper die
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * @return a point-in-time snapshot of the pool counters
+	 */
+	public Stats getStats() {
+		long borrowCount = borrows.get();
+		return new Stats(maxSize, minIdle, borrowed.size(), idle.size(), permits.getQueueLength(),
+				created.get(), destroyed.get(), borrowCount, timeouts.get(), validationFailures.get(),
+				leaksDetected.get(),
+				borrowCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.get() / borrowCount),
+				TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()),
+				statementCacheHits.get(), statementCacheMisses.get(), statementCacheEvictions.get());
+	}
+
+	/**
+	 * Closes every idle connection and stops the housekeeper. Borrowed connections are
+	 * physically closed when their borrowers hand them back.
+	 */
+	public void close() {
+		closed = true;
+		housekeeper.shutdownNow();
+		PooledConnection pooled;
+		while ((pooled = idle.pollFirst()) != null) {
+			destroy(pooled);
+		}
+	}
+
+	/**
+	 * a physical connection owned by the pool
+	 */
+	private static class PooledConnection {
+		final Connection physical;
+		/**
+		 * null when statement caching is switched off
+		 */
+		final StatementCache statementCache;
+		volatile long lastUsedMillis = System.currentTimeMillis();
+
+		PooledConnection(Connection physical, StatementCache statementCache) {
+			this.physical = physical;
+			this.statementCache = statementCache;
+		}
+	}
+
+	/**
+	 * One borrow of a pooled connection. Each lease gets its own proxy, so a stale reference
+	 * kept after close() cannot reach the connection once someone else has borrowed it.
+	 */
+	private class Lease implements InvocationHandler {
+		final PooledConnection pooled;
+		final Connection proxy;
+		final Throwable borrowTrace;
+		final long borrowedAtMillis = System.currentTimeMillis();
+		final String threadName = Thread.currentThread().getName();
+		/**
+		 * statements opened through this lease, closed when the lease ends
+		 */
+		final List<Statement> statements = new ArrayList<>();
+		volatile boolean leakReported;
+		private boolean returned;
+
+		Lease(PooledConnection pooled, Throwable borrowTrace) {
+			this.pooled = pooled;
+			this.borrowTrace = borrowTrace;
+			this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			synchronized (this) {
+				switch (name) {
+				case "close":
+					if (!returned) {
+						returned = true;
+						closeStatements();
+						release(this);
+					}
+					return null;
+				case "isClosed":
+					return returned || pooled.physical.isClosed();
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Pooled" + pooled.physical;
+				default:
+					if (returned) {
+						throw new SQLException("Connection has already been returned to the pool");
+					}
+				}
+			}
+
+			try {
+				Object result;
+				if (pooled.statementCache != null && "prepareStatement".equals(name)
+						&& StatementCache.isCacheable(args)) {
+					result = pooled.statementCache.checkout(method, args);
+				} else {
+					result = method.invoke(pooled.physical, args);
+				}
+				if (result instanceof Statement) {
+					synchronized (this) {
+						statements.add((Statement) result);
+					}
+				}
+				return result;
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		private void closeStatements() {
+			for (Statement statement : statements) {
+				try {
+					statement.close();
+				} catch (SQLException e) {
+					System.out.println(e.getMessage());
+				}
+			}
+			statements.clear();
+		}
+	}
+
+	/**
+	 * Snapshot of pool activity. Wait times are in microseconds.
+	 */
+	public static class Stats {
+		private final int maxSize;
+		private final int minIdle;
+		private final int active;
+		private final int idle;
+		private final int waiting;
+		private final long created;
+		private final long destroyed;
+		private final long borrows;
+		private final long timeouts;
+		private final long validationFailures;
+		private final long leaksDetected;
+		private final long averageWaitMicros;
+		private final long maxWaitMicros;
+		private final long statementCacheHits;
+		private final long statementCacheMisses;
+		private final long statementCacheEvictions;
+
+		Stats(int maxSize, int minIdle, int active, int idle, int waiting, long created, long destroyed,
+				long borrows, long timeouts, long validationFailures, long leaksDetected,
+				long averageWaitMicros, long maxWaitMicros, long statementCacheHits, long statementCacheMisses,
+				long statementCacheEvictions) {
+			this.maxSize = maxSize;
+			this.minIdle = minIdle;
+			this.active = active;
+			this.idle = idle;
+			this.waiting = waiting;
+			this.created = created;
+			this.destroyed = destroyed;
+			this.borrows = borrows;
+			this.timeouts = timeouts;
+			this.validationFailures = validationFailures;
+			this.leaksDetected = leaksDetected;
+			this.averageWaitMicros = averageWaitMicros;
+			this.maxWaitMicros = maxWaitMicros;
+			this.statementCacheHits = statementCacheHits;
+			this.statementCacheMisses = statementCacheMisses;
+			this.statementCacheEvictions = statementCacheEvictions;
+		}
+
+		public int getMaxSize() {
+			return maxSize;
+		}
+
+		public int getMinIdle() {
+			return minIdle;
+		}
+
+		public int getActive() {
+			return active;
+		}
+
+		public int getIdle() {
+			return idle;
+		}
+
+		public int getWaiting() {
+			return waiting;
+		}
+
+		public long getCreated() {
+			return created;
+		}
+
+		public long getDestroyed() {
+			return destroyed;
+		}
+
+		public long getBorrows() {
+			return borrows;
+		}
+
+		public long getTimeouts() {
+			return timeouts;
+		}
+
+		public long getValidationFailures() {
+			return validationFailures;
+		}
+
+		public long getLeaksDetected() {
+			return leaksDetected;
+		}
+
+		public long getAverageWaitMicros() {
+			return averageWaitMicros;
+		}
+
+		public long getMaxWaitMicros() {
+			return maxWaitMicros;
+		}
+
+		public long getStatementCacheHits() {
+			return statementCacheHits;
+		}
+
+		public long getStatementCacheMisses() {
+			return statementCacheMisses;
+		}
+
+		public long getStatementCacheEvictions() {
+			return statementCacheEvictions;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats{" +
+					"maxSize=" + maxSize +
+					", active=" + active +
+					", idle=" + idle +
+					", waiting=" + waiting +
+					", created=" + created +
+					", destroyed=" + destroyed +
+					", borrows=" + borrows +
+					", timeouts=" + timeouts +
+					", leaksDetected=" + leaksDetected +
+					", averageWaitMicros=" + averageWaitMicros +
+					", statementCacheHits=" + statementCacheHits +
+					", statementCacheMisses=" + statementCacheMisses +
+					'}';
+		}
+	}
+}
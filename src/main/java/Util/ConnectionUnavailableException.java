@@ -0,0 +1,15 @@
+package Util;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown by ConnectionUtil when a pool cannot hand out a connection: it stayed exhausted for
+ * pool.acquireTimeoutMillis, it is closed, or a new connection could not be opened. Unchecked
+ * so it passes through the DAOs' SQLException handling to the controller, which answers 503.
+ */
+public class ConnectionUnavailableException extends RuntimeException {
+
+	public ConnectionUnavailableException(SQLException cause) {
+		super(cause.getMessage(), cause);
+	}
+}
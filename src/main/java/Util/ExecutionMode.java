@@ -0,0 +1,85 @@
+package Util;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Where request handlers do their blocking JDBC work, chosen with server.executionMode.
+ *
+ * JETTY runs handlers on the Jetty worker thread that received the request (the classic
+ * model). EXECUTOR and VIRTUAL hand each handler to another executor through Javalin's
+ * ctx.future(), so the Jetty thread goes straight back to accepting connections: EXECUTOR
+ * uses a bounded platform-thread pool that rejects work once its queue is full, VIRTUAL starts
+ * one virtual thread per request (Java 21+, see the java21 Maven profile).
+ */
+public enum ExecutionMode {
+	JETTY,
+	EXECUTOR,
+	VIRTUAL;
+
+	/**
+	 * @return the mode named by server.executionMode, JETTY when unset or unknown
+	 */
+	public static ExecutionMode fromConfig() {
+		String name = AppConfig.getString("server.executionMode", "jetty");
+		try {
+			return valueOf(name.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			System.out.println("Unknown server.executionMode " + name + ", using jetty");
+			return JETTY;
+		}
+	}
+
+	/**
+	 * @return the executor handlers should be offloaded to, or null for JETTY
+	 */
+	public ExecutorService createExecutor() {
+		switch (this) {
+		case EXECUTOR:
+			return newBoundedExecutor(AppConfig.getInt("server.executor.threads", 64),
+					AppConfig.getInt("server.executor.queueCapacity", 1000));
+		case VIRTUAL:
+			ExecutorService virtual = newVirtualThreadExecutor();
+			if (virtual != null) {
+				return virtual;
+			}
+			System.out.println("Virtual threads need Java 21+, falling back to the bounded executor");
+			return EXECUTOR.createExecutor();
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * A fixed pool with a bounded queue. When both are full execute() throws
+	 * RejectedExecutionException, which the controller turns into 429.
+	 */
+	private static ExecutorService newBoundedExecutor(int threads, int queueCapacity) {
+		AtomicInteger counter = new AtomicInteger();
+		ThreadFactory factory = r -> {
+			Thread thread = new Thread(r, "request-worker-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), factory, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Looked up reflectively so the project still compiles for Java 11.
+	 * @return a virtual-thread-per-task executor, or null on JVMs without virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package Util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A bounded in-process read-through cache. Entries are evicted least-recently-used once the
+ * cache holds maxSize of them, and expire ttlMillis after they were loaded. A loader result of
+ * null is cached as well (for negativeTtlMillis) so repeated lookups of missing keys do not
+ * keep hitting the database.
+ *
+ * All access goes through one lock; every operation is O(1) so it is held only briefly. The
+ * loader runs outside the lock. A load is only stored if no put or invalidate of the same key
+ * happened while it ran; writes to other keys do not hold it back.
+ */
+public class ExpiringCache<K, V> {
+
+	/**
+	 * stands in for a cached "not found"
+	 */
+	private static final Object MISSING = new Object();
+
+	private final int maxSize;
+	private final long ttlMillis;
+	private final long negativeTtlMillis;
+	private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * a stamp per key being loaded; put and invalidate drop the key's stamp, so a load that raced
+	 * with a write to its key finds its stamp gone and is not cached
+	 */
+	private final HashMap<K, Object> loading = new HashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong negativeHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+
+	public ExpiringCache(int maxSize, long ttlMillis, long negativeTtlMillis) {
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.negativeTtlMillis = negativeTtlMillis;
+	}
+
+	/**
+	 * Returns the cached value for key, or loads, caches and returns it on a miss.
+	 * @param key the key to look up
+	 * @param loader called on a miss; may return null, which is cached as a negative entry
+	 * @return the value, or null if the loader found nothing
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(K key, Function<K, V> loader) {
+		Object stamp = new Object();
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (entry.expiresAtMillis > System.currentTimeMillis()) {
+					if (entry.value == MISSING) {
+						negativeHits.incrementAndGet();
+						return null;
+					}
+					hits.incrementAndGet();
+					return (V) entry.value;
+				}
+				entries.remove(key);
+				expirations.incrementAndGet();
+			}
+			// a second load of the same key takes over; only the latest one is stored
+			loading.put(key, stamp);
+		}
+
+		misses.incrementAndGet();
+		V value;
+		try {
+			value = loader.apply(key);
+		} catch (RuntimeException e) {
+			synchronized (this) {
+				loading.remove(key, stamp);
+			}
+			throw e;
+		}
+
+		synchronized (this) {
+			if (loading.remove(key, stamp)) {
+				store(key, value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Caches a value that is already known, e.g. a row that was just inserted.
+	 */
+	public synchronized void put(K key, V value) {
+		loading.remove(key);
+		store(key, value);
+	}
+
+	/**
+	 * Drops the entry for key; the next get reloads it.
+	 */
+	public synchronized void invalidate(K key) {
+		loading.remove(key);
+		entries.remove(key);
+	}
+
+	public synchronized void clear() {
+		loading.clear();
+		entries.clear();
+	}
+
+	private void store(K key, V value) {
+		if (maxSize <= 0) {
+			return;
+		}
+		long ttl = value == null ? negativeTtlMillis : ttlMillis;
+		if (ttl <= 0) {
+			return;
+		}
+		entries.put(key, new Entry(value == null ? MISSING : value, System.currentTimeMillis() + ttl));
+		if (entries.size() > maxSize) {
+			Iterator<Map.Entry<K, Entry>> eldest = entries.entrySet().iterator();
+			eldest.next();
+			eldest.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return a snapshot of the hit/miss counters
+	 */
+	public Stats getStats() {
+		return new Stats(size(), maxSize, hits.get(), negativeHits.get(), misses.get(), evictions.get(),
+				expirations.get());
+	}
+
+	private static class Entry {
+		final Object value;
+		final long expiresAtMillis;
+
+		Entry(Object value, long expiresAtMillis) {
+			this.value = value;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+	}
+
+	/**
+	 * Snapshot of cache activity. Negative hits are lookups answered by a cached "not found".
+	 */
+	public static class Stats {
+		private final int size;
+		private final int maxSize;
+		private final long hits;
+		private final long negativeHits;
+		private final long misses;
+		private final long evictions;
+		private final long expirations;
+
+		Stats(int size, int maxSize, long hits, long negativeHits, long misses, long evictions, long expirations) {
+			this.size = size;
+			this.maxSize = maxSize;
+			this.hits = hits;
+			this.negativeHits = negativeHits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.expirations = expirations;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		public int getMaxSize() {
+			return maxSize;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getNegativeHits() {
+			return negativeHits;
+		}
+
+		public long getMisses() {
+			return misses;
+		}
+
+		public long getEvictions() {
+			return evictions;
+		}
+
+		public long getExpirations() {
+			return expirations;
+		}
+
+		/**
+		 * @return the share of lookups, positive or negative, that did not reach the loader
+		 */
+		public double getHitRatio() {
+			long total = hits + negativeHits + misses;
+			return total == 0 ? 0.0 : (double) (hits + negativeHits) / total;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package Util;
+
+import java.util.Arrays;
+
+/**
+ * An int to int hash map without boxing: each entry is one long (key in the high half, value in
+ * the low half) in an open-addressing table with linear probing, so an entry costs 8 bytes
+ * times the load factor slack instead of a HashMap node, an Integer key and an Integer value.
+ *
+ * Values must not be negative. Not thread-safe; callers guard it with their own lock.
+ */
+public class IntIntHashMap {
+
+	/**
+	 * returned by get() for a missing key
+	 */
+	public static final int MISSING = -1;
+
+	private static final long EMPTY = -1L;
+
+	private long[] slots;
+	private int size;
+
+	public IntIntHashMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize how many entries fit without resizing
+	 */
+	public IntIntHashMap(int expectedSize) {
+		slots = newTable(tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * @return the value for key, or MISSING
+	 */
+	public int get(int key) {
+		int mask = slots.length - 1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			long slot = slots[i];
+			if (slot == EMPTY) {
+				return MISSING;
+			}
+			if (keyOf(slot) == key) {
+				return valueOf(slot);
+			}
+		}
+	}
+
+	public boolean containsKey(int key) {
+		return get(key) != MISSING;
+	}
+
+	/**
+	 * @return the previous value for key, or MISSING
+	 */
+	public int put(int key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("value must not be negative: " + value);
+		}
+		if ((size + 1) * 4L > slots.length * 3L) {
+			rehash(slots.length * 2);
+		}
+		int mask = slots.length - 1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			long slot = slots[i];
+			if (slot == EMPTY) {
+				slots[i] = pack(key, value);
+				size++;
+				return MISSING;
+			}
+			if (keyOf(slot) == key) {
+				slots[i] = pack(key, value);
+				return valueOf(slot);
+			}
+		}
+	}
+
+	/**
+	 * @return the removed value, or MISSING
+	 */
+	public int remove(int key) {
+		int mask = slots.length - 1;
+		int i = hash(key) & mask;
+		while (true) {
+			long slot = slots[i];
+			if (slot == EMPTY) {
+				return MISSING;
+			}
+			if (keyOf(slot) == key) {
+				break;
+			}
+			i = (i + 1) & mask;
+		}
+		int removed = valueOf(slots[i]);
+		// shift later entries of the probe run back so lookups never stop at the hole
+		int hole = i;
+		for (int j = (hole + 1) & mask; slots[j] != EMPTY; j = (j + 1) & mask) {
+			int home = hash(keyOf(slots[j])) & mask;
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				slots[hole] = slots[j];
+				hole = j;
+			}
+		}
+		slots[hole] = EMPTY;
+		size--;
+		return removed;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Arrays.fill(slots, EMPTY);
+		size = 0;
+	}
+
+	/**
+	 * @return bytes held by the table
+	 */
+	public long memoryBytes() {
+		return slots.length * 8L;
+	}
+
+	private void rehash(int capacity) {
+		long[] old = slots;
+		slots = newTable(capacity);
+		int mask = capacity - 1;
+		for (long slot : old) {
+			if (slot != EMPTY) {
+				int i = hash(keyOf(slot)) & mask;
+				while (slots[i] != EMPTY) {
+					i = (i + 1) & mask;
+				}
+				slots[i] = slot;
+			}
+		}
+	}
+
+	private static long[] newTable(int capacity) {
+		long[] table = new long[capacity];
+		Arrays.fill(table, EMPTY);
+		return table;
+	}
+
+	private static int tableSizeFor(int expectedSize) {
+		int capacity = 16;
+		while (capacity * 3L < expectedSize * 4L) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static long pack(int key, int value) {
+		return ((long) key << 32) | (value & 0xFFFFFFFFL);
+	}
+
+	private static int keyOf(long slot) {
+		return (int) (slot >>> 32);
+	}
+
+	private static int valueOf(long slot) {
+		return (int) slot;
+	}
+}
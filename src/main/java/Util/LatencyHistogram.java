@@ -0,0 +1,105 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram laid out like HdrHistogram: buckets are linear within each
+ * power of two, SUB_BUCKETS of them per power, so any recorded value is reported within 12.5%
+ * of what was measured, from 1 ns up to Long.MAX_VALUE ns, in a fixed 488 counters.
+ *
+ * record() is one AtomicLongArray increment and one LongAdder add, so many threads can record
+ * at once without taking a lock. Percentiles are worked out when read, over everything
+ * recorded since the histogram was created.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * @param nanos the measured duration; negative values count as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(indexOf(value));
+		sum.add(value);
+	}
+
+	/**
+	 * @return the total of every recorded value, in nanoseconds
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return a copy of the counts, from which count and percentiles can be read consistently
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			total += copy[i];
+		}
+		return new Snapshot(copy, total);
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return the largest value that lands in the bucket
+	 */
+	static long highestEquivalent(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowest + ((1L << shift) - 1);
+	}
+
+	public static class Snapshot {
+		private final long[] counts;
+		private final long count;
+
+		Snapshot(long[] counts, long count) {
+			this.counts = counts;
+			this.count = count;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @param quantile between 0 and 1, e.g. 0.99
+		 * @return the value (in nanoseconds) that quantile of the recorded values are at or below, 0 when empty
+		 */
+		public long valueAt(double quantile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(quantile * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return highestEquivalent(i);
+				}
+			}
+			return highestEquivalent(counts.length - 1);
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package Util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Timers and gauges rendered in the Prometheus text format for GET /metrics.
+ *
+ * A timer is a LatencyHistogram (plus a row counter for queries) looked up by metric name and
+ * label set. Looking one up is a ConcurrentHashMap get and recording never locks, so timing a
+ * request or a query costs two System.nanoTime() calls and a few atomic adds. Gauges are read
+ * only when /metrics is scraped: either a single supplier, or every numeric property of one of
+ * the Stats objects the pool, caches and stores already expose for /admin.
+ */
+public class Metrics {
+
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+	private static final ObjectMapper STATS_MAPPER = new ObjectMapper();
+
+	private final Map<String, Family> timers = new ConcurrentSkipListMap<>();
+	private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+
+	/**
+	 * @param name the metric name, e.g. http_server_requests_seconds
+	 * @param help one line describing the metric, used the first time name is seen
+	 * @param labels the label set in Prometheus syntax without braces, e.g. method="GET",route="/messages"
+	 * @return the timer for name and labels, created on first use
+	 */
+	public Timer timer(String name, String help, String labels) {
+		Family family = timers.get(name);
+		if (family == null) {
+			family = timers.computeIfAbsent(name, key -> new Family(help));
+		}
+		Timer timer = family.timers.get(labels);
+		if (timer == null) {
+			timer = family.timers.computeIfAbsent(labels, key -> new Timer());
+		}
+		return timer;
+	}
+
+	/**
+	 * Registers a gauge read at scrape time
+	 * @param name the metric name
+	 * @param help one line describing the metric
+	 * @param value supplies the current value
+	 */
+	public void gauge(String name, String help, DoubleSupplier value) {
+		gauges.put(name, new Gauge(help, () -> {
+			List<String> lines = new ArrayList<>(1);
+			lines.add(name + " " + format(value.getAsDouble()));
+			return lines;
+		}));
+	}
+
+	/**
+	 * Registers one gauge per numeric property of the stats object, named prefix_property
+	 * (in snake case). Nothing is reported while the supplier returns null.
+	 * @param prefix the metric name prefix, e.g. cache_message
+	 * @param stats supplies a Stats object with getters, as served by the /admin endpoints
+	 */
+	public void statsGauges(String prefix, Supplier<Object> stats) {
+		gauges.put(prefix, new Gauge(null, () -> {
+			List<String> lines = new ArrayList<>();
+			Object value = stats.get();
+			if (value == null) {
+				return lines;
+			}
+			Map<?, ?> properties = STATS_MAPPER.convertValue(value, Map.class);
+			for (Map.Entry<?, ?> property : properties.entrySet()) {
+				if (property.getValue() instanceof Number) {
+					String name = prefix + "_" + snakeCase(property.getKey().toString());
+					lines.add("# TYPE " + name + " gauge");
+					lines.add(name + " " + format(((Number) property.getValue()).doubleValue()));
+				}
+			}
+			return lines;
+		}));
+	}
+
+	/**
+	 * Registers heap usage, collection counts and times per collector, live threads and the
+	 * bytes allocated by the live threads.
+	 */
+	public void registerJvmGauges() {
+		gauge("jvm_memory_heap_used_bytes", "Heap in use",
+				() -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+		gauge("jvm_memory_heap_committed_bytes", "Heap committed by the JVM",
+				() -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getCommitted());
+		gauge("jvm_memory_heap_max_bytes", "Largest heap the JVM may use",
+				() -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax());
+		gauges.put("jvm_gc", new Gauge(null, () -> {
+			List<String> lines = new ArrayList<>();
+			lines.add("# HELP jvm_gc_collections_total Collections run by each collector");
+			lines.add("# TYPE jvm_gc_collections_total counter");
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				lines.add("jvm_gc_collections_total{gc=\"" + escape(gc.getName()) + "\"} " + gc.getCollectionCount());
+			}
+			lines.add("# HELP jvm_gc_collection_seconds_total Time spent collecting by each collector");
+			lines.add("# TYPE jvm_gc_collection_seconds_total counter");
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				lines.add("jvm_gc_collection_seconds_total{gc=\"" + escape(gc.getName()) + "\"} "
+						+ format(gc.getCollectionTime() / 1000.0));
+			}
+			return lines;
+		}));
+		gauge("jvm_threads_live", "Live threads", () -> ManagementFactory.getThreadMXBean().getThreadCount());
+		gauge("jvm_threads_allocated_bytes", "Bytes allocated so far by the threads still alive",
+				Metrics::allocatedBytes);
+	}
+
+	/**
+	 * @return every metric in the Prometheus text exposition format (version 0.0.4)
+	 */
+	public String scrape() {
+		StringBuilder out = new StringBuilder(8192);
+		for (Map.Entry<String, Family> entry : timers.entrySet()) {
+			entry.getValue().render(entry.getKey(), out);
+		}
+		for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+			Gauge gauge = entry.getValue();
+			if (gauge.help != null) {
+				out.append("# HELP ").append(entry.getKey()).append(' ').append(gauge.help).append('\n');
+				out.append("# TYPE ").append(entry.getKey()).append(" gauge\n");
+			}
+			for (String line : gauge.lines.get()) {
+				out.append(line).append('\n');
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @return the escaped value, safe between the quotes of a label
+	 */
+	public static String escape(String labelValue) {
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String snakeCase(String name) {
+		StringBuilder out = new StringBuilder(name.length() + 4);
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (Character.isUpperCase(c)) {
+				out.append('_').append(Character.toLowerCase(c));
+			} else {
+				out.append(c);
+			}
+		}
+		return out.toString();
+	}
+
+	private static String format(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return String.format(Locale.ROOT, "%.9g", value);
+	}
+
+	private static double allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return 0;
+		}
+		long total = 0;
+		for (long allocated : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			// -1 for threads that died since their ids were read
+			total += Math.max(allocated, 0);
+		}
+		return total;
+	}
+
+	/**
+	 * a latency histogram plus, for queries, the rows they returned or changed
+	 */
+	public static class Timer {
+		private final LatencyHistogram histogram = new LatencyHistogram();
+		private final LongAdder rows = new LongAdder();
+
+		/**
+		 * @param startNanos System.nanoTime() when the timed work started
+		 */
+		public void record(long startNanos) {
+			histogram.record(System.nanoTime() - startNanos);
+		}
+
+		public void record(long startNanos, long rowCount) {
+			histogram.record(System.nanoTime() - startNanos);
+			rows.add(rowCount);
+		}
+	}
+
+	private static class Family {
+		private final String help;
+		private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+		Family(String help) {
+			this.help = help;
+		}
+
+		void render(String name, StringBuilder out) {
+			out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+			out.append("# TYPE ").append(name).append(" summary\n");
+			StringBuilder rowLines = new StringBuilder();
+			for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+				String labels = entry.getKey();
+				Timer timer = entry.getValue();
+				LatencyHistogram.Snapshot snapshot = timer.histogram.snapshot();
+				String separator = labels.isEmpty() ? "" : ",";
+				for (double quantile : QUANTILES) {
+					out.append(name).append('{').append(labels).append(separator)
+							.append("quantile=\"").append(quantile).append("\"} ")
+							.append(format(snapshot.valueAt(quantile) / 1e9)).append('\n');
+				}
+				String braced = labels.isEmpty() ? "" : "{" + labels + "}";
+				out.append(name).append("_sum").append(braced).append(' ')
+						.append(format(timer.histogram.getSum() / 1e9)).append('\n');
+				out.append(name).append("_count").append(braced).append(' ').append(snapshot.getCount()).append('\n');
+				long rows = timer.rows.sum();
+				if (rows > 0) {
+					rowLines.append(rowsName(name)).append(braced).append(' ').append(rows).append('\n');
+				}
+			}
+			if (rowLines.length() > 0) {
+				out.append("# HELP ").append(rowsName(name)).append(" Rows returned or changed\n");
+				out.append("# TYPE ").append(rowsName(name)).append(" counter\n");
+				out.append(rowLines);
+			}
+		}
+
+		private static String rowsName(String name) {
+			return name.replace("_seconds", "") + "_rows_total";
+		}
+	}
+
+	private static class Gauge {
+		private final String help;
+		private final Supplier<List<String>> lines;
+
+		Gauge(String help, Supplier<List<String>> lines) {
+			this.help = help;
+			this.lines = lines;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted PBKDF2-HMAC-SHA256 password hashes with a tunable iteration count. A stored hash looks
+ * like pbkdf2$310000$salt$hash (both Base64) and carries its own iteration count, so raising
+ * auth.password.iterations leaves old hashes verifiable; needsRehash() tells the caller when to
+ * replace one. Values without the pbkdf2$ prefix are legacy plaintext passwords, which still
+ * verify (in constant time) and always need a rehash.
+ */
+public class PasswordHasher {
+
+	private static final String PREFIX = "pbkdf2$";
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+	private static final int SALT_BYTES = 16;
+	private static final int KEY_BITS = 256;
+
+	private final int iterations;
+	private final SecureRandom random = new SecureRandom();
+
+	public PasswordHasher(int iterations) {
+		if (iterations < 1) {
+			throw new IllegalArgumentException("iterations must be positive");
+		}
+		this.iterations = iterations;
+	}
+
+	/**
+	 * @return a hasher with the cost set by auth.password.iterations
+	 */
+	public static PasswordHasher fromConfig() {
+		return new PasswordHasher(AppConfig.getInt("auth.password.iterations", 310000));
+	}
+
+	/**
+	 * @return password hashed with a fresh salt at the current cost
+	 */
+	public String hash(String password) {
+		byte[] salt = new byte[SALT_BYTES];
+		random.nextBytes(salt);
+		Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+		return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$"
+				+ base64.encodeToString(derive(password, salt, iterations));
+	}
+
+	/**
+	 * @param stored a value from hash(), or a legacy plaintext password
+	 * @return true if password matches stored; false for malformed hashes
+	 */
+	public boolean verify(String password, String stored) {
+		if (password == null || stored == null) {
+			return false;
+		}
+		if (!stored.startsWith(PREFIX)) {
+			return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+					stored.getBytes(StandardCharsets.UTF_8));
+		}
+		String[] parts = stored.split("\\$");
+		if (parts.length != 4) {
+			return false;
+		}
+		try {
+			int storedIterations = Integer.parseInt(parts[1]);
+			byte[] salt = Base64.getDecoder().decode(parts[2]);
+			byte[] expected = Base64.getDecoder().decode(parts[3]);
+			if (storedIterations < 1) {
+				return false;
+			}
+			return MessageDigest.isEqual(expected, derive(password, salt, storedIterations));
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if stored is plaintext or was hashed at a different cost than the current one
+	 */
+	public boolean needsRehash(String stored) {
+		if (stored == null || !stored.startsWith(PREFIX)) {
+			return true;
+		}
+		int end = stored.indexOf('$', PREFIX.length());
+		return end < 0 || !stored.substring(PREFIX.length(), end).equals(Integer.toString(iterations));
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	private static byte[] derive(String password, byte[] salt, int iterations) {
+		KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+		try {
+			// SecretKeyFactory instances are not thread-safe, and getInstance() is cheap next to the hash
+			return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(ALGORITHM + " is not available", e);
+		}
+	}
+
+	/**
+	 * The pool hashing runs on, kept apart from the request threads so that a burst of logins
+	 * costs at most threads cores. Once queueCapacity hashes are waiting, execute() throws
+	 * RejectedExecutionException straight away, which the controller turns into 429.
+	 */
+	public static ExecutorService newExecutor(int threads, int queueCapacity) {
+		AtomicInteger counter = new AtomicInteger();
+		ThreadFactory factory = r -> {
+			Thread thread = new Thread(r, "password-hasher-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), factory, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * @return the hashing pool sized by auth.hashing.threads (default: one per core) and
+	 * auth.hashing.queueCapacity
+	 */
+	public static ExecutorService executorFromConfig() {
+		return newExecutor(AppConfig.getInt("auth.hashing.threads", Runtime.getRuntime().availableProcessors()),
+				AppConfig.getInt("auth.hashing.queueCapacity", 64));
+	}
+}
@@ -0,0 +1,504 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Profiles the SQL run through ConnectionUtil. wrap() puts a proxy around a borrowed connection
+ * whose statements, and the result sets they return, record for every execution: the SQL,
+ * how many parameters were bound, the time spent executing and fetching (time the caller
+ * spends between rows is not counted), the rows fetched or changed, and for the first
+ * statement on the connection how long ConnectionUtil waited for it.
+ *
+ * Executions slower than slowQueryMillis are logged with H2's EXPLAIN plan, worked out once per
+ * statement per window. Totals are kept per SQL text for the current window of windowMillis and
+ * the one before it, so getStats() always covers between one and two windows: a rolling top-N
+ * by total time rather than an all-time one that a startup burst would dominate.
+ */
+public class QueryProfiler {
+
+	/**
+	 * where statements past maxStatements distinct SQL strings are counted
+	 */
+	static final String OTHER = "(other)";
+
+	private final long slowQueryNanos;
+	private final long windowMillis;
+	private final int maxStatements;
+	private final AtomicReference<Window> current;
+	private volatile Window previous;
+	private final LongAdder slowQueries = new LongAdder();
+
+	public QueryProfiler(long slowQueryMillis, long windowMillis, int maxStatements) {
+		this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+		this.windowMillis = windowMillis;
+		this.maxStatements = maxStatements;
+		this.current = new AtomicReference<>(new Window(System.currentTimeMillis()));
+	}
+
+	/**
+	 * @return a profiler configured by profiler.*, or null when profiler.enabled is false
+	 */
+	public static QueryProfiler fromConfig() {
+		if (!AppConfig.getBoolean("profiler.enabled", true)) {
+			return null;
+		}
+		return new QueryProfiler(AppConfig.getLong("profiler.slowQueryMillis", 100),
+				AppConfig.getLong("profiler.windowMillis", 300000),
+				AppConfig.getInt("profiler.maxStatements", 1000));
+	}
+
+	/**
+	 * @param connection a connection just borrowed from the pool
+	 * @param waitNanos how long the borrow took, charged to the first statement run on it
+	 * @return a connection whose statements are profiled; closing it closes connection
+	 */
+	public Connection wrap(Connection connection, long waitNanos) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new ProfiledConnection(connection, waitNanos));
+	}
+
+	/**
+	 * @param limit how many statements to return
+	 * @return the statements with the most total execution time over the current and previous window
+	 */
+	public Stats getStats(int limit) {
+		Window window = window(System.currentTimeMillis());
+		Window before = previous;
+		Map<String, QueryStats> merged = new HashMap<>();
+		for (Window w : before == null ? List.of(window) : List.of(before, window)) {
+			for (Map.Entry<String, Entry> entry : w.entries.entrySet()) {
+				QueryStats stats = entry.getValue().toStats(entry.getKey());
+				merged.merge(entry.getKey(), stats, QueryStats::plus);
+			}
+		}
+		List<QueryStats> queries = new ArrayList<>(merged.values());
+		queries.sort(Comparator.comparingLong(QueryStats::getTotalMicros).reversed());
+		long since = before == null ? window.startMillis : before.startMillis;
+		return new Stats(since, slowQueries.sum(), queries.subList(0, Math.min(limit, queries.size())));
+	}
+
+	/**
+	 * @return the current window, started afresh once windowMillis have passed
+	 */
+	private Window window(long now) {
+		Window window = current.get();
+		if (now - window.startMillis >= windowMillis) {
+			Window next = new Window(now);
+			if (current.compareAndSet(window, next)) {
+				previous = window;
+				return next;
+			}
+			return current.get();
+		}
+		return window;
+	}
+
+	private void record(Connection connection, String sql, Map<Integer, Object> parameters, int binds,
+			long nanos, long rows, long waitNanos) {
+		Window window = window(System.currentTimeMillis());
+		Entry entry = window.entries.get(sql);
+		if (entry == null) {
+			String key = window.entries.size() < maxStatements ? sql : OTHER;
+			entry = window.entries.computeIfAbsent(key, k -> new Entry());
+		}
+		entry.executions.increment();
+		entry.totalNanos.add(nanos);
+		entry.maxNanos.accumulateAndGet(nanos, Math::max);
+		entry.rows.add(rows);
+		entry.binds.add(binds);
+		entry.waitNanos.add(waitNanos);
+		if (nanos < slowQueryNanos) {
+			return;
+		}
+		entry.slow.increment();
+		slowQueries.increment();
+		if (entry.plan == null) {
+			entry.plan = explain(connection, sql, parameters);
+		}
+		System.out.println(String.format(Locale.ROOT, "Slow query (%.1f ms, %d rows, %d binds, waited %.1f ms): %s%n%s",
+				nanos / 1e6, rows, binds, waitNanos / 1e6, sql, entry.plan));
+	}
+
+	/**
+	 * @return H2's plan for sql with the same parameters, or a note saying why there is none
+	 */
+	static String explain(Connection connection, String sql, Map<Integer, Object> parameters) {
+		String verb = sql.trim().split("\\s+", 2)[0].toUpperCase(Locale.ROOT);
+		if (!verb.equals("SELECT") && !verb.equals("INSERT") && !verb.equals("UPDATE")
+				&& !verb.equals("DELETE") && !verb.equals("MERGE") && !verb.equals("WITH")) {
+			return "(no plan for " + verb + ")";
+		}
+		// three arguments, so the pool's statement cache leaves it alone
+		try (PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql,
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			for (Map.Entry<Integer, Object> parameter : parameters.entrySet()) {
+				explain.setObject(parameter.getKey(), parameter.getValue());
+			}
+			StringBuilder plan = new StringBuilder();
+			try (ResultSet rs = explain.executeQuery()) {
+				while (rs.next()) {
+					plan.append(rs.getString(1));
+				}
+			}
+			return plan.toString();
+		} catch (SQLException e) {
+			return "(no plan: " + e.getMessage() + ")";
+		}
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private class ProfiledConnection implements InvocationHandler {
+		private final Connection connection;
+		private long waitNanos;
+
+		ProfiledConnection(Connection connection, long waitNanos) {
+			this.connection = connection;
+			this.waitNanos = waitNanos;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("equals")) {
+				return proxy == args[0];
+			}
+			if (method.getName().equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			Object result = QueryProfiler.invoke(connection, method, args);
+			if (result instanceof PreparedStatement) {
+				return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+						new ProfiledStatement(this, (Statement) result, (String) args[0]));
+			}
+			if (result instanceof Statement) {
+				return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] { Statement.class },
+						new ProfiledStatement(this, (Statement) result, null));
+			}
+			return result;
+		}
+
+		/**
+		 * @return the borrow wait, the first time only
+		 */
+		long takeWaitNanos() {
+			long wait = waitNanos;
+			waitNanos = 0;
+			return wait;
+		}
+	}
+
+	/**
+	 * One statement. An execution that returns a ResultSet is recorded when the result set or
+	 * the statement is closed, or the statement is run again, whichever comes first.
+	 */
+	private class ProfiledStatement implements InvocationHandler {
+		private final ProfiledConnection connection;
+		private final Statement statement;
+		/**
+		 * the SQL it was prepared with, null for plain statements
+		 */
+		private final String preparedSql;
+		private final Map<Integer, Object> parameters = new TreeMap<>();
+		private int binds;
+
+		// the execution whose result set is still being read
+		private String pendingSql;
+		private long pendingNanos;
+		private long pendingRows;
+		private int pendingBinds;
+		private long pendingWait;
+
+		ProfiledStatement(ProfiledConnection connection, Statement statement, String preparedSql) {
+			this.connection = connection;
+			this.statement = statement;
+			this.preparedSql = preparedSql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.startsWith("execute")) {
+				return execute(method, args);
+			}
+			switch (name) {
+			case "close":
+				finishPending();
+				break;
+			case "clearParameters":
+				parameters.clear();
+				break;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			default:
+				if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+					parameters.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+					binds++;
+				}
+			}
+			return QueryProfiler.invoke(statement, method, args);
+		}
+
+		private Object execute(Method method, Object[] args) throws Throwable {
+			finishPending();
+			String sql = preparedSql != null ? preparedSql
+					: args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : "(batch)";
+			int executedBinds = binds;
+			binds = 0;
+			long start = System.nanoTime();
+			Object result = QueryProfiler.invoke(statement, method, args);
+			long nanos = System.nanoTime() - start;
+			long wait = connection.takeWaitNanos();
+			if (result instanceof ResultSet) {
+				pendingSql = sql;
+				pendingNanos = nanos;
+				pendingRows = 0;
+				pendingBinds = executedBinds;
+				pendingWait = wait;
+				return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+						new ProfiledResultSet(this, (ResultSet) result));
+			}
+			record(connection.connection, sql, parameters, executedBinds, nanos, updatedRows(result), wait);
+			return result;
+		}
+
+		private long updatedRows(Object result) throws SQLException {
+			if (result instanceof Integer || result instanceof Long) {
+				return ((Number) result).longValue();
+			}
+			long rows = 0;
+			if (result instanceof int[]) {
+				for (int count : (int[]) result) {
+					rows += Math.max(count, 0);
+				}
+			} else if (result instanceof long[]) {
+				for (long count : (long[]) result) {
+					rows += Math.max(count, 0);
+				}
+			} else if (Boolean.FALSE.equals(result)) {
+				rows = Math.max(statement.getUpdateCount(), 0);
+			}
+			return rows;
+		}
+
+		void finishPending() {
+			if (pendingSql == null) {
+				return;
+			}
+			String sql = pendingSql;
+			pendingSql = null;
+			record(connection.connection, sql, parameters, pendingBinds, pendingNanos, pendingRows, pendingWait);
+		}
+	}
+
+	private static class ProfiledResultSet implements InvocationHandler {
+		private final ProfiledStatement statement;
+		private final ResultSet resultSet;
+
+		ProfiledResultSet(ProfiledStatement statement, ResultSet resultSet) {
+			this.statement = statement;
+			this.resultSet = resultSet;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "next":
+				long start = System.nanoTime();
+				Object more = QueryProfiler.invoke(resultSet, method, args);
+				statement.pendingNanos += System.nanoTime() - start;
+				if (Boolean.TRUE.equals(more)) {
+					statement.pendingRows++;
+				}
+				return more;
+			case "close":
+				Object result = QueryProfiler.invoke(resultSet, method, args);
+				statement.finishPending();
+				return result;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			default:
+				return QueryProfiler.invoke(resultSet, method, args);
+			}
+		}
+	}
+
+	/**
+	 * one window of totals per SQL text
+	 */
+	private static class Window {
+		final long startMillis;
+		final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+		Window(long startMillis) {
+			this.startMillis = startMillis;
+		}
+	}
+
+	private static class Entry {
+		final LongAdder executions = new LongAdder();
+		final LongAdder totalNanos = new LongAdder();
+		final AtomicLong maxNanos = new AtomicLong();
+		final LongAdder rows = new LongAdder();
+		final LongAdder binds = new LongAdder();
+		final LongAdder waitNanos = new LongAdder();
+		final LongAdder slow = new LongAdder();
+		volatile String plan;
+
+		QueryStats toStats(String sql) {
+			return new QueryStats(sql, executions.sum(), totalNanos.sum() / 1000, maxNanos.get() / 1000,
+					rows.sum(), binds.sum(), waitNanos.sum() / 1000, slow.sum(), plan);
+		}
+	}
+
+	/**
+	 * the statements with the most total time, serialized for /admin/queries
+	 */
+	public static class Stats {
+		private final long sinceMillis;
+		private final long slowQueries;
+		private final List<QueryStats> queries;
+
+		Stats(long sinceMillis, long slowQueries, List<QueryStats> queries) {
+			this.sinceMillis = sinceMillis;
+			this.slowQueries = slowQueries;
+			this.queries = queries;
+		}
+
+		/**
+		 * @return when the oldest window in these totals started, in epoch millis
+		 */
+		public long getSinceMillis() {
+			return sinceMillis;
+		}
+
+		/**
+		 * @return statements over the threshold since startup
+		 */
+		public long getSlowQueries() {
+			return slowQueries;
+		}
+
+		public List<QueryStats> getQueries() {
+			return queries;
+		}
+	}
+
+	/**
+	 * Totals for one SQL text. Times are in microseconds and include fetching the rows.
+	 */
+	public static class QueryStats {
+		private final String sql;
+		private final long executions;
+		private final long totalMicros;
+		private final long maxMicros;
+		private final long rows;
+		private final long binds;
+		private final long waitMicros;
+		private final long slow;
+		private final String plan;
+
+		QueryStats(String sql, long executions, long totalMicros, long maxMicros, long rows, long binds,
+				long waitMicros, long slow, String plan) {
+			this.sql = sql;
+			this.executions = executions;
+			this.totalMicros = totalMicros;
+			this.maxMicros = maxMicros;
+			this.rows = rows;
+			this.binds = binds;
+			this.waitMicros = waitMicros;
+			this.slow = slow;
+			this.plan = plan;
+		}
+
+		QueryStats plus(QueryStats other) {
+			return new QueryStats(sql, executions + other.executions, totalMicros + other.totalMicros,
+					Math.max(maxMicros, other.maxMicros), rows + other.rows, binds + other.binds,
+					waitMicros + other.waitMicros, slow + other.slow, other.plan != null ? other.plan : plan);
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		public long getExecutions() {
+			return executions;
+		}
+
+		public long getTotalMicros() {
+			return totalMicros;
+		}
+
+		public long getMeanMicros() {
+			return executions == 0 ? 0 : totalMicros / executions;
+		}
+
+		public long getMaxMicros() {
+			return maxMicros;
+		}
+
+		/**
+		 * @return rows fetched by queries, or changed by updates
+		 */
+		public long getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return parameters bound over all executions
+		 */
+		public long getBinds() {
+			return binds;
+		}
+
+		/**
+		 * @return time spent waiting for the connection, charged to the first statement run on it
+		 */
+		public long getWaitMicros() {
+			return waitMicros;
+		}
+
+		/**
+		 * @return executions over profiler.slowQueryMillis
+		 */
+		public long getSlow() {
+			return slow;
+		}
+
+		/**
+		 * @return the EXPLAIN plan, for statements that were slow at least once
+		 */
+		public String getPlan() {
+			return plan;
+		}
+	}
+}
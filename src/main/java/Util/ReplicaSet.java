@@ -0,0 +1,618 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Read-only copies of the main database in local H2 files, so heavy reads stop competing with
+ * writes for the primary.
+ *
+ * ChangeLogTrigger queues the key of every changed account and message row in the primary's
+ * change_log table, inside the writer's transaction. One shipper thread drains that table every
+ * shipIntervalMillis: it reads the current version of each queued row from the primary, writes
+ * it into every replica (or deletes it there if it is gone) in one transaction per replica, and
+ * only then removes the queued keys. Shipping a key twice is harmless, so a failed replica just
+ * gets the same keys again on the next pass. start() copies the primary into each replica first.
+ *
+ * Reads ask pick() for a replica. A replica is only used if it was caught up less than
+ * maxStalenessMillis ago, and not before the reader's read floor: a thread that runs a request
+ * for an account or message written recently sets the floor to that write's time, so the author
+ * reads their own write from the primary until a replica has it.
+ */
+public class ReplicaSet {
+
+	/**
+	 * the replicated tables and their keys, parents first so inserts never miss their parent
+	 */
+	private static final String[][] TABLES = {{"account", "account_id"}, {"message", "message_id"}};
+
+	/**
+	 * System.nanoTime() of the newest write the current thread's reads must see, 0 for none
+	 */
+	private static final ThreadLocal<long[]> READ_FLOOR = ThreadLocal.withInitial(() -> new long[1]);
+
+	private final Supplier<Connection> primary;
+	private final ConnectionPool[] pools;
+	/**
+	 * per replica, System.nanoTime() at the start of the last pass that left it fully caught up,
+	 * or Long.MIN_VALUE until it has been seeded
+	 */
+	private final AtomicLongArray caughtUpAt;
+	private final long shipIntervalMillis;
+	private final long maxStalenessNanos;
+	private final int shipBatchSize;
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * when each account and message was last written, kept until every replica has the write
+	 */
+	private final Map<Integer, Long> accountWrites = new ConcurrentHashMap<>();
+	private final Map<Integer, Long> messageWrites = new ConcurrentHashMap<>();
+
+	private final LongAdder replicaReads = new LongAdder();
+	private final LongAdder primaryReads = new LongAdder();
+	private final LongAdder stickyReads = new LongAdder();
+	private final LongAdder staleReads = new LongAdder();
+	private final LongAdder shippedChanges = new LongAdder();
+	private final LongAdder shipFailures = new LongAdder();
+
+	private ScheduledExecutorService shipper;
+
+	/**
+	 * @param primary hands out connections to the main database
+	 * @param urlPattern a JDBC URL with %d for the replica number, e.g. jdbc:h2:./h2/replica-%d;
+	 * @param replicaCount the number of replicas, at least 1
+	 * @param shipIntervalMillis how long the shipper sleeps once the change log is empty
+	 * @param maxStalenessMillis how long after its last catch-up a replica may still serve reads
+	 * @param shipBatchSize the most queued changes shipped per transaction
+	 */
+	public ReplicaSet(Supplier<Connection> primary, String urlPattern, int replicaCount, long shipIntervalMillis,
+			long maxStalenessMillis, int shipBatchSize) {
+		if (replicaCount < 1) {
+			throw new IllegalArgumentException("replicaCount must be at least 1");
+		}
+		this.primary = primary;
+		this.pools = new ConnectionPool[replicaCount];
+		for (int i = 0; i < replicaCount; i++) {
+			pools[i] = ConnectionUtil.createPool(String.format(urlPattern, i));
+		}
+		this.caughtUpAt = new AtomicLongArray(replicaCount);
+		for (int i = 0; i < replicaCount; i++) {
+			caughtUpAt.set(i, Long.MIN_VALUE);
+		}
+		this.shipIntervalMillis = shipIntervalMillis;
+		this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+		this.shipBatchSize = shipBatchSize;
+	}
+
+	/**
+	 * @return the replicas described by the replicas.* settings, or null when replicas.count is 0
+	 */
+	public static ReplicaSet fromConfig() {
+		int replicaCount = AppConfig.getInt("replicas.count", 0);
+		if (replicaCount < 1) {
+			return null;
+		}
+		return new ReplicaSet(ConnectionUtil::getConnection,
+				AppConfig.getString("replicas.url", "jdbc:h2:./h2/replica-%d;"), replicaCount,
+				AppConfig.getLong("replicas.shipIntervalMillis", 20),
+				AppConfig.getLong("replicas.maxStalenessMillis", 1000),
+				AppConfig.getInt("replicas.shipBatchSize", 1000));
+	}
+
+	/**
+	 * Installs the change log on the primary, copies the primary into every replica and starts
+	 * shipping. Does nothing if already started.
+	 */
+	public synchronized void start() {
+		if (shipper != null) {
+			return;
+		}
+		try (Connection connection = primary.get()) {
+			installChangeLog(connection);
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+		// changes made while copying are queued already, and shipped on top of the copy
+		for (int replica = 0; replica < pools.length; replica++) {
+			long started = System.nanoTime();
+			if (seed(replica)) {
+				caughtUpAt.set(replica, started);
+			}
+		}
+		shipper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "replica-shipper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		shipper.scheduleWithFixedDelay(this::ship, 0, shipIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * stops shipping and closes the replicas' pools; the change log stays installed
+	 */
+	public synchronized void shutdown() {
+		if (shipper != null) {
+			shipper.shutdown();
+			try {
+				shipper.awaitTermination(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (ConnectionPool pool : pools) {
+			pool.close();
+		}
+	}
+
+	private static void installChangeLog(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("create table if not exists change_log ("
+					+ "lsn bigint generated always as identity primary key, "
+					+ "table_name varchar(32), row_id int)");
+			for (String[] table : TABLES) {
+				statement.execute("create trigger if not exists " + table[0] + "_change_log "
+						+ "after insert, update, delete on " + table[0] + " for each row call \""
+						+ ChangeLogTrigger.class.getName() + "\"");
+			}
+		}
+	}
+
+	/**
+	 * Removes the change log from the primary, so nothing is queued while replicas are off
+	 * @param connection a connection to the primary
+	 */
+	public static void uninstallChangeLog(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			for (String[] table : TABLES) {
+				statement.execute("drop trigger if exists " + table[0] + "_change_log");
+			}
+			statement.execute("drop table if exists change_log");
+		}
+	}
+
+	/**
+	 * brings the replica's schema up to date and replaces its rows with the primary's
+	 * @return true if the copy committed
+	 */
+	private boolean seed(int replica) {
+		try (Connection target = ConnectionUtil.getConnection(pools[replica]);
+				Connection source = primary.get()) {
+			SchemaMigrator.migrate(target);
+			try (Statement statement = target.createStatement()) {
+				// the primary enforces the foreign keys; a replica takes rows in whatever order they ship
+				statement.execute("SET REFERENTIAL_INTEGRITY FALSE");
+			}
+			target.setAutoCommit(false);
+			try {
+				for (int i = TABLES.length - 1; i >= 0; i--) {
+					try (Statement statement = target.createStatement()) {
+						statement.execute("DELETE FROM " + TABLES[i][0]);
+					}
+				}
+				for (String[] table : TABLES) {
+					copy(source, target, table);
+				}
+				target.commit();
+				return true;
+			} catch (SQLException e) {
+				target.rollback();
+				throw e;
+			} finally {
+				target.setAutoCommit(true);
+			}
+		} catch (SQLException | ConnectionUnavailableException e) {
+			System.out.println("Could not seed replica " + replica + ": " + e.getMessage());
+		}
+		return false;
+	}
+
+	private void copy(Connection source, Connection target, String[] table) throws SQLException {
+		try (PreparedStatement select = source.prepareStatement("SELECT * FROM " + table[0] + " ORDER BY " + table[1]);
+				PreparedStatement merge = target.prepareStatement(mergeSql(table))) {
+			select.setFetchSize(shipBatchSize);
+			try (ResultSet rs = select.executeQuery()) {
+				int columns = rs.getMetaData().getColumnCount();
+				int batched = 0;
+				while (rs.next()) {
+					for (int column = 1; column <= columns; column++) {
+						merge.setObject(column, rs.getObject(column));
+					}
+					merge.addBatch();
+					if (++batched == shipBatchSize) {
+						merge.executeBatch();
+						batched = 0;
+					}
+				}
+				merge.executeBatch();
+			}
+		}
+	}
+
+	private static String mergeSql(String[] table) {
+		String columns = "account".equals(table[0]) ? "?, ?, ?" : "?, ?, ?, ?";
+		return "MERGE INTO " + table[0] + " KEY (" + table[1] + ") VALUES (" + columns + ")";
+	}
+
+	/**
+	 * one shipper pass: drains the change log into every replica, a batch at a time
+	 */
+	private void ship() {
+		try {
+			long started = System.nanoTime();
+			int shipped;
+			do {
+				shipped = shipBatch(started);
+			} while (shipped == shipBatchSize);
+			pruneWrites();
+		} catch (RuntimeException e) {
+			// keep the shipper scheduled whatever happens in one pass
+			shipFailures.increment();
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * @param started System.nanoTime() at the start of this pass
+	 * @return the number of queued changes read, or -1 if shipping failed
+	 */
+	private int shipBatch(long started) {
+		List<Long> lsns = new ArrayList<>(shipBatchSize);
+		Map<String, Set<Integer>> keys = new LinkedHashMap<>();
+		Map<String, List<Object[]>> rows = new LinkedHashMap<>();
+		try (Connection source = primary.get()) {
+			try (PreparedStatement select = source.prepareStatement(
+					"SELECT lsn, table_name, row_id FROM change_log ORDER BY lsn LIMIT ?")) {
+				select.setInt(1, shipBatchSize);
+				try (ResultSet rs = select.executeQuery()) {
+					while (rs.next()) {
+						lsns.add(rs.getLong(1));
+						keys.computeIfAbsent(rs.getString(2), table -> new LinkedHashSet<>()).add(rs.getInt(3));
+					}
+				}
+			}
+			for (String[] table : TABLES) {
+				Set<Integer> ids = keys.get(table[0]);
+				if (ids != null) {
+					rows.put(table[0], fetch(source, table, ids));
+				}
+			}
+		} catch (SQLException | ConnectionUnavailableException e) {
+			shipFailures.increment();
+			System.out.println(e.getMessage());
+			return -1;
+		}
+
+		boolean shippedEverywhere = true;
+		for (int replica = 0; replica < pools.length; replica++) {
+			if (caughtUpAt.get(replica) == Long.MIN_VALUE && !seed(replica)) {
+				shippedEverywhere = false;
+				continue;
+			}
+			if (lsns.isEmpty() || apply(replica, keys, rows)) {
+				if (lsns.size() < shipBatchSize) {
+					// everything committed on the primary before this pass started is on the replica now
+					caughtUpAt.set(replica, started);
+				}
+			} else {
+				shippedEverywhere = false;
+			}
+		}
+		if (lsns.isEmpty() || !shippedEverywhere) {
+			return shippedEverywhere ? 0 : -1;
+		}
+		try (Connection source = primary.get();
+				PreparedStatement delete = source.prepareStatement("DELETE FROM change_log WHERE lsn = ANY(?)")) {
+			delete.setObject(1, lsns.toArray(new Long[0]));
+			delete.executeUpdate();
+		} catch (SQLException e) {
+			// the keys are shipped again next pass, which changes nothing
+			shipFailures.increment();
+			System.out.println(e.getMessage());
+			return -1;
+		}
+		shippedChanges.add(lsns.size());
+		return lsns.size();
+	}
+
+	/**
+	 * @return the current version of every row with one of the keys; missing keys were deleted
+	 */
+	private static List<Object[]> fetch(Connection source, String[] table, Set<Integer> ids) throws SQLException {
+		List<Object[]> found = new ArrayList<>(ids.size());
+		try (PreparedStatement select = source.prepareStatement(
+				"SELECT * FROM " + table[0] + " WHERE " + table[1] + " = ANY(?)")) {
+			select.setObject(1, ids.toArray(new Integer[0]));
+			try (ResultSet rs = select.executeQuery()) {
+				int columns = rs.getMetaData().getColumnCount();
+				while (rs.next()) {
+					Object[] row = new Object[columns];
+					for (int column = 0; column < columns; column++) {
+						row[column] = rs.getObject(column + 1);
+					}
+					found.add(row);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * writes the fetched rows into one replica and deletes the keys that were not found
+	 * @return true if the replica committed them
+	 */
+	private boolean apply(int replica, Map<String, Set<Integer>> keys, Map<String, List<Object[]>> rows) {
+		try (Connection target = ConnectionUtil.getConnection(pools[replica])) {
+			target.setAutoCommit(false);
+			try {
+				for (String[] table : TABLES) {
+					Set<Integer> ids = keys.get(table[0]);
+					if (ids == null) {
+						continue;
+					}
+					Set<Integer> deleted = new LinkedHashSet<>(ids);
+					try (PreparedStatement merge = target.prepareStatement(mergeSql(table))) {
+						for (Object[] row : rows.get(table[0])) {
+							for (int column = 0; column < row.length; column++) {
+								merge.setObject(column + 1, row[column]);
+							}
+							merge.addBatch();
+							deleted.remove(row[0]);
+						}
+						merge.executeBatch();
+					}
+					if (!deleted.isEmpty()) {
+						try (PreparedStatement delete = target.prepareStatement(
+								"DELETE FROM " + table[0] + " WHERE " + table[1] + " = ANY(?)")) {
+							delete.setObject(1, deleted.toArray(new Integer[0]));
+							delete.executeUpdate();
+						}
+					}
+				}
+				target.commit();
+				return true;
+			} catch (SQLException e) {
+				target.rollback();
+				throw e;
+			} finally {
+				target.setAutoCommit(true);
+			}
+		} catch (SQLException | ConnectionUnavailableException e) {
+			shipFailures.increment();
+			System.out.println("Could not ship to replica " + replica + ": " + e.getMessage());
+		}
+		return false;
+	}
+
+	/**
+	 * forgets writes every replica has, they no longer hold any reader back
+	 */
+	private void pruneWrites() {
+		long oldest = caughtUpAt.get(0);
+		for (int replica = 0; replica < pools.length; replica++) {
+			long caught = caughtUpAt.get(replica);
+			if (caught == Long.MIN_VALUE) {
+				return;
+			}
+			if (caught - oldest < 0) {
+				oldest = caught;
+			}
+		}
+		long cutoff = oldest;
+		accountWrites.values().removeIf(written -> written - cutoff < 0);
+		messageWrites.values().removeIf(written -> written - cutoff < 0);
+	}
+
+	/**
+	 * Records a committed write to an account or to a message and its poster
+	 * @param account_id the account written or posted as, or 0
+	 * @param message_id the message written, or 0
+	 */
+	public void wrote(int account_id, int message_id) {
+		long now = System.nanoTime();
+		if (account_id > 0) {
+			accountWrites.put(account_id, now);
+		}
+		if (message_id > 0) {
+			messageWrites.put(message_id, now);
+		}
+	}
+
+	/**
+	 * @return System.nanoTime() of the last write to the account or the message that a replica
+	 * may not have yet, 0 if there is none; either id may be 0
+	 */
+	public long lastWrite(int account_id, int message_id) {
+		Long account = account_id > 0 ? accountWrites.get(account_id) : null;
+		Long message = message_id > 0 ? messageWrites.get(message_id) : null;
+		return later(account == null ? 0 : account, message == null ? 0 : message);
+	}
+
+	/**
+	 * @return the later of two read floors, where 0 is no floor
+	 */
+	public static long later(long floor, long other) {
+		if (floor == 0 || other != 0 && other - floor > 0) {
+			return other;
+		}
+		return floor;
+	}
+
+	/**
+	 * Makes the current thread's reads see every write up to floorNanos, until clearReadFloor()
+	 * @param floorNanos a value from lastWrite(), 0 for none
+	 */
+	public static void setReadFloor(long floorNanos) {
+		READ_FLOOR.get()[0] = floorNanos;
+	}
+
+	public static void clearReadFloor() {
+		READ_FLOOR.get()[0] = 0;
+	}
+
+	/**
+	 * @return a connection to a replica picked by pick(), or to the primary if none will do or
+	 * the picked one has no connection to spare
+	 */
+	public Connection getReadConnection() {
+		ConnectionPool replica = pick();
+		if (replica != null) {
+			try {
+				return ConnectionUtil.getConnection(replica);
+			} catch (ConnectionUnavailableException e) {
+				System.out.println(e.getMessage());
+			}
+		}
+		return primary.get();
+	}
+
+	/**
+	 * Picks a replica for a read, taking them in turn
+	 * @return the replica's pool, or null if every replica is too stale or behind the thread's
+	 * read floor and the read must go to the primary
+	 */
+	public ConnectionPool pick() {
+		long now = System.nanoTime();
+		long floor = READ_FLOOR.get()[0];
+		int start = Math.floorMod(next.getAndIncrement(), pools.length);
+		boolean behindFloor = false;
+		for (int i = 0; i < pools.length; i++) {
+			int replica = (start + i) % pools.length;
+			long caught = caughtUpAt.get(replica);
+			if (caught == Long.MIN_VALUE || now - caught > maxStalenessNanos) {
+				continue;
+			}
+			if (floor != 0 && caught - floor < 0) {
+				behindFloor = true;
+				continue;
+			}
+			replicaReads.increment();
+			return pools[replica];
+		}
+		primaryReads.increment();
+		if (behindFloor) {
+			stickyReads.increment();
+		} else {
+			staleReads.increment();
+		}
+		return null;
+	}
+
+	/**
+	 * @return how far behind the primary the most lagging replica may be, in milliseconds
+	 */
+	public long getMaxLagMillis() {
+		long now = System.nanoTime();
+		long lag = 0;
+		for (int replica = 0; replica < pools.length; replica++) {
+			long caught = caughtUpAt.get(replica);
+			if (caught == Long.MIN_VALUE) {
+				return -1;
+			}
+			lag = Math.max(lag, now - caught);
+		}
+		return TimeUnit.NANOSECONDS.toMillis(lag);
+	}
+
+	public Stats getStats() {
+		return new Stats(pools.length, getMaxLagMillis(), replicaReads.sum(), primaryReads.sum(), stickyReads.sum(),
+				staleReads.sum(), shippedChanges.sum(), shipFailures.sum(), accountWrites.size() + messageWrites.size());
+	}
+
+	/**
+	 * where reads went and how far behind the replicas are, for GET /admin/replicas
+	 */
+	public static class Stats {
+		private final int replicas;
+		private final long maxLagMillis;
+		private final long replicaReads;
+		private final long primaryReads;
+		private final long stickyReads;
+		private final long staleReads;
+		private final long shippedChanges;
+		private final long shipFailures;
+		private final int pendingWrites;
+
+		Stats(int replicas, long maxLagMillis, long replicaReads, long primaryReads, long stickyReads, long staleReads,
+				long shippedChanges, long shipFailures, int pendingWrites) {
+			this.replicas = replicas;
+			this.maxLagMillis = maxLagMillis;
+			this.replicaReads = replicaReads;
+			this.primaryReads = primaryReads;
+			this.stickyReads = stickyReads;
+			this.staleReads = staleReads;
+			this.shippedChanges = shippedChanges;
+			this.shipFailures = shipFailures;
+			this.pendingWrites = pendingWrites;
+		}
+
+		public int getReplicas() {
+			return replicas;
+		}
+
+		/**
+		 * @return time since the most lagging replica was last caught up, -1 while one is unseeded
+		 */
+		public long getMaxLagMillis() {
+			return maxLagMillis;
+		}
+
+		public long getReplicaReads() {
+			return replicaReads;
+		}
+
+		/**
+		 * @return reads sent to the primary, either sticky or stale
+		 */
+		public long getPrimaryReads() {
+			return primaryReads;
+		}
+
+		/**
+		 * @return reads sent to the primary because no replica had the reader's own recent write
+		 */
+		public long getStickyReads() {
+			return stickyReads;
+		}
+
+		/**
+		 * @return reads sent to the primary because every replica was past maxStalenessMillis
+		 */
+		public long getStaleReads() {
+			return staleReads;
+		}
+
+		public long getShippedChanges() {
+			return shippedChanges;
+		}
+
+		public long getShipFailures() {
+			return shipFailures;
+		}
+
+		/**
+		 * @return accounts and messages written recently enough to hold their readers on the primary
+		 */
+		public int getPendingWrites() {
+			return pendingWrites;
+		}
+	}
+}
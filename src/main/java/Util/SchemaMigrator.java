@@ -0,0 +1,150 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.h2.tools.RunScript;
+
+/**
+ * Brings the database schema up to date with versioned scripts from db/migration on the
+ * classpath, instead of dropping and recreating the tables like SocialMedia.sql does.
+ *
+ * Each applied script is recorded in schema_version with a checksum, so a restart only runs
+ * the scripts it has not seen yet. Scripts are never edited once shipped: a change to the
+ * schema is a new script appended to MIGRATIONS.
+ */
+public class SchemaMigrator {
+
+	/**
+	 * every migration in the order it must run, named V{version}__{description}.sql
+	 */
+	private static final String[] MIGRATIONS = {
+			"V1__baseline_schema.sql",
+			"V2__message_indexes.sql"
+	};
+
+	private static final String LOCATION = "db/migration/";
+
+	/**
+	 * applies any pending migrations using a pooled connection
+	 * @return the number of migrations applied
+	 */
+	public static int migrate() {
+		try (Connection connection = ConnectionUtil.getConnection()) {
+			return migrate(connection);
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+		return 0;
+	}
+
+	/**
+	 * Applies every migration newer than the highest version recorded in schema_version.
+	 * Migrations already applied are only checked against their recorded checksum.
+	 * @param connection the connection to migrate through
+	 * @return the number of migrations applied
+	 * @throws SQLException if a migration fails; later migrations are not attempted
+	 */
+	public static synchronized int migrate(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("create table if not exists schema_version ("
+					+ "version int primary key, "
+					+ "description varchar(255), "
+					+ "checksum bigint, "
+					+ "applied_at timestamp default current_timestamp)");
+		}
+		Map<Integer, Long> applied = appliedChecksums(connection);
+
+		int count = 0;
+		for (String name : MIGRATIONS) {
+			int version = versionOf(name);
+			String script = load(name);
+			long checksum = checksum(script);
+
+			Long appliedChecksum = applied.get(version);
+			if (appliedChecksum != null) {
+				if (appliedChecksum != checksum) {
+					System.out.println("Migration " + name + " has changed since it was applied");
+				}
+				continue;
+			}
+
+			RunScript.execute(connection, new StringReader(script));
+			try (PreparedStatement preparedStatement = connection.prepareStatement(
+					"INSERT INTO schema_version (version, description, checksum) VALUES (?, ?, ?)")) {
+				preparedStatement.setInt(1, version);
+				preparedStatement.setString(2, descriptionOf(name));
+				preparedStatement.setLong(3, checksum);
+				preparedStatement.executeUpdate();
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the highest applied version, 0 for a database that has never been migrated
+	 */
+	public static int currentVersion(Connection connection) throws SQLException {
+		int version = 0;
+		for (int applied : appliedChecksums(connection).keySet()) {
+			version = Math.max(version, applied);
+		}
+		return version;
+	}
+
+	private static Map<Integer, Long> appliedChecksums(Connection connection) throws SQLException {
+		Map<Integer, Long> applied = new HashMap<>();
+		try (Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(
+						"SELECT version, checksum FROM schema_version")) {
+			while (rs.next()) {
+				applied.put(rs.getInt(1), rs.getLong(2));
+			}
+		}
+		return applied;
+	}
+
+	private static int versionOf(String name) {
+		return Integer.parseInt(name.substring(1, name.indexOf("__")));
+	}
+
+	private static String descriptionOf(String name) {
+		return name.substring(name.indexOf("__") + 2, name.lastIndexOf('.')).replace('_', ' ');
+	}
+
+	private static String load(String name) throws SQLException {
+		try (InputStream in = SchemaMigrator.class.getClassLoader().getResourceAsStream(LOCATION + name)) {
+			if (in == null) {
+				throw new SQLException("Missing migration " + LOCATION + name);
+			}
+			StringBuilder script = new StringBuilder();
+			char[] buffer = new char[4096];
+			Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+			for (int read; (read = reader.read(buffer)) != -1;) {
+				script.append(buffer, 0, read);
+			}
+			return script.toString();
+		} catch (IOException e) {
+			throw new SQLException("Could not read migration " + name, e);
+		}
+	}
+
+	private static long checksum(String script) {
+		CRC32 crc = new CRC32();
+		crc.update(script.getBytes(StandardCharsets.UTF_8));
+		return crc.getValue();
+	}
+}
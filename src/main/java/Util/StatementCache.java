@@ -0,0 +1,197 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An LRU cache of prepared statements belonging to one pooled connection, keyed by SQL text.
+ * DAOs keep calling connection.prepareStatement(sql) and closing the result as usual; the
+ * statement they get is a proxy whose close() clears its parameters and parks it back in the
+ * cache, so the next prepare of the same SQL skips parsing and planning.
+ *
+ * A connection is only used by one borrower at a time, so the cache itself is not shared
+ * between threads. The hit/miss counters are shared by every cache in the pool.
+ */
+class StatementCache {
+
+	private final Connection physical;
+	private final int maxSize;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong evictions;
+
+	/**
+	 * access-ordered so the eldest entry is the least recently used one
+	 */
+	private final LinkedHashMap<String, Entry> entries;
+
+	StatementCache(Connection physical, int maxSize, AtomicLong hits, AtomicLong misses, AtomicLong evictions) {
+		this.physical = physical;
+		this.maxSize = maxSize;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() <= StatementCache.this.maxSize) {
+					return false;
+				}
+				StatementCache.this.evictions.incrementAndGet();
+				Entry entry = eldest.getValue();
+				entry.evicted = true;
+				if (!entry.inUse) {
+					entry.closePhysical();
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * @return true for the prepareStatement overloads this cache understands:
+	 *         (String) and (String, int autoGeneratedKeys)
+	 */
+	static boolean isCacheable(Object[] args) {
+		return args != null && (args.length == 1 || (args.length == 2 && args[1] instanceof Integer));
+	}
+
+	/**
+	 * Hands out a statement for the given prepareStatement call, reusing a cached one when it
+	 * is not already checked out.
+	 */
+	PreparedStatement checkout(Method prepareMethod, Object[] args) throws SQLException {
+		String key = args.length == 1 ? (String) args[0] : args[0] + "\u0000" + args[1];
+		Entry entry = entries.get(key);
+		if (entry != null && !entry.inUse && !entry.statement.isClosed()) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			PreparedStatement statement = invoke(prepareMethod, physical, args);
+			if (entry != null && entry.inUse) {
+				// the same SQL is already open on this connection, give the caller a throwaway one
+				return statement;
+			}
+			entry = new Entry(statement);
+			entries.put(key, entry);
+		}
+		entry.inUse = true;
+		return entry.newHandle();
+	}
+
+	/**
+	 * physically closes every cached statement, used when the connection is destroyed
+	 */
+	void clear() {
+		for (Entry entry : entries.values()) {
+			entry.closePhysical();
+		}
+		entries.clear();
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T invoke(Method method, Object target, Object[] args) throws SQLException {
+		try {
+			return (T) method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			}
+			throw new SQLException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new SQLException(e);
+		}
+	}
+
+	/**
+	 * a cached physical statement and whether a borrower currently holds it
+	 */
+	private static class Entry {
+		final PreparedStatement statement;
+		boolean inUse;
+		boolean evicted;
+
+		Entry(PreparedStatement statement) {
+			this.statement = statement;
+		}
+
+		/**
+		 * Each checkout gets its own proxy so a handle kept after close() cannot touch the
+		 * statement once it has been handed to someone else.
+		 */
+		PreparedStatement newHandle() {
+			return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, new Handle(this));
+		}
+
+		void checkin() {
+			inUse = false;
+			if (evicted) {
+				closePhysical();
+				return;
+			}
+			try {
+				statement.clearParameters();
+				statement.clearBatch();
+			} catch (SQLException e) {
+				closePhysical();
+			}
+		}
+
+		void closePhysical() {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				System.out.println(e.getMessage());
+			}
+		}
+	}
+
+	private static class Handle implements InvocationHandler {
+		private final Entry entry;
+		private boolean closed;
+
+		Handle(Entry entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				if (!closed) {
+					closed = true;
+					entry.checkin();
+				}
+				return null;
+			case "isClosed":
+				return closed || entry.statement.isClosed();
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			default:
+				if (closed) {
+					throw new SQLException("Statement is closed");
+				}
+			}
+			try {
+				return method.invoke(entry.statement, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package Util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only UTF-8 text storage in direct (off-heap) byte buffers. Each string is copied into
+ * the current chunk and addressed by a long (chunk * chunkSize + offset) plus its byte length,
+ * so the heap holds two primitives per string instead of a String and its backing array, and
+ * the garbage collector never scans the text.
+ *
+ * Nothing is freed in place: replacing a string leaves its old bytes behind as garbage, which
+ * the owner reclaims by copying the live strings into a fresh arena with copyTo(). Not
+ * thread-safe; callers guard it with their own lock (reads may run concurrently with each other).
+ */
+public class TextArena {
+
+	private final int chunkSize;
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	private ByteBuffer current;
+	private long liveBytes;
+
+	/**
+	 * @param chunkSize bytes per direct buffer; must hold the longest string stored
+	 */
+	public TextArena(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @return the address of the copied text, to pass to read() with length(text)
+	 */
+	public long append(byte[] utf8) {
+		if (utf8.length > chunkSize) {
+			throw new IllegalArgumentException("text of " + utf8.length + " bytes is larger than a chunk");
+		}
+		if (current == null || current.remaining() < utf8.length) {
+			current = ByteBuffer.allocateDirect(chunkSize);
+			chunks.add(current);
+		}
+		long address = (long) (chunks.size() - 1) * chunkSize + current.position();
+		current.put(utf8);
+		liveBytes += utf8.length;
+		return address;
+	}
+
+	/**
+	 * @param address as returned by append()
+	 * @param length the number of bytes appended
+	 */
+	public String read(long address, int length) {
+		return new String(bytes(address, length), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return a copy of the bytes at address
+	 */
+	public byte[] bytes(long address, int length) {
+		ByteBuffer chunk = chunks.get((int) (address / chunkSize));
+		int offset = (int) (address % chunkSize);
+		byte[] utf8 = new byte[length];
+		// absolute gets, so concurrent readers do not share a buffer position
+		for (int i = 0; i < length; i++) {
+			utf8[i] = chunk.get(offset + i);
+		}
+		return utf8;
+	}
+
+	/**
+	 * @return a read-only arena over the text written so far. Written bytes never change, so it
+	 * can be read without the owner's lock while the owner goes on appending or compacts into
+	 * a fresh arena; it keeps the chunks it covers alive until it is dropped.
+	 */
+	public TextArena frozenView() {
+		TextArena view = new TextArena(chunkSize);
+		view.chunks.addAll(chunks);
+		return view;
+	}
+
+	/**
+	 * marks length bytes as no longer referenced, so compaction knows how much it would reclaim
+	 */
+	public void release(int length) {
+		liveBytes -= length;
+	}
+
+	/**
+	 * copies one string into another arena, returning its address there
+	 */
+	public long copyTo(TextArena target, long address, int length) {
+		return target.append(bytes(address, length));
+	}
+
+	/**
+	 * @return bytes reserved off-heap
+	 */
+	public long capacityBytes() {
+		return (long) chunks.size() * chunkSize;
+	}
+
+	/**
+	 * @return bytes still referenced by live strings
+	 */
+	public long liveBytes() {
+		return liveBytes;
+	}
+
+	/**
+	 * @return bytes written, live or not
+	 */
+	public long usedBytes() {
+		return current == null ? 0 : (long) (chunks.size() - 1) * chunkSize + current.position();
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public static byte[] encode(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,90 @@
+package Util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * LEB128 variable-length integers: seven bits per byte, low bits first, with the high bit set on
+ * every byte but the last. Small values (ids stored as deltas, short lengths) take one or two
+ * bytes instead of four or eight. Signed values are zigzag-encoded first so that small negative
+ * numbers stay short too.
+ */
+public class Varint {
+
+	/**
+	 * the most bytes an encoded int can take
+	 */
+	public static final int MAX_INT_BYTES = 5;
+	/**
+	 * the most bytes an encoded long can take
+	 */
+	public static final int MAX_LONG_BYTES = 10;
+
+	/**
+	 * writes value as an unsigned varint
+	 */
+	public static void putInt(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	public static void putLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the buffer does not hold a well-formed varint
+	 */
+	public static int getInt(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("malformed varint");
+	}
+
+	public static long getLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("malformed varint");
+	}
+
+	/**
+	 * @return how many bytes putInt() writes for value
+	 */
+	public static int sizeOf(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * maps signed to unsigned so that values near zero encode short: 0, -1, 1, -2 become 0, 1, 2, 3
+	 */
+	public static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	public static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
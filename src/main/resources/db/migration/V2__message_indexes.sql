@@ -0,0 +1,5 @@
+-- a user's messages newest first: posted_by = ? is a range scan that comes back already sorted,
+-- and message_id breaks ties between messages posted in the same second
+create index if not exists idx_message_posted_by_time on message (posted_by, time_posted_epoch desc, message_id);
+-- global timelines and time-range filters, newest first
+create index if not exists idx_message_time_posted on message (time_posted_epoch desc);
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class BatchMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending POST localhost:8080/messages/batch with three messages, then
+     * GET localhost:8080/messages?ids= with their ids, an id that does not exist and a repeat
+     *
+     * Expected Response:
+     *  Status Code: 200, the created messages with consecutive new ids in the order sent, and then
+     *  one entry per requested id, null for the missing one
+     */
+    @Test
+    public void batchCreatedMessagesAreReadBackById() throws IOException, InterruptedException {
+        HttpResponse<String> created = post("/messages/batch", "["
+                + "{\"posted_by\":1,\"message_text\":\"first\",\"time_posted_epoch\":1669947800},"
+                + "{\"posted_by\":1,\"message_text\":\"second\",\"time_posted_epoch\":1669947801},"
+                + "{\"posted_by\":1,\"message_text\":\"third\",\"time_posted_epoch\":1669947802}]");
+        Assert.assertEquals(200, created.statusCode());
+        List<Message> messages = objectMapper.readValue(created.body(), new TypeReference<List<Message>>() {});
+        Assert.assertEquals(3, messages.size());
+        Assert.assertEquals(new Message(2, 1, "first", 1669947800L), messages.get(0));
+        Assert.assertEquals(new Message(3, 1, "second", 1669947801L), messages.get(1));
+        Assert.assertEquals(new Message(4, 1, "third", 1669947802L), messages.get(2));
+
+        HttpResponse<String> found = get("/messages?ids=4,100,1,4");
+        Assert.assertEquals(200, found.statusCode());
+        List<Message> byId = objectMapper.readValue(found.body(), new TypeReference<List<Message>>() {});
+        Assert.assertEquals(4, byId.size());
+        Assert.assertEquals(messages.get(2), byId.get(0));
+        Assert.assertNull(byId.get(1));
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792L), byId.get(2));
+        Assert.assertEquals(messages.get(2), byId.get(3));
+    }
+
+    /**
+     * Sending POST localhost:8080/messages/batch with one message by an account that does not
+     * exist, and one with a blank text
+     *
+     * Expected Response:
+     *  Status Code: 400 both times, and none of the valid messages in either batch is created
+     */
+    @Test
+    public void batchWithAnInvalidMessageCreatesNothing() throws IOException, InterruptedException {
+        Assert.assertEquals(400, post("/messages/batch", "["
+                + "{\"posted_by\":1,\"message_text\":\"valid\",\"time_posted_epoch\":1669947800},"
+                + "{\"posted_by\":99,\"message_text\":\"nobody\",\"time_posted_epoch\":1669947801}]").statusCode());
+        Assert.assertEquals(400, post("/messages/batch", "["
+                + "{\"posted_by\":1,\"message_text\":\"valid\",\"time_posted_epoch\":1669947800},"
+                + "{\"posted_by\":1,\"message_text\":\" \",\"time_posted_epoch\":1669947801}]").statusCode());
+        Assert.assertEquals(400, post("/messages/batch", "[]").statusCode());
+
+        List<Message> all = objectMapper.readValue(get("/messages").body(), new TypeReference<List<Message>>() {});
+        Assert.assertEquals(1, all.size());
+    }
+
+    /**
+     * Sending GET localhost:8080/messages?ids= with an id that is not a number, and with more ids
+     * than messages.maxBatchSize
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void badOrTooManyIdsAreRejected() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/messages?ids=1,two").statusCode());
+        Assert.assertEquals(400, get("/messages?ids=").statusCode());
+        StringBuilder ids = new StringBuilder("1");
+        for (int i = 2; i <= 101; i++) {
+            ids.append(',').append(i);
+        }
+        Assert.assertEquals(400, get("/messages?ids=" + ids).statusCode());
+    }
+
+    private HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,25 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.ConcurrentIntBitSet;
+
+public class ConcurrentIntBitSetTest {
+
+    /**
+     * Values added past the initial capacity should grow the bitmap and stay readable.
+     */
+    @Test
+    public void addedValuesAreFoundAfterGrowth() {
+        ConcurrentIntBitSet set = new ConcurrentIntBitSet(8);
+        Assert.assertTrue(set.add(3));
+        Assert.assertTrue(set.add(100000));
+        Assert.assertFalse(set.add(3));
+
+        Assert.assertTrue(set.contains(3));
+        Assert.assertTrue(set.contains(100000));
+        Assert.assertFalse(set.contains(4));
+        Assert.assertFalse(set.contains(-1));
+        Assert.assertFalse(set.contains(Integer.MAX_VALUE));
+        Assert.assertEquals(2, set.size());
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConditionalGetTest {
+    private static final String ADMIN_TOKEN = "test-admin-token";
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        // opens /admin/* and /metrics to requests sending it
+        System.setProperty("admin.token", ADMIN_TOKEN);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("admin.token");
+    }
+
+    /**
+     * Sending GET localhost:8080/messages/1 with If-None-Match set to the ETag of the last response
+     *
+     * Expected Response:
+     *  Status Code: 304 with an empty body and no cache lookup, until PATCH changes the message;
+     *  then 200 with the new text and a new ETag
+     */
+    @Test
+    public void messageIsNotModifiedUntilItChanges() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages/1", null);
+        Assert.assertEquals(200, first.statusCode());
+        String etag = first.headers().firstValue("ETag").orElse(null);
+        Assert.assertNotNull(etag);
+
+        long lookups = cacheLookups();
+        HttpResponse<String> unchanged = get("/messages/1", etag);
+        Assert.assertEquals(304, unchanged.statusCode());
+        Assert.assertEquals("", unchanged.body());
+        Assert.assertEquals(etag, unchanged.headers().firstValue("ETag").orElse(null));
+        // a list of tags, weak or not, matches if any of them is current
+        Assert.assertEquals(304, get("/messages/1", "\"other\", W/" + etag).statusCode());
+        Assert.assertEquals(lookups, cacheLookups());
+
+        HttpResponse<String> patched = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, patched.statusCode());
+
+        HttpResponse<String> changed = get("/messages/1", etag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertTrue(changed.body(), changed.body().contains("edited"));
+        Assert.assertNotEquals(etag, changed.headers().firstValue("ETag").orElse(null));
+    }
+
+    /**
+     * Sending GET localhost:8080/accounts/1/messages with If-None-Match, before and after
+     * POST localhost:8080/messages adds to the timeline
+     *
+     * Expected Response:
+     *  Status Code: 304 while nothing was posted, 200 with both messages afterwards
+     */
+    @Test
+    public void timelineIsNotModifiedUntilThePosterWrites() throws IOException, InterruptedException {
+        String etag = get("/accounts/1/messages", null).headers().firstValue("ETag").orElse(null);
+        Assert.assertEquals(304, get("/accounts/1/messages", etag).statusCode());
+
+        HttpResponse<String> posted = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1,\"message_text\":\"another\",\"time_posted_epoch\":1669947793}"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, posted.statusCode());
+
+        HttpResponse<String> changed = get("/accounts/1/messages", etag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertTrue(changed.body(), changed.body().contains("another"));
+    }
+
+    private HttpResponse<String> get(String path, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * @return hits and misses of the message cache, which every GET /messages/{message_id} that
+     * reaches MessageService goes through
+     */
+    private long cacheLookups() throws IOException, InterruptedException {
+        HttpResponse<String> caches = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/caches"))
+                .header("Authorization", "Bearer " + ADMIN_TOKEN)
+                .build(), HttpResponse.BodyHandlers.ofString());
+        JsonNode message = new ObjectMapper().readTree(caches.body()).get("message");
+        return message.get("hits").asLong() + message.get("misses").asLong();
+    }
+}
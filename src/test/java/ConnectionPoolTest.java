@@ -0,0 +1,148 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+import Util.ConnectionUnavailableException;
+import Util.ConnectionUtil;
+
+public class ConnectionPoolTest {
+    JdbcDataSource dataSource;
+    ConnectionPool pool;
+
+    /**
+     * Before every test, build a two-connection pool over a private in-memory database.
+     */
+    @Before
+    public void setUp() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        pool = new ConnectionPool(dataSource, 0, 2, 200, 60000, 0, 2, 60000, 4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    /**
+     * Closing a borrowed connection should hand the same physical connection to the next borrower.
+     */
+    @Test
+    public void closedConnectionsAreReused() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            Assert.assertTrue(connection.isValid(1));
+        }
+        try (Connection connection = pool.getConnection()) {
+            Assert.assertTrue(connection.isValid(1));
+        }
+
+        ConnectionPool.Stats stats = pool.getStats();
+        Assert.assertEquals(1, stats.getCreated());
+        Assert.assertEquals(2, stats.getBorrows());
+        Assert.assertEquals(0, stats.getActive());
+        Assert.assertEquals(1, stats.getIdle());
+    }
+
+    /**
+     * Borrowing past maxSize should fail after the acquisition timeout instead of opening more connections.
+     */
+    @Test
+    public void exhaustedPoolTimesOut() throws SQLException {
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        try {
+            pool.getConnection();
+            Assert.fail("expected the third borrow to time out");
+        } catch (SQLException e) {
+            Assert.assertEquals(1, pool.getStats().getTimeouts());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    /**
+     * Topping the idle connections back up to minIdle should not open more than maxSize
+     * connections in all while some are borrowed.
+     */
+    @Test
+    public void minIdleTopUpStaysWithinMaxSize() throws SQLException, InterruptedException {
+        ConnectionPool warm = new ConnectionPool(dataSource, 2, 2, 200, 60000, 0, 2, 50, 4);
+        try (Connection connection = warm.getConnection()) {
+            Thread.sleep(300);
+            ConnectionPool.Stats stats = warm.getStats();
+            Assert.assertEquals(1, stats.getActive());
+            Assert.assertEquals(1, stats.getIdle());
+            Assert.assertEquals(2, stats.getCreated());
+        } finally {
+            warm.close();
+        }
+    }
+
+    /**
+     * ConnectionUtil should turn an exhausted pool into ConnectionUnavailableException, which the
+     * controller answers with 503, rather than handing the DAO a null connection.
+     */
+    @Test
+    public void exhaustedPoolIsReportedAsUnavailable() throws SQLException {
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        try {
+            ConnectionUtil.getConnection(pool);
+            Assert.fail("expected the third borrow to fail");
+        } catch (ConnectionUnavailableException e) {
+            Assert.assertTrue(e.getCause() instanceof SQLTransientConnectionException);
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    /**
+     * Preparing the same SQL on a reused connection should be served from its statement cache.
+     */
+    @Test
+    public void repeatedStatementsHitTheCache() throws SQLException {
+        for (int i = 0; i < 3; i++) {
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement ps = connection.prepareStatement("SELECT ? + 1")) {
+                ps.setInt(1, i);
+                try (ResultSet rs = ps.executeQuery()) {
+                    Assert.assertTrue(rs.next());
+                    Assert.assertEquals(i + 1, rs.getInt(1));
+                }
+            }
+        }
+
+        ConnectionPool.Stats stats = pool.getStats();
+        Assert.assertEquals(1, stats.getStatementCacheMisses());
+        Assert.assertEquals(2, stats.getStatementCacheHits());
+    }
+
+    /**
+     * A connection reference kept after close() must not be usable any more.
+     */
+    @Test
+    public void returnedConnectionRejectsUse() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.close();
+        Assert.assertTrue(connection.isClosed());
+        try {
+            connection.createStatement();
+            Assert.fail("expected the returned connection to be unusable");
+        } catch (SQLException e) {
+            Assert.assertEquals(0, pool.getStats().getActive());
+        }
+    }
+}
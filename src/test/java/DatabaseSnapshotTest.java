@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import Controller.AppContext;
+import DAO.AccountDAO;
+import DAO.DatabaseSnapshot;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+
+public class DatabaseSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    AccountDAO accountDAO;
+    MessageDAO messageDAO;
+    DatabaseSnapshot snapshot;
+
+    /**
+     * Before every test, reset the database and add a second account with a few messages, one of
+     * them with non-ASCII text.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        accountDAO = new AccountDAO();
+        messageDAO = new MessageDAO();
+        snapshot = new DatabaseSnapshot(accountDAO, messageDAO);
+        accountDAO.createAccount(new Account("testuser2", "password2"));
+        messageDAO.createMessage(new Message(2, "second user's message", 1669947800L));
+        messageDAO.createMessage(new Message(1, "h\u00e9llo w\u00f6rld \u2713", 1669947700L));
+        messageDAO.deleteMessage(2);
+        messageDAO.createMessage(new Message(2, "after a gap in the ids", 1669947900L));
+    }
+
+    /**
+     * A dump restored over a changed database should bring back exactly the dumped rows, hand
+     * each of them to the consumers, and leave both id sequences past the restored ids and the
+     * constraints in place.
+     */
+    @Test
+    public void restoreBringsBackTheDumpedRows() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("db.bin");
+        List<Message> messages = messageDAO.getAllMessages();
+        DatabaseSnapshot.Stats dumped = snapshot.dump(file);
+        Assert.assertEquals(2, dumped.getAccounts());
+        Assert.assertEquals(3, dumped.getMessages());
+
+        messageDAO.deleteMessage(1);
+        messageDAO.createMessage(new Message(1, "not in the snapshot", 1669948000L));
+
+        List<Account> restoredAccounts = new ArrayList<>();
+        List<Message> restoredMessages = new ArrayList<>();
+        DatabaseSnapshot.Stats restored = snapshot.restore(file, restoredAccounts::add, restoredMessages::add);
+        Assert.assertEquals(2, restored.getAccounts());
+        Assert.assertEquals(3, restored.getMessages());
+        Assert.assertEquals(messages, messageDAO.getAllMessages());
+        Assert.assertEquals(messages, restoredMessages);
+        Assert.assertEquals(new Account(2, "testuser2", "password2"), accountDAO.getAccountById(2));
+        Assert.assertEquals(2, restoredAccounts.size());
+
+        Assert.assertEquals(5, messageDAO.createMessage(new Message(1, "next", 1669948001L)).getMessage_id());
+        Assert.assertEquals(3, accountDAO.createAccount(new Account("testuser3", "password3")).getAccount_id());
+        // the constraints dropped for the load are back
+        Assert.assertNull(accountDAO.createAccount(new Account("testuser2", "again")));
+        Assert.assertNull(messageDAO.createMessage(new Message(99, "no such account", 1669948002L)));
+    }
+
+    /**
+     * Starting on an empty database with snapshot.restoreFile set should restore it and build the
+     * search index from the same pass, without streaming the messages back out of H2.
+     */
+    @Test
+    public void startupRestoreFillsTheSearchIndex() throws IOException, SQLException {
+        Path file = folder.getRoot().toPath().resolve("db.bin");
+        snapshot.dump(file);
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("DELETE FROM message");
+            statement.execute("DELETE FROM account");
+        }
+
+        System.setProperty("snapshot.restoreFile", file.toString());
+        AppContext appContext = new AppContext();
+        try {
+            appContext.start();
+            Assert.assertEquals(3, messageDAO.getAllMessages().size());
+            List<Message> found = appContext.getMessageService().searchMessages("gap", 10);
+            Assert.assertEquals(1, found.size());
+            Assert.assertEquals("after a gap in the ids", found.get(0).getMessage_text());
+            Assert.assertTrue(appContext.getMetrics().scrape().contains(
+                "dao_query_seconds_count{dao=\"MessageDAO\",method=\"streamAllMessages\"} 0\n"));
+        } finally {
+            System.clearProperty("snapshot.restoreFile");
+            appContext.shutdown();
+        }
+    }
+
+    /**
+     * A restore that fails partway should roll back to the rows that were there before it.
+     */
+    @Test
+    public void failedRestoreLeavesTheDatabaseAsItWas() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("db.bin");
+        snapshot.dump(file);
+        messageDAO.createMessage(new Message(1, "not in the snapshot", 1669948000L));
+        List<Message> before = messageDAO.getAllMessages();
+        Assert.assertFalse(snapshot.databaseIsEmpty());
+
+        Assert.assertNull(snapshot.restore(file, account -> {}, message -> {
+            if (message.getMessage_id() > 1) {
+                throw new IllegalStateException("fails after the first message");
+            }
+        }));
+        Assert.assertEquals(before, messageDAO.getAllMessages());
+        Assert.assertEquals(new Account(2, "testuser2", "password2"), accountDAO.getAccountById(2));
+    }
+
+    /**
+     * A snapshot with a flipped byte should be refused before the database is touched.
+     */
+    @Test
+    public void damagedSnapshotIsRefused() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("db.bin");
+        snapshot.dump(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(10);
+            raf.write(raf.read() ^ 0xFF);
+        }
+        List<Message> before = messageDAO.getAllMessages();
+
+        Assert.assertNull(snapshot.restore(file, account -> {}, message -> {}));
+        Assert.assertEquals(before, messageDAO.getAllMessages());
+    }
+}
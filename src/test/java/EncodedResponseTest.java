@@ -0,0 +1,152 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class EncodedResponseTest {
+    private static final String ADMIN_TOKEN = "test-admin-token";
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        // opens /admin/* and /metrics to requests sending it
+        System.setProperty("admin.token", ADMIN_TOKEN);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("admin.token");
+    }
+
+    /**
+     * Sending GET localhost:8080/messages/1 twice, then again after PATCH localhost:8080/messages/1
+     *
+     * Expected Response:
+     *  The second GET is served from the response cache with the same body; after the PATCH the
+     *  new text is encoded, not the cached body
+     */
+    @Test
+    public void messageBodyIsReusedUntilItChanges() throws IOException, InterruptedException {
+        HttpResponse<byte[]> first = get("/messages/1", null);
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals("application/json", first.headers().firstValue("Content-Type").orElse(null));
+        long hits = responseCache().get("hits").asLong();
+
+        HttpResponse<byte[]> second = get("/messages/1", null);
+        Assert.assertArrayEquals(first.body(), second.body());
+        Assert.assertEquals(hits + 1, responseCache().get("hits").asLong());
+
+        HttpResponse<String> patched = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, patched.statusCode());
+
+        JsonNode changed = objectMapper.readTree(get("/messages/1", null).body());
+        Assert.assertEquals("edited", changed.get("message_text").asText());
+        // a message that does not exist is still 200 with an empty body
+        Assert.assertEquals(0, get("/messages/100", null).body().length);
+    }
+
+    /**
+     * Sending GET localhost:8080/accounts/1/messages?limit=20 with and without Accept-Encoding: gzip,
+     * once the page is long enough to be compressed
+     *
+     * Expected Response:
+     *  The gzip response is marked Content-Encoding: gzip, decompresses to the plain response,
+     *  keeps the X-Next-Before cursor of the full page, and has an ETag of its own; If-None-Match
+     *  with either tag answers 304
+     */
+    @Test
+    public void longPagesAreSentGzipped() throws IOException, InterruptedException {
+        for (int i = 0; i < 30; i++) {
+            HttpResponse<String> posted = webClient.send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1,\"message_text\":\"a message long enough"
+                        + " that a page of twenty goes over the gzip threshold " + i + "\",\"time_posted_epoch\":"
+                        + (1669947800L + i) + "}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(200, posted.statusCode());
+        }
+
+        HttpResponse<byte[]> plain = get("/accounts/1/messages?limit=20", null);
+        Assert.assertFalse(plain.headers().firstValue("Content-Encoding").isPresent());
+        Assert.assertEquals(20, objectMapper.readTree(plain.body()).size());
+
+        HttpResponse<byte[]> gzipped = get("/accounts/1/messages?limit=20", "gzip, deflate");
+        Assert.assertEquals(200, gzipped.statusCode());
+        Assert.assertEquals("gzip", gzipped.headers().firstValue("Content-Encoding").orElse(null));
+        Assert.assertTrue(gzipped.body().length < plain.body().length);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.body()))) {
+            Assert.assertEquals(new String(plain.body(), StandardCharsets.UTF_8),
+                new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(plain.headers().firstValue("X-Next-Before"), gzipped.headers().firstValue("X-Next-Before"));
+        Assert.assertTrue(gzipped.headers().firstValue("X-Next-Before").isPresent());
+
+        // each encoding has its own strong tag, and either one revalidates
+        String plainTag = plain.headers().firstValue("ETag").orElse(null);
+        String gzipTag = gzipped.headers().firstValue("ETag").orElse(null);
+        Assert.assertNotNull(plainTag);
+        Assert.assertEquals(plainTag.substring(0, plainTag.length() - 1) + "-gzip\"", gzipTag);
+        Assert.assertEquals(304, revalidate("/accounts/1/messages?limit=20", plainTag).statusCode());
+        Assert.assertEquals(304, revalidate("/accounts/1/messages?limit=20", gzipTag).statusCode());
+    }
+
+    private HttpResponse<byte[]> get(String path, String acceptEncoding) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if (acceptEncoding != null) {
+            request.header("Accept-Encoding", acceptEncoding);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpResponse<byte[]> revalidate(String path, String etag) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .header("Accept-Encoding", "gzip")
+                .header("If-None-Match", etag)
+                .build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private JsonNode responseCache() throws IOException, InterruptedException {
+        HttpResponse<byte[]> caches = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/caches"))
+                .header("Authorization", "Bearer " + ADMIN_TOKEN)
+                .build(), HttpResponse.BodyHandlers.ofByteArray());
+        return objectMapper.readTree(caches.body()).get("response");
+    }
+}
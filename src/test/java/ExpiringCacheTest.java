@@ -0,0 +1,98 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.ExpiringCache;
+
+public class ExpiringCacheTest {
+
+    /**
+     * A second lookup of the same key should be answered without calling the loader.
+     */
+    @Test
+    public void repeatedLookupIsServedFromCache() {
+        ExpiringCache<Integer, String> cache = new ExpiringCache<>(10, 60000, 60000);
+        AtomicInteger loads = new AtomicInteger();
+
+        Assert.assertEquals("v1", cache.get(1, key -> "v" + loads.incrementAndGet()));
+        Assert.assertEquals("v1", cache.get(1, key -> "v" + loads.incrementAndGet()));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(0.5, cache.getStats().getHitRatio(), 0.0001);
+    }
+
+    /**
+     * Missing keys are cached as well, until the key is invalidated.
+     */
+    @Test
+    public void missingKeysAreNegativelyCached() {
+        ExpiringCache<Integer, String> cache = new ExpiringCache<>(10, 60000, 60000);
+        AtomicInteger loads = new AtomicInteger();
+
+        Assert.assertNull(cache.get(7, key -> { loads.incrementAndGet(); return null; }));
+        Assert.assertNull(cache.get(7, key -> { loads.incrementAndGet(); return null; }));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, cache.getStats().getNegativeHits());
+
+        cache.invalidate(7);
+        Assert.assertEquals("found", cache.get(7, key -> "found"));
+    }
+
+    /**
+     * Once full, the least recently used entry makes room for the new one.
+     */
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        ExpiringCache<Integer, String> cache = new ExpiringCache<>(2, 60000, 60000);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.get(1, key -> "reloaded");
+        cache.put(3, "three");
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals("one", cache.get(1, key -> "reloaded"));
+        Assert.assertEquals("reloaded", cache.get(2, key -> "reloaded"));
+        Assert.assertTrue(cache.getStats().getEvictions() >= 1);
+    }
+
+    /**
+     * Entries older than the ttl are reloaded.
+     */
+    @Test
+    public void expiredEntriesAreReloaded() throws InterruptedException {
+        ExpiringCache<Integer, String> cache = new ExpiringCache<>(10, 20, 20);
+        cache.put(1, "old");
+        Thread.sleep(40);
+        Assert.assertEquals("new", cache.get(1, key -> "new"));
+        Assert.assertEquals(1, cache.getStats().getExpirations());
+    }
+
+    /**
+     * A load that raced with a write to another key is still cached; one that raced with a
+     * put or invalidate of its own key is returned but not kept.
+     */
+    @Test
+    public void onlyWritesToTheSameKeyDiscardAnInFlightLoad() {
+        ExpiringCache<Integer, String> cache = new ExpiringCache<>(10, 60000, 60000);
+        AtomicInteger loads = new AtomicInteger();
+        Assert.assertEquals("one", cache.get(1, key -> {
+            loads.incrementAndGet();
+            cache.put(2, "two");
+            cache.invalidate(3);
+            return "one";
+        }));
+        Assert.assertEquals("one", cache.get(1, key -> "reloaded"));
+
+        Assert.assertEquals("stale", cache.get(4, key -> {
+            cache.put(4, "fresh");
+            return "stale";
+        }));
+        Assert.assertEquals("fresh", cache.get(4, key -> "reloaded"));
+        Assert.assertEquals("stale", cache.get(5, key -> {
+            cache.invalidate(5);
+            return "stale";
+        }));
+        Assert.assertEquals("reloaded", cache.get(5, key -> "reloaded"));
+        Assert.assertEquals(1, loads.get());
+    }
+}
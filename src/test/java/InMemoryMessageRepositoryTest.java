@@ -0,0 +1,153 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.InMemoryMessageRepository;
+import DAO.MessageDAO;
+import DAO.MessageWriteBehind;
+import Model.Message;
+import Util.ConnectionUtil;
+
+public class InMemoryMessageRepositoryTest {
+    MessageDAO messageDAO;
+    MessageWriteBehind writeBehind;
+    InMemoryMessageRepository store;
+
+    /**
+     * Before every test, reset the database and load it into a store that writes back to H2 in batches of 16.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new MessageDAO();
+        writeBehind = new MessageWriteBehind(1000, 16, 5, 50);
+        store = new InMemoryMessageRepository(writeBehind, 4096);
+        Assert.assertEquals(1, store.load(messageDAO));
+    }
+
+    @After
+    public void tearDown() {
+        store.shutdown();
+    }
+
+    /**
+     * Writes should be visible in memory right away and reach H2 once the write-behind has flushed.
+     */
+    @Test
+    public void writesAreReplayedIntoH2() throws InterruptedException {
+        Message created = store.createMessage(new Message(1, "in memory", 1669947800L));
+        Assert.assertEquals(2, created.getMessage_id());
+        Assert.assertEquals(created, store.getMessageById(2));
+
+        Message updated = store.updateMessageText(1, "edited in memory");
+        Assert.assertEquals(new Message(1, 1, "edited in memory", 1669947792L), updated);
+        Assert.assertEquals(created, store.deleteMessage(2));
+        Assert.assertNull(store.getMessageById(2));
+        Assert.assertNull(store.deleteMessage(2));
+
+        Assert.assertTrue(writeBehind.awaitFlushed(5000));
+        Assert.assertEquals(store.getAllMessages(), messageDAO.getAllMessages());
+
+        // H2's own id sequence was moved past the ids the store handed out, deleted ones included
+        Message fromH2 = messageDAO.createMessage(new Message(1, "straight to h2", 1669947801L));
+        Assert.assertEquals(3, fromH2.getMessage_id());
+    }
+
+    /**
+     * With H2 unreachable and the write-behind queue full, a write should be turned away before
+     * the store applies it, and go through again once H2 catches up.
+     */
+    @Test
+    public void fullQueueRejectsTheWrite() throws InterruptedException {
+        store.shutdown();
+        writeBehind = new MessageWriteBehind(1, 16, 5, 50);
+        store = new InMemoryMessageRepository(writeBehind, 4096);
+        Assert.assertEquals(1, store.load(messageDAO));
+
+        List<Connection> held = new ArrayList<>();
+        try {
+            // the writer takes the first change and waits for a connection; the second fills the queue
+            while (held.size() < ConnectionUtil.getPoolStats().getMaxSize()) {
+                held.add(ConnectionUtil.getConnection());
+            }
+            store.createMessage(new Message(1, "being written", 1669947800L));
+            Thread.sleep(100);
+            store.createMessage(new Message(1, "queued", 1669947801L));
+            try {
+                store.createMessage(new Message(1, "turned away", 1669947802L));
+                Assert.fail("expected the write to be rejected");
+            } catch (RejectedExecutionException e) {
+                Assert.assertEquals(1, store.getStats().getWriteBehindRejected());
+            }
+            Assert.assertEquals(3, store.getAllMessages().size());
+            Assert.assertNull(store.getMessageById(4));
+        } finally {
+            for (Connection connection : held) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+
+        Assert.assertEquals(4, store.createMessage(new Message(1, "after", 1669947803L)).getMessage_id());
+        Assert.assertTrue(writeBehind.awaitFlushed(10000));
+        Assert.assertEquals(store.getAllMessages(), messageDAO.getAllMessages());
+    }
+
+    /**
+     * Timelines come back newest first and page with the same cursor rules as MessageDAO.
+     */
+    @Test
+    public void timelinesMatchTheDao() throws InterruptedException {
+        long[] times = {1669947795L, 1669947793L, 1669947794L, 1669947794L, 1669947790L};
+        for (long time : times) {
+            store.createMessage(new Message(1, "timeline " + time, time));
+        }
+        Assert.assertTrue(writeBehind.awaitFlushed(5000));
+
+        Assert.assertEquals(messageDAO.getMessagesByUser(1), store.getMessagesByUser(1));
+        Assert.assertEquals(messageDAO.getMessagesByUser(1, 1669947794L, 4, 2),
+            store.getMessagesByUser(1, 1669947794L, 4, 2));
+        Assert.assertEquals(messageDAO.getMessagesByUser(1, 1669947794L, Integer.MAX_VALUE, 10),
+            store.getMessagesByUser(1, 1669947794L, Integer.MAX_VALUE, 10));
+        Assert.assertTrue(store.getMessagesByUser(2).isEmpty());
+    }
+
+    /**
+     * Deleting most rows and editing text past the compaction thresholds keeps every survivor readable.
+     */
+    @Test
+    public void compactionKeepsLiveMessages() {
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            batch.add(new Message(1, "message " + i, 1669947800L + i));
+        }
+        List<Message> created = store.createMessages(batch);
+        for (int i = 0; i < created.size(); i++) {
+            if (i % 3 != 0) {
+                store.deleteMessage(created.get(i).getMessage_id());
+            } else {
+                store.updateMessageText(created.get(i).getMessage_id(), "edited message " + i);
+            }
+        }
+
+        Assert.assertEquals(1001, store.size());
+        // tombstones were squeezed out along the way
+        Assert.assertTrue(store.getStats().getDeletedRows() < 1024);
+        Assert.assertEquals("edited message 2997", store.getMessageById(created.get(2997).getMessage_id()).getMessage_text());
+        Assert.assertEquals(1001, store.getMessagesByUser(1).size());
+        Assert.assertEquals(created.get(2997).getMessage_id(), store.getMessagesByUser(1).get(0).getMessage_id());
+        List<Message> page = store.getMessagesAfter(created.get(2).getMessage_id(), 2);
+        Assert.assertEquals(created.get(3).getMessage_id(), page.get(0).getMessage_id());
+        Assert.assertEquals(created.get(6).getMessage_id(), page.get(1).getMessage_id());
+    }
+}
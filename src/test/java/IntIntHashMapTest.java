@@ -0,0 +1,36 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.IntIntHashMap;
+
+public class IntIntHashMapTest {
+
+    /**
+     * A long run of random puts and removes should leave the map agreeing with a HashMap.
+     */
+    @Test
+    public void matchesHashMapUnderRandomUpdates() {
+        IntIntHashMap map = new IntIntHashMap(4);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals((int) expected.getOrDefault(key, IntIntHashMap.MISSING), map.remove(key));
+                expected.remove(key);
+            } else {
+                int value = random.nextInt(Integer.MAX_VALUE);
+                Assert.assertEquals((int) expected.getOrDefault(key, IntIntHashMap.MISSING), map.put(key, value));
+                expected.put(key, value);
+            }
+        }
+        Assert.assertEquals(expected.size(), map.size());
+        for (int key = -1000; key < 1000; key++) {
+            Assert.assertEquals((int) expected.getOrDefault(key, IntIntHashMap.MISSING), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageBatchWriter;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.AccountIdIndex;
+import Service.MessageService;
+import Service.PendingWriteException;
+import Util.ConnectionUtil;
+
+public class MessageBatchWriterTest {
+    MessageDAO messageDAO;
+    MessageBatchWriter batchWriter;
+
+    /**
+     * Before every test, reset the database and start a writer that waits up to 50ms to fill a batch of 8.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new MessageDAO();
+        batchWriter = new MessageBatchWriter(messageDAO, 100, 8, 50);
+    }
+
+    @After
+    public void tearDown() {
+        batchWriter.shutdown();
+    }
+
+    /**
+     * Messages submitted together should be written in a few batches and each get its own generated id.
+     */
+    @Test
+    public void queuedMessagesAreGroupCommitted() {
+        List<CompletableFuture<Message>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(batchWriter.submit(new Message(1, "batched " + i, 1669947800L + i)));
+        }
+
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < futures.size(); i++) {
+            Message created = futures.get(i).join();
+            Assert.assertEquals("batched " + i, created.getMessage_text());
+            Assert.assertEquals(created, messageDAO.getMessageById(created.getMessage_id()));
+            ids.add(created.getMessage_id());
+        }
+        Assert.assertEquals(20, ids.size());
+
+        MessageBatchWriter.Stats stats = batchWriter.getStats();
+        Assert.assertEquals(20, stats.getMessages());
+        Assert.assertTrue(stats.getBatches() < 20);
+    }
+
+    /**
+     * A message that violates the foreign key should fail on its own without sinking the rest of its batch.
+     */
+    @Test
+    public void badMessageDoesNotFailItsBatch() {
+        CompletableFuture<Message> good = batchWriter.submit(new Message(1, "good", 1669947800L));
+        CompletableFuture<Message> bad = batchWriter.submit(new Message(404, "bad", 1669947801L));
+
+        Assert.assertNotNull(good.join());
+        Assert.assertNull(bad.join());
+        Assert.assertEquals(1, batchWriter.getStats().getFallbacks());
+    }
+
+    /**
+     * Once stopped the writer should reject new messages instead of queueing them.
+     */
+    @Test(expected = RejectedExecutionException.class)
+    public void stoppedWriterRejects() {
+        batchWriter.shutdown();
+        batchWriter.submit(new Message(1, "too late", 1669947800L));
+    }
+
+    /**
+     * Messages submitted while the writer shuts down should each be written or failed, never left
+     * waiting on a future nobody completes.
+     */
+    @Test
+    public void shutdownCompletesEveryAcceptedMessage() throws InterruptedException {
+        List<CompletableFuture<Message>> futures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread submitter = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    try {
+                        futures.add(batchWriter.submit(new Message(1, "racing " + i, 1669947800L + i)));
+                    } catch (RejectedExecutionException e) {
+                        // full or stopped
+                    }
+                }
+            });
+            submitters.add(submitter);
+            submitter.start();
+        }
+        batchWriter.shutdown();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        for (CompletableFuture<Message> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            } catch (TimeoutException e) {
+                Assert.fail("a submitted message was never completed");
+            }
+        }
+    }
+
+    /**
+     * A message whose batch commits after createMessage gave up waiting should still reach the
+     * timeline cache and the search index, and the caller should not be told to retry.
+     */
+    @Test
+    public void lateBatchStillUpdatesTheCaches() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        MessageDAO slowDAO = new MessageDAO() {
+            @Override
+            public List<Message> createMessages(List<Message> messages) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.createMessages(messages);
+            }
+        };
+        MessageBatchWriter slowWriter = new MessageBatchWriter(slowDAO, 100, 8, 0);
+        System.setProperty("messages.groupCommit.timeoutMillis", "100");
+        try {
+            AccountDAO accountDAO = new AccountDAO();
+            MessageService messageService = new MessageService(slowDAO, accountDAO, new AccountIdIndex(accountDAO),
+                slowWriter);
+            Assert.assertEquals(1, messageService.getMessagesByUser(1).size());
+            try {
+                messageService.createMessage(new Message(1, "committed late", 1669947800L));
+                Assert.fail("expected the wait to time out");
+            } catch (PendingWriteException e) {
+                // the message is still queued
+            }
+
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (messageService.getMessagesByUser(1).size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals("committed late", messageService.getMessagesByUser(1).get(0).getMessage_text());
+            Assert.assertEquals(1, messageService.searchMessages("late", 10).size());
+        } finally {
+            System.clearProperty("messages.groupCommit.timeoutMillis");
+            release.countDown();
+            slowWriter.shutdown();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import DAO.InMemoryMessageRepository;
+import DAO.MessageWal;
+import Model.Message;
+
+public class MessageWalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    List<InMemoryMessageRepository> stores = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (InMemoryMessageRepository store : stores) {
+            store.shutdown();
+        }
+    }
+
+    /**
+     * opens the log in the temporary folder (4 KB segments) and recovers a store from it
+     */
+    private InMemoryMessageRepository open(MessageWal.FsyncPolicy policy) throws IOException {
+        MessageWal wal = new MessageWal(folder.getRoot().toPath(), 4096, policy, 5);
+        InMemoryMessageRepository store = new InMemoryMessageRepository(wal, 4096);
+        store.recover(wal);
+        stores.add(store);
+        return store;
+    }
+
+    /**
+     * Creates, edits and deletes should all come back after the log is reopened, across several
+     * segments, and new ids should carry on from the recovered ones.
+     */
+    @Test
+    public void changesSurviveReopening() throws IOException {
+        InMemoryMessageRepository store = open(MessageWal.FsyncPolicy.WRITE);
+        for (int i = 0; i < 300; i++) {
+            store.createMessage(new Message(1 + i % 3, "message " + i, 1669947792L + i));
+        }
+        store.updateMessageText(5, "edited");
+        store.deleteMessage(7);
+        List<Message> before = store.getAllMessages();
+        Assert.assertTrue(((MessageWal) store.getSink()).getStats().getSegments() > 1);
+        store.shutdown();
+
+        InMemoryMessageRepository reopened = open(MessageWal.FsyncPolicy.WRITE);
+        Assert.assertEquals(before, reopened.getAllMessages());
+        Assert.assertEquals("edited", reopened.getMessageById(5).getMessage_text());
+        Assert.assertNull(reopened.getMessageById(7));
+        Assert.assertEquals(301, reopened.createMessage(new Message(1, "after restart", 1669948000L)).getMessage_id());
+    }
+
+    /**
+     * A record torn by a crash should be dropped on recovery, keeping everything before it, and
+     * the log should carry on appending where the good records end.
+     */
+    @Test
+    public void tornTailIsDiscarded() throws IOException {
+        InMemoryMessageRepository store = open(MessageWal.FsyncPolicy.WRITE);
+        store.createMessage(new Message(1, "first", 1669947792L));
+        store.createMessage(new Message(1, "second", 1669947793L));
+        long end = ((MessageWal) store.getSink()).position();
+        store.shutdown();
+
+        // flip a byte inside the last record, as if the crash came halfway through writing it
+        File segment = folder.getRoot().listFiles((dir, name) -> name.startsWith("wal-"))[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(end - 2);
+            file.write(file.read() ^ 0xFF);
+        }
+
+        InMemoryMessageRepository reopened = open(MessageWal.FsyncPolicy.WRITE);
+        Assert.assertEquals(1, reopened.size());
+        Assert.assertEquals("first", reopened.getMessageById(1).getMessage_text());
+        reopened.createMessage(new Message(1, "third", 1669947794L));
+        reopened.shutdown();
+
+        Assert.assertEquals(2, open(MessageWal.FsyncPolicy.WRITE).size());
+    }
+
+    /**
+     * Snapshots written while another thread keeps creating, editing and deleting (enough to
+     * compact the rows and the text arena) should each match their log position, so reopening
+     * recovers exactly the final state.
+     */
+    @Test
+    public void snapshotsDuringWritesRecoverTheSameState() throws IOException, InterruptedException {
+        InMemoryMessageRepository store = open(MessageWal.FsyncPolicy.INTERVAL);
+        MessageWal wal = (MessageWal) store.getSink();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 3000; i++) {
+                Message created = store.createMessage(new Message(1, "message " + i, 1669947792L + i));
+                if (i % 3 == 0) {
+                    store.updateMessageText(created.getMessage_id(), "edited " + i);
+                }
+                if (i % 2 == 0) {
+                    store.deleteMessage(created.getMessage_id());
+                }
+            }
+        });
+        writer.start();
+        int snapshots = 0;
+        while (writer.isAlive() || snapshots == 0) {
+            wal.writeSnapshot(store.snapshotSource(wal));
+            snapshots++;
+        }
+        writer.join();
+        List<Message> before = store.getAllMessages();
+        store.shutdown();
+
+        InMemoryMessageRepository reopened = open(MessageWal.FsyncPolicy.INTERVAL);
+        Assert.assertEquals(1500, before.size());
+        Assert.assertEquals(before, reopened.getAllMessages());
+    }
+
+    /**
+     * A snapshot should let the segments before it be deleted, and recovery should start from it.
+     */
+    @Test
+    public void snapshotsReplaceOldSegments() throws IOException {
+        InMemoryMessageRepository store = open(MessageWal.FsyncPolicy.INTERVAL);
+        MessageWal wal = (MessageWal) store.getSink();
+        for (int i = 0; i < 300; i++) {
+            store.createMessage(new Message(1, "message " + i, 1669947792L + i));
+        }
+        int segmentsBefore = wal.getStats().getSegments();
+        wal.writeSnapshot(store.snapshotSource(wal));
+        Assert.assertTrue(wal.getStats().getSegments() < segmentsBefore);
+        store.deleteMessage(1);
+        store.updateMessageText(2, "after the snapshot");
+        List<Message> before = store.getAllMessages();
+        store.shutdown();
+
+        InMemoryMessageRepository reopened = open(MessageWal.FsyncPolicy.INTERVAL);
+        Assert.assertEquals(before, reopened.getAllMessages());
+        Assert.assertEquals(2, ((MessageWal) reopened.getSink()).getStats().getRecoveredRecords());
+    }
+
+    /**
+     * Under group commit, concurrent writers should share forces and every write should be durable
+     * by the time it returns.
+     */
+    @Test
+    public void groupCommitSharesForces() throws Exception {
+        InMemoryMessageRepository store = open(MessageWal.FsyncPolicy.GROUP);
+        MessageWal wal = (MessageWal) store.getSink();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 50; i++) {
+                    store.createMessage(new Message(1, "grouped", 1669947792L));
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        MessageWal.Stats stats = wal.getStats();
+        Assert.assertEquals(400, stats.getAppends());
+        Assert.assertEquals(stats.getPosition(), stats.getDurablePosition());
+        Assert.assertTrue(stats.getForces() < stats.getAppends());
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import io.javalin.Javalin;
+
+public class MetricsTest {
+    private static final String ADMIN_TOKEN = "test-admin-token";
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        // opens /admin/* and /metrics to requests sending it
+        System.setProperty("admin.token", ADMIN_TOKEN);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("admin.token");
+    }
+
+    /**
+     * Percentiles should come back within the histogram's 12.5% precision, whatever the scale.
+     */
+    @Test
+    public void histogramPercentilesAreWithinItsPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        histogram.record(5_000_000_000L);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        Assert.assertEquals(1001, snapshot.getCount());
+        assertNear(500_000, snapshot.valueAt(0.5));
+        assertNear(990_000, snapshot.valueAt(0.99));
+        assertNear(5_000_000_000L, snapshot.valueAt(1.0));
+        Assert.assertEquals(0, new LatencyHistogram().snapshot().valueAt(0.5));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/1, then GET localhost:8080/metrics
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the request timed under its route template, the DAO call behind it, and
+     *  the pool and JVM gauges
+     */
+    @Test
+    public void metricsExposeRouteAndQueryTimings() throws IOException, InterruptedException {
+        Assert.assertEquals(200, get("/messages/1").statusCode());
+        Assert.assertEquals(200, get("/messages/1").statusCode());
+        Assert.assertEquals(200, get("/accounts/1/messages").statusCode());
+
+        HttpResponse<String> response = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .header("Authorization", "Bearer " + ADMIN_TOKEN)
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        String body = response.body();
+        Assert.assertTrue(body, body.contains(
+                "http_server_requests_seconds_count{method=\"GET\",route=\"/messages/{message_id}\",status=\"200\"} 2\n"));
+        Assert.assertTrue(body, body.contains(
+                "http_server_requests_seconds{method=\"GET\",route=\"/accounts/{account_id}/messages\",status=\"200\",quantile=\"0.99\"}"));
+        // the second lookup is served from the encoded response cache
+        Assert.assertTrue(body, body.contains(
+                "dao_query_seconds_count{dao=\"MessageDAO\",method=\"getMessageById\"} 1\n"));
+        Assert.assertTrue(body, body.contains("dao_query_rows_total{dao=\"MessageDAO\",method=\"getMessageById\"} 1\n"));
+        Assert.assertTrue(body, body.contains("cache_response_hits 1\n"));
+        Assert.assertTrue(body, body.contains("pool_max_size "));
+        Assert.assertTrue(body, body.contains("jvm_gc_collections_total{gc="));
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static void assertNear(long expected, long actual) {
+        Assert.assertTrue(expected + " vs " + actual, Math.abs(actual - expected) <= expected / 8);
+    }
+}
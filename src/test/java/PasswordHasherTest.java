@@ -0,0 +1,92 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import Model.Account;
+import Service.AccountIdIndex;
+import Service.AccountService;
+import Util.ConnectionUtil;
+import Util.PasswordHasher;
+
+public class PasswordHasherTest {
+
+    /**
+     * Hashes are salted, verify only the right password, and need a rehash once the cost changes.
+     */
+    @Test
+    public void hashesAreSaltedAndCarryTheirCost() {
+        PasswordHasher hasher = new PasswordHasher(1000);
+        String first = hasher.hash("password");
+        String second = hasher.hash("password");
+
+        Assert.assertTrue(first.startsWith("pbkdf2$1000$"));
+        Assert.assertNotEquals(first, second);
+        Assert.assertTrue(hasher.verify("password", first));
+        Assert.assertFalse(hasher.verify("Password", first));
+        Assert.assertFalse(hasher.needsRehash(first));
+
+        PasswordHasher stronger = new PasswordHasher(2000);
+        Assert.assertTrue(stronger.verify("password", first));
+        Assert.assertTrue(stronger.needsRehash(first));
+        // legacy plaintext still verifies, and always needs a rehash
+        Assert.assertTrue(stronger.verify("password", "password"));
+        Assert.assertTrue(stronger.needsRehash("password"));
+        Assert.assertFalse(stronger.verify("password", "pbkdf2$2000$not base64!$x"));
+    }
+
+    /**
+     * Logging in with a plaintext or lower-cost password should replace it with a hash at the
+     * current cost, and registration should never store the password itself.
+     */
+    @Test
+    public void loginRehashesAtTheCurrentCost() {
+        ConnectionUtil.resetTestDatabase();
+        AccountDAO accountDAO = new AccountDAO();
+        AccountService weak = new AccountService(accountDAO, new AccountIdIndex(accountDAO), new PasswordHasher(1000), null);
+        AccountService strong = new AccountService(accountDAO, new AccountIdIndex(accountDAO), new PasswordHasher(2000), null);
+
+        // testuser1 is seeded with a plaintext password
+        Assert.assertEquals(new Account(1, "testuser1", "password"), weak.login(new Account("testuser1", "password")));
+        Assert.assertTrue(accountDAO.getAccountById(1).getPassword().startsWith("pbkdf2$1000$"));
+
+        Assert.assertEquals(new Account(1, "testuser1", "password"), strong.login(new Account("testuser1", "password")));
+        String upgraded = accountDAO.getAccountById(1).getPassword();
+        Assert.assertTrue(upgraded.startsWith("pbkdf2$2000$"));
+        Assert.assertNull(strong.login(new Account("testuser1", "wrong")));
+        Assert.assertEquals(upgraded, accountDAO.getAccountById(1).getPassword());
+
+        Assert.assertEquals(new Account(2, "user", "secret"), strong.registerAccount(new Account("user", "secret")));
+        Assert.assertTrue(strong.getPasswordHasher().verify("secret", accountDAO.getAccountById(2).getPassword()));
+        Assert.assertNull(strong.login(new Account("nobody", "secret")));
+    }
+
+    /**
+     * With its one thread busy and its queue full, the hashing executor should reject more work
+     * straight away instead of making callers wait.
+     */
+    @Test
+    public void fullHashingExecutorRejects() throws InterruptedException {
+        ExecutorService executor = PasswordHasher.newExecutor(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            executor.execute(() -> {});
+            AccountDAO accountDAO = new AccountDAO();
+            AccountService service = new AccountService(accountDAO, new AccountIdIndex(accountDAO), new PasswordHasher(1000), executor);
+            Assert.assertThrows(RejectedExecutionException.class, () -> service.login(new Account("testuser1", "password")));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionUtil;
+import Util.QueryProfiler;
+
+public class QueryProfilerTest {
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Every execution should be counted under its SQL with its binds and rows, and with a zero
+     * threshold every statement is slow, so each gets an EXPLAIN plan.
+     */
+    @Test
+    public void executionsAreRecordedWithBindsRowsAndPlans() throws SQLException {
+        QueryProfiler profiler = new QueryProfiler(0, 60000, 100);
+        String select = "SELECT * FROM message WHERE posted_by = ? AND message_id > ?";
+        String update = "UPDATE message SET message_text = ? WHERE message_id = ?";
+        try (Connection connection = profiler.wrap(ConnectionUtil.getConnection(), 5000)) {
+            for (int i = 0; i < 2; i++) {
+                try (PreparedStatement statement = connection.prepareStatement(select)) {
+                    statement.setInt(1, 1);
+                    statement.setInt(2, 0);
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            rs.getString("message_text");
+                        }
+                    }
+                }
+            }
+            try (PreparedStatement statement = connection.prepareStatement(update)) {
+                statement.setString(1, "profiled");
+                statement.setInt(2, 1);
+                Assert.assertEquals(1, statement.executeUpdate());
+            }
+        }
+
+        List<QueryProfiler.QueryStats> queries = profiler.getStats(10).getQueries();
+        Assert.assertEquals(2, queries.size());
+        QueryProfiler.QueryStats selects = find(queries, select);
+        Assert.assertEquals(2, selects.getExecutions());
+        Assert.assertEquals(2, selects.getRows());
+        Assert.assertEquals(4, selects.getBinds());
+        Assert.assertEquals(2, selects.getSlow());
+        // the borrow wait is charged once, to the first statement
+        Assert.assertEquals(5, selects.getWaitMicros());
+        Assert.assertTrue(selects.getPlan(), selects.getPlan().toUpperCase().contains("SELECT"));
+
+        QueryProfiler.QueryStats updates = find(queries, update);
+        Assert.assertEquals(1, updates.getRows());
+        Assert.assertEquals(0, updates.getWaitMicros());
+        Assert.assertTrue(updates.getPlan(), updates.getPlan().toUpperCase().contains("UPDATE"));
+        Assert.assertEquals(3, profiler.getStats(10).getSlowQueries());
+        Assert.assertEquals(1, profiler.getStats(1).getQueries().size());
+    }
+
+    private static QueryProfiler.QueryStats find(List<QueryProfiler.QueryStats> queries, String sql) {
+        for (QueryProfiler.QueryStats query : queries) {
+            if (query.getSql().equals(sql)) {
+                return query;
+            }
+        }
+        throw new AssertionError("not profiled: " + sql);
+    }
+}
@@ -0,0 +1,97 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.ReplicaSet;
+
+public class ReplicaSetTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    ReplicaSet replicas;
+    MessageDAO messageDAO;
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        replicas = new ReplicaSet(ConnectionUtil::getConnection,
+            "jdbc:h2:" + folder.getRoot().getAbsolutePath() + "/replica-%d;", 2, 10, 60000, 100);
+        replicas.start();
+        messageDAO = new MessageDAO(ConnectionUtil::getConnection, replicas);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        ReplicaSet.clearReadFloor();
+        replicas.shutdown();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            ReplicaSet.uninstallChangeLog(connection);
+        }
+    }
+
+    /**
+     * Replicas should start as a copy of the primary and serve reads, while the author of a new
+     * message reads from the primary until the message has been shipped to a replica.
+     */
+    @Test
+    public void writesAreShippedAndTheirAuthorReadsThemBack() throws InterruptedException {
+        Assert.assertEquals("test message 1", messageDAO.getMessageById(1).getMessage_text());
+        Assert.assertEquals(1, replicas.getStats().getReplicaReads());
+
+        Message created = messageDAO.createMessage(new Message(1, "replicated", 1669947800L));
+        long floor = replicas.lastWrite(1, 0);
+        Assert.assertNotEquals(0, floor);
+        ReplicaSet.setReadFloor(floor);
+        // right after the write or once shipped, the author sees it either way
+        Assert.assertEquals(2, messageDAO.getMessagesByUser(1).size());
+
+        awaitShipped(floor);
+        long replicaReads = replicas.getStats().getReplicaReads();
+        Assert.assertEquals(2, messageDAO.getMessagesByUser(1).size());
+        Assert.assertEquals(replicaReads + 1, replicas.getStats().getReplicaReads());
+
+        messageDAO.updateMessageText(created.getMessage_id(), "edited");
+        messageDAO.deleteMessage(1);
+        awaitShipped(replicas.lastWrite(1, created.getMessage_id()));
+        Assert.assertEquals("edited", messageDAO.getMessageById(created.getMessage_id()).getMessage_text());
+        Assert.assertEquals(1, messageDAO.getMessagesByUser(1).size());
+        Assert.assertEquals(0, replicas.getStats().getShipFailures());
+    }
+
+    /**
+     * A replica that has not been caught up within the staleness bound is passed over.
+     */
+    @Test
+    public void staleReplicasAreNotRead() {
+        ReplicaSet unseeded = new ReplicaSet(ConnectionUtil::getConnection,
+            "jdbc:h2:" + folder.getRoot().getAbsolutePath() + "/stale-%d;", 1, 10, 60000, 100);
+        try {
+            Assert.assertNull(unseeded.pick());
+            Assert.assertEquals(1, unseeded.getStats().getStaleReads());
+            Assert.assertEquals("test message 1",
+                new MessageDAO(ConnectionUtil::getConnection, unseeded).getMessageById(1).getMessage_text());
+        } finally {
+            unseeded.shutdown();
+        }
+    }
+
+    /**
+     * waits until every replica is caught up past floor, which is when the write stops pending
+     */
+    private void awaitShipped(long floor) throws InterruptedException {
+        ReplicaSet.setReadFloor(floor);
+        for (int i = 0; i < 500 && replicas.getStats().getPendingWrites() > 0; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, replicas.getStats().getPendingWrites());
+    }
+}
@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesPageTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add four more messages, restart the Javalin app, and create a new
+     * webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        addMessages(4);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages with several messages in the db
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of every message, in message_id order
+     */
+    @Test
+    public void getAllMessagesStreamsEveryRow() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("http://localhost:8080/messages");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(5, actualResult.size());
+        for (int i = 0; i < actualResult.size(); i++) {
+            Assert.assertEquals(i + 1, actualResult.get(i).getMessage_id());
+        }
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?after=1&limit=2
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages 2 and 3, with X-Next-After pointing at message 3
+     */
+    @Test
+    public void getMessagesPageFollowsCursor() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("http://localhost:8080/messages?after=1&limit=2");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("3", response.headers().firstValue("X-Next-After").orElse(null));
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "page message 1", 1669947793));
+        expectedResult.add(new Message(3, 1, "page message 2", 1669947794));
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+
+        HttpResponse<String> lastPage = get("http://localhost:8080/messages?after=3&limit=2");
+        List<Message> lastResult = objectMapper.readValue(lastPage.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(2, lastResult.size());
+        Assert.assertEquals(5, lastResult.get(1).getMessage_id());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?after=5 past the last message
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of an empty list and no X-Next-After header
+     */
+    @Test
+    public void getMessagesPagePastEnd() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("http://localhost:8080/messages?after=5");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("X-Next-After").isPresent());
+
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertTrue(actualResult.isEmpty());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=abc
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getMessagesPageInvalidLimit() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("http://localhost:8080/messages?limit=abc");
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    private HttpResponse<String> get(String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void addMessages(int count) {
+        try (Connection conn = ConnectionUtil.getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)")) {
+            for (int i = 1; i <= count; i++) {
+                ps.setString(1, "page message " + i);
+                ps.setLong(2, 1669947792L + i);
+                ps.executeUpdate();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveUserTimelinePageTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add four more messages for user 1 (two of them posted in the same
+     * second), restart the Javalin app, and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        addMessages(1669947793L, 1669947794L, 1669947794L, 1669947795L);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: every message of the user, newest first, ties broken by message_id
+     */
+    @Test
+    public void getTimelineNewestFirst() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("http://localhost:8080/accounts/1/messages");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(5, 1, "timeline message 4", 1669947795));
+        expectedResult.add(new Message(3, 1, "timeline message 2", 1669947794));
+        expectedResult.add(new Message(4, 1, "timeline message 3", 1669947794));
+        expectedResult.add(new Message(2, 1, "timeline message 1", 1669947793));
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, read(response));
+    }
+
+    /**
+     * Sending http requests to GET localhost:8080/accounts/1/messages?limit=2 and following X-Next-Before
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: pages [5, 3], [4, 2] and [1], the last without an X-Next-Before header
+     */
+    @Test
+    public void getTimelinePagesFollowCursor() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("http://localhost:8080/accounts/1/messages?limit=2");
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals(ids(5, 3), ids(read(first)));
+        String cursor = first.headers().firstValue("X-Next-Before").orElse(null);
+        Assert.assertEquals("1669947794:3", cursor);
+
+        HttpResponse<String> second = get("http://localhost:8080/accounts/1/messages?limit=2&before=" + cursor);
+        Assert.assertEquals(ids(4, 2), ids(read(second)));
+        cursor = second.headers().firstValue("X-Next-Before").orElse(null);
+
+        HttpResponse<String> last = get("http://localhost:8080/accounts/1/messages?limit=2&before=" + cursor);
+        Assert.assertEquals(ids(1), ids(read(last)));
+        Assert.assertFalse(last.headers().firstValue("X-Next-Before").isPresent());
+    }
+
+    /**
+     * Reading a timeline, posting a message and deleting another, then reading it again
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the new message first and the deleted one gone
+     */
+    @Test
+    public void getTimelineSeesWrites() throws IOException, InterruptedException {
+        Assert.assertEquals(ids(5, 3), ids(read(get("http://localhost:8080/accounts/1/messages?limit=2"))));
+
+        HttpRequest post = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1,"
+                        + "\"message_text\": \"newest\",\"time_posted_epoch\": 1669947799}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(post, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/5"))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        Assert.assertEquals(ids(6, 3), ids(read(get("http://localhost:8080/accounts/1/messages?limit=2"))));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages?before=abc
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getTimelineInvalidCursor() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("http://localhost:8080/accounts/1/messages?before=abc").statusCode());
+    }
+
+    private HttpResponse<String> get(String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> read(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private static List<Integer> ids(Integer... ids) {
+        return List.of(ids);
+    }
+
+    private static List<Integer> ids(List<Message> messages) {
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getMessage_id());
+        }
+        return ids;
+    }
+
+    private void addMessages(long... times) {
+        try (Connection conn = ConnectionUtil.getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)")) {
+            for (int i = 0; i < times.length; i++) {
+                ps.setString(1, "timeline message " + (i + 1));
+                ps.setLong(2, times[i]);
+                ps.executeUpdate();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Util.ConnectionUtil;
+import Util.SchemaMigrator;
+
+public class SchemaMigrationTest {
+
+    /**
+     * Before every test, reset the database, which also re-applies the migrations.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Running the migrations again should find nothing left to do.
+     */
+    @Test
+    public void migrationsAreOnlyAppliedOnce() throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            Assert.assertEquals(2, SchemaMigrator.currentVersion(connection));
+            Assert.assertEquals(0, SchemaMigrator.migrate(connection));
+        }
+    }
+
+    /**
+     * A user's messages should be read from the composite index in order, without a sort step.
+     */
+    @Test
+    public void messagesByUserUseThePostedByIndex() throws SQLException {
+        String plan = explain(MessageDAO.MESSAGES_BY_USER_SQL, 1);
+        Assert.assertTrue(plan, plan.contains("IDX_MESSAGE_POSTED_BY_TIME: POSTED_BY = ?1"));
+        Assert.assertTrue(plan, plan.contains("index sorted"));
+    }
+
+    /**
+     * Both timeline page queries, the first page and a keyset page after a cursor, should seek in
+     * the composite index and stop at the limit without sorting.
+     */
+    @Test
+    public void timelinePagesUseThePostedByIndex() throws SQLException {
+        String plan = explain(MessageDAO.TIMELINE_FIRST_PAGE_SQL, 1, 20);
+        Assert.assertTrue(plan, plan.contains("IDX_MESSAGE_POSTED_BY_TIME: POSTED_BY = ?1"));
+        Assert.assertTrue(plan, plan.contains("index sorted"));
+
+        plan = explain(MessageDAO.TIMELINE_PAGE_BEFORE_SQL, 1, 1669947792L, 1669947792L, 1, 20);
+        Assert.assertTrue(plan, plan.contains("IDX_MESSAGE_POSTED_BY_TIME: POSTED_BY = ?1"));
+        Assert.assertTrue(plan, plan.contains("TIME_POSTED_EPOCH <= ?2"));
+        Assert.assertTrue(plan, plan.contains("index sorted"));
+    }
+
+    /**
+     * Newest-first reads across all users should walk the time index instead of sorting the table.
+     */
+    @Test
+    public void timelineUsesTheTimeIndex() throws SQLException {
+        String plan = explain("SELECT * FROM message ORDER BY time_posted_epoch DESC LIMIT 20");
+        Assert.assertTrue(plan, plan.contains("IDX_MESSAGE_TIME_POSTED"));
+        Assert.assertTrue(plan, plan.contains("index sorted"));
+
+        plan = explain("SELECT * FROM message WHERE time_posted_epoch > 1669947792");
+        Assert.assertTrue(plan, plan.contains("IDX_MESSAGE_TIME_POSTED: TIME_POSTED_EPOCH >"));
+    }
+
+    private String explain(String sql, Object... parameters) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                preparedStatement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                Assert.assertTrue(rs.next());
+                return rs.getString(1);
+            }
+        }
+    }
+}
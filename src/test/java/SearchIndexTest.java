@@ -0,0 +1,98 @@
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Model.Message;
+import Service.SearchIndex;
+
+public class SearchIndexTest {
+    SearchIndex index;
+
+    /**
+     * Before every test, index four messages; message 4 is the newest although message 3 has the higher id
+     * among the "latency" ones.
+     */
+    @Before
+    public void setUp() {
+        index = new SearchIndex();
+        index.add(new Message(1, 1, "Low latency matters", 1669947792L));
+        index.add(new Message(2, 1, "latency, not throughput", 1669947793L));
+        index.add(new Message(3, 2, "throughput matters more than latency", 1669947791L));
+        index.add(new Message(4, 2, "Latent bugs", 1669947799L));
+    }
+
+    /**
+     * Words must all match, phrases must match in order, prefixes expand, and results come newest first.
+     */
+    @Test
+    public void queriesMatchAndRankByRecency() {
+        Assert.assertArrayEquals(new int[] {2, 1, 3}, index.search("LATENCY", 10));
+        Assert.assertArrayEquals(new int[] {1, 3}, index.search("latency matters", 10));
+        Assert.assertArrayEquals(new int[] {1}, index.search("\"latency matters\"", 10));
+        Assert.assertArrayEquals(new int[] {4, 2, 1, 3}, index.search("laten*", 10));
+        Assert.assertArrayEquals(new int[] {4, 2}, index.search("laten*", 2));
+        Assert.assertArrayEquals(new int[] {2}, index.search("\"latency not thr*\"", 10));
+        Assert.assertArrayEquals(new int[0], index.search("nothing", 10));
+        Assert.assertArrayEquals(new int[0], index.search("!!!", 10));
+    }
+
+    /**
+     * Edits and deletes should be reflected right away, including for older messages gaining a term,
+     * and lists rewritten once mostly stale should still answer correctly.
+     */
+    @Test
+    public void writesAreAppliedIncrementally() {
+        index.update(new Message(1, 0, "bugs everywhere", 0));
+        Assert.assertArrayEquals(new int[] {2, 3}, index.search("latency", 10));
+        Assert.assertArrayEquals(new int[] {4, 1}, index.search("bugs", 10));
+
+        index.remove(4);
+        Assert.assertArrayEquals(new int[] {1}, index.search("bugs", 10));
+
+        index.update(new Message(1, 0, "low latency matters again", 0));
+        Assert.assertArrayEquals(new int[] {2, 1, 3}, index.search("latency", 10));
+        Assert.assertArrayEquals(new int[0], index.search("bugs", 10));
+
+        for (int id = 5; id < 200; id++) {
+            index.add(new Message(id, 1, "bulk latency " + id, 1669947800L + id));
+        }
+        for (int id = 5; id < 150; id++) {
+            index.remove(id);
+        }
+        Assert.assertEquals(53, index.search("latency", 1000).length);
+        Assert.assertEquals(53, index.getStats().getMessages());
+        Assert.assertTrue(index.getStats().getStaleEntries() < index.getStats().getPostingEntries());
+    }
+
+    /**
+     * Older messages gaining a term through edits, in any order and past the point where the side
+     * list is folded into the posting list, should be found alongside the appended ones, once each.
+     */
+    @Test
+    public void editsAddingTermsToOlderMessagesAreFound() {
+        for (int id = 5; id < 400; id++) {
+            index.add(new Message(id, 1, "filler " + id, 1669947800L + id));
+        }
+        index.add(new Message(400, 1, "edited", 1669948200L));
+        for (int id = 399; id >= 5; id -= 2) {
+            index.update(new Message(id, 0, "edited " + id, 0));
+        }
+        // take the term away from some and give it back to a few of those
+        for (int id = 399; id >= 300; id -= 2) {
+            index.update(new Message(id, 0, "filler again", 0));
+        }
+        for (int id = 399; id >= 350; id -= 2) {
+            index.update(new Message(id, 0, "edited once more", 0));
+        }
+
+        int[] found = index.search("edited", 1000);
+        Assert.assertEquals(1 + 25 + 148, found.length);
+        Assert.assertEquals(400, found[0]);
+        Assert.assertEquals(399, found[1]);
+        Assert.assertEquals(351, found[25]);
+        Assert.assertEquals(299, found[26]);
+        Assert.assertEquals(5, found[found.length - 1]);
+        Assert.assertArrayEquals(new int[] {299}, index.search("edited 299", 10));
+        Assert.assertEquals(25, index.search("\"edited once\"", 1000).length);
+    }
+}
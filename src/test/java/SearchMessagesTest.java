@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SearchMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=test message
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the seeded message, which was indexed at startup
+     */
+    @Test
+    public void searchFindsExistingMessages() throws IOException, InterruptedException {
+        HttpResponse<String> response = search("test message");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, read(response));
+    }
+
+    /**
+     * Messages created, edited and deleted through the API should be searchable right away.
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the new message while it matches, nothing once it is edited away or deleted
+     */
+    @Test
+    public void searchFollowsWrites() throws IOException, InterruptedException {
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1,\"message_text\":\"searchable words here\",\"time_posted_epoch\":1669947800}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(postRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "searchable words here", 1669947800));
+        Assert.assertEquals(expectedResult, read(search("\"searchable words\"")));
+        Assert.assertEquals(expectedResult, read(search("search*")));
+
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\":\"different text\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(new ArrayList<Message>(), read(search("searchable")));
+        Assert.assertEquals(1, read(search("different")).size());
+
+        HttpRequest deleteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(new ArrayList<Message>(), read(search("different")));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=ranked after posting three
+     * matching messages whose ids and post times are in different orders
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the three messages newest first, not in id order
+     */
+    @Test
+    public void searchKeepsTheRankingOrder() throws IOException, InterruptedException {
+        long[] times = {1669947800L, 1669947900L, 1669947850L};
+        for (long time : times) {
+            HttpRequest postRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1,\"message_text\":\"ranked " + time
+                        + "\",\"time_posted_epoch\":" + time + "}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            Assert.assertEquals(200, webClient.send(postRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(3, 1, "ranked 1669947900", 1669947900L));
+        expectedResult.add(new Message(4, 1, "ranked 1669947850", 1669947850L));
+        expectedResult.add(new Message(2, 1, "ranked 1669947800", 1669947800L));
+        Assert.assertEquals(expectedResult, read(search("ranked")));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search without a q
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void searchWithoutQueryIsRejected() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/search"))
+                .build();
+        Assert.assertEquals(400, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private HttpResponse<String> search(String query) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/search?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8)))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> read(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {});
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Service.SessionTokens;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SessionTokenTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Tokens verify until they expire or are revoked; a token with a changed payload, or one
+     * signed with another key, never does.
+     */
+    @Test
+    public void tokensAreSignedExpireAndCanBeRevoked() {
+        byte[] secret = new byte[32];
+        AtomicLong now = new AtomicLong(1000);
+        SessionTokens tokens = new SessionTokens(secret, 60, now::get);
+        String token = tokens.issue(7);
+        Assert.assertEquals(7, tokens.verify(token));
+
+        byte[] otherSecret = Arrays.copyOf(secret, 32);
+        otherSecret[0] = 1;
+        Assert.assertEquals(-1, new SessionTokens(otherSecret, 60, now::get).verify(token));
+        char[] tampered = token.toCharArray();
+        tampered[3] = tampered[3] == 'A' ? 'B' : 'A';
+        Assert.assertEquals(-1, tokens.verify(new String(tampered)));
+        Assert.assertEquals(-1, tokens.verify("not a token"));
+
+        String other = tokens.issue(7);
+        Assert.assertTrue(tokens.revoke(token));
+        Assert.assertEquals(-1, tokens.verify(token));
+        Assert.assertEquals(7, tokens.verify(other));
+
+        now.set(1060);
+        Assert.assertEquals(-1, tokens.verify(other));
+        Assert.assertFalse(tokens.revoke(other));
+    }
+
+    /**
+     * Logging in hands out a token. With it, posting as another account is forbidden, posting
+     * as yourself works, and after POST /logout the token is refused with an empty 401.
+     */
+    @Test
+    public void loginIssuesATokenThatLogoutRevokes() throws IOException, InterruptedException {
+        String token = login();
+        Assert.assertNotNull(token);
+
+        Assert.assertEquals(403, postMessage(token, 2).statusCode());
+        Assert.assertEquals(200, postMessage(token, 1).statusCode());
+        // without a token, and with auth.enforce off, requests are not checked
+        Assert.assertEquals(200, postMessage(null, 1).statusCode());
+
+        HttpResponse<String> logout = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/logout"))
+                .header("Authorization", "Bearer " + token)
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, logout.statusCode());
+
+        HttpResponse<String> refused = postMessage(token, 1);
+        Assert.assertEquals(401, refused.statusCode());
+        Assert.assertEquals("", refused.body());
+    }
+
+    /**
+     * With auth.enforce on, changing messages needs a token while reading them does not.
+     */
+    @Test
+    public void enforcedAuthNeedsATokenToWrite() throws IOException, InterruptedException {
+        app.stop();
+        System.setProperty("auth.enforce", "true");
+        try {
+            app = new SocialMediaController().startAPI();
+            app.start(8080);
+            Thread.sleep(1000);
+
+            Assert.assertEquals(401, postMessage(null, 1).statusCode());
+            Assert.assertEquals(200, postMessage(login(), 1).statusCode());
+            HttpResponse<String> read = webClient.send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/1"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(200, read.statusCode());
+        } finally {
+            System.clearProperty("auth.enforce");
+        }
+    }
+
+    /**
+     * /admin/* and /metrics are 404 until admin.token is set, and then need it as the bearer
+     * token: no token, a wrong one or a session token is a 401.
+     */
+    @Test
+    public void adminRoutesNeedTheAdminToken() throws IOException, InterruptedException {
+        Assert.assertEquals(404, admin("GET", "/metrics", null).statusCode());
+        Assert.assertEquals(404, admin("POST", "/admin/snapshot", null).statusCode());
+
+        app.stop();
+        System.setProperty("admin.token", "test-admin-token");
+        try {
+            app = new SocialMediaController().startAPI();
+            app.start(8080);
+            Thread.sleep(1000);
+
+            Assert.assertEquals(401, admin("POST", "/admin/snapshot", null).statusCode());
+            Assert.assertEquals(401, admin("GET", "/admin/pool", "wrong-token").statusCode());
+            Assert.assertEquals(401, admin("GET", "/metrics", login()).statusCode());
+            Assert.assertEquals(200, admin("GET", "/admin/pool", "test-admin-token").statusCode());
+            Assert.assertEquals(200, admin("GET", "/metrics", "test-admin-token").statusCode());
+        } finally {
+            System.clearProperty("admin.token");
+        }
+    }
+
+    private HttpResponse<String> admin(String method, String path, String token) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.noBody());
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String login() throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"testuser1\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return response.headers().firstValue("X-Session-Token").orElse(null);
+    }
+
+    private HttpResponse<String> postMessage(String token, int postedBy) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":" + postedBy + ", " +
+                        "\"message_text\": \"hello with a token\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json");
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
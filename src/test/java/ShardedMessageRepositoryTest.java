@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import DAO.ShardedMessageRepository;
+import Model.Message;
+
+public class ShardedMessageRepositoryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    ShardedMessageRepository shards;
+
+    @Before
+    public void setUp() {
+        shards = new ShardedMessageRepository("jdbc:h2:" + folder.getRoot().getAbsolutePath() + "/shard-%d;", 4);
+    }
+
+    @After
+    public void tearDown() {
+        shards.shutdown();
+    }
+
+    /**
+     * Every message should land on its poster's shard with an id that names that shard, and be
+     * found again by id and by poster.
+     */
+    @Test
+    public void messagesAreRoutedByPosterAndIdsEncodeTheirShard() {
+        List<Message> created = new ArrayList<>();
+        for (int posted_by = 1; posted_by <= 20; posted_by++) {
+            created.add(shards.createMessage(new Message(posted_by, "from " + posted_by, 1000 + posted_by)));
+        }
+        boolean[] used = new boolean[4];
+        for (Message message : created) {
+            int shard = shards.shardOf(message.getPosted_by());
+            used[shard] = true;
+            Assert.assertEquals(shard, shards.shardOfId(message.getMessage_id()));
+            Assert.assertEquals(message, shards.getMessageById(message.getMessage_id()));
+            Assert.assertEquals(Arrays.asList(message), shards.getMessagesByUser(message.getPosted_by()));
+        }
+        Assert.assertArrayEquals(new boolean[] { true, true, true, true }, used);
+
+        Message first = created.get(0);
+        Assert.assertEquals("edited", shards.updateMessageText(first.getMessage_id(), "edited").getMessage_text());
+        Assert.assertEquals(first.getMessage_id(), shards.deleteMessage(first.getMessage_id()).getMessage_id());
+        Assert.assertNull(shards.getMessageById(first.getMessage_id()));
+    }
+
+    /**
+     * Reads over every shard should come back merged in message_id order, whole or a page at a
+     * time, a batch insert should return the messages in the order they were given, and a
+     * lookup of many ids should find them on whichever shards hold them.
+     */
+    @Test
+    public void scatterGatherMergesShardsInIdOrder() {
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            batch.add(new Message(i % 13 + 1, "message " + i, 1000 + i));
+        }
+        List<Message> created = shards.createMessages(batch);
+        Assert.assertEquals(100, created.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("message " + i, created.get(i).getMessage_text());
+        }
+
+        List<Message> all = shards.getAllMessages();
+        Assert.assertEquals(100, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            Assert.assertTrue(all.get(i - 1).getMessage_id() < all.get(i).getMessage_id());
+        }
+
+        List<Message> page = shards.getMessagesAfter(all.get(9).getMessage_id(), 25);
+        Assert.assertEquals(all.subList(10, 35), page);
+
+        List<Message> streamed = new ArrayList<>();
+        Assert.assertEquals(100, shards.streamAllMessages(streamed::add));
+        Assert.assertEquals(all, streamed);
+
+        // one lookup by id per shard holding any of them; unknown ids are left out
+        int[] ids = { all.get(0).getMessage_id(), all.get(57).getMessage_id(), all.get(99).getMessage_id() + 1000 };
+        List<Message> found = shards.getMessagesByIds(ids);
+        found.sort(Comparator.comparingInt(Message::getMessage_id));
+        Assert.assertEquals(Arrays.asList(all.get(0), all.get(57)), found);
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Message;
+import Service.TimelineCache;
+
+public class TimelineCacheTest {
+
+    /**
+     * Pages inside the cached messages should be answered without calling the loader again,
+     * and a page past them should be handed back to the caller.
+     */
+    @Test
+    public void pagesInsideTheBufferAreServedFromMemory() {
+        TimelineCache cache = new TimelineCache(10, 3);
+        AtomicInteger loads = new AtomicInteger();
+        IntFunction<List<Message>> loader = accountId -> {
+            loads.incrementAndGet();
+            return Arrays.asList(message(5, 500), message(4, 400), message(3, 300), message(2, 200));
+        };
+
+        Assert.assertEquals(ids(5, 4), ids(cache.getPage(1, null, 0, 2, loader)));
+        Assert.assertEquals(ids(3), ids(cache.getPage(1, 400L, 4, 1, loader)));
+        Assert.assertNull(cache.getPage(1, 400L, 4, 2, loader));
+        Assert.assertNull(cache.getAll(1, loader));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    /**
+     * New messages are slotted in by time, edits replace the cached copy and deletes remove it.
+     */
+    @Test
+    public void writesArePatchedIntoTheBuffer() {
+        TimelineCache cache = new TimelineCache(10, 3);
+        IntFunction<List<Message>> loader = accountId -> new ArrayList<>(Arrays.asList(message(2, 200), message(1, 100)));
+        Assert.assertEquals(ids(2, 1), ids(cache.getAll(1, loader)));
+
+        cache.onCreate(message(3, 300));
+        cache.onCreate(message(4, 150));
+        cache.onUpdate(new Message(2, 1, "edited", 200));
+        Assert.assertEquals(ids(3, 2, 4), ids(cache.getPage(1, null, 0, 3, loader)));
+        Assert.assertEquals("edited", cache.getPage(1, null, 0, 3, loader).get(1).getMessage_text());
+        // the buffer overflowed, so it no longer knows the whole timeline
+        Assert.assertNull(cache.getAll(1, loader));
+
+        cache.onDelete(message(3, 300));
+        Assert.assertEquals(ids(2, 4), ids(cache.getPage(1, null, 0, 2, loader)));
+    }
+
+    /**
+     * After a delete the buffer has room, but a backdated message older than all of it must not
+     * be appended: the database still holds messages between the buffer's tail and it, and
+     * paging through the timeline has to reach them.
+     */
+    @Test
+    public void backdatedMessageAfterADeleteDoesNotSkipOlderRows() {
+        TimelineCache cache = new TimelineCache(10, 3);
+        List<Message> database = new ArrayList<>(Arrays.asList(
+            message(5, 500), message(4, 400), message(3, 300), message(2, 200)));
+        IntFunction<List<Message>> loader = accountId -> new ArrayList<>(database);
+        Assert.assertEquals(ids(5, 4), ids(cache.getPage(1, null, 0, 2, loader)));
+
+        database.remove(1);
+        cache.onDelete(message(4, 400));
+        database.add(message(6, 100));
+        cache.onCreate(message(6, 100));
+
+        // page through one at a time, falling back to the database as the service does
+        List<Integer> seen = new ArrayList<>();
+        Long beforeTime = null;
+        int beforeId = Integer.MAX_VALUE;
+        while (true) {
+            List<Message> page = cache.getPage(1, beforeTime, beforeId, 1, loader);
+            if (page == null) {
+                page = new ArrayList<>();
+                for (Message message : database) {
+                    if (beforeTime == null || message.getTime_posted_epoch() < beforeTime) {
+                        page.add(message);
+                    }
+                }
+                page = page.subList(0, Math.min(1, page.size()));
+            }
+            page.forEach(message -> seen.add(message.getMessage_id()));
+            if (page.isEmpty()) {
+                break;
+            }
+            Message last = page.get(page.size() - 1);
+            beforeTime = last.getTime_posted_epoch();
+            beforeId = last.getMessage_id();
+        }
+        Assert.assertEquals(ids(5, 3, 2, 6), seen);
+    }
+
+    /**
+     * A load that raced with a write to the same account is used once but not kept.
+     */
+    @Test
+    public void loadRacingAWriteIsNotCached() {
+        TimelineCache cache = new TimelineCache(10, 3);
+        AtomicInteger loads = new AtomicInteger();
+        IntFunction<List<Message>> loader = accountId -> {
+            if (loads.incrementAndGet() == 1) {
+                cache.onCreate(message(9, 900));
+            }
+            return new ArrayList<>();
+        };
+
+        Assert.assertTrue(cache.getAll(1, loader).isEmpty());
+        Assert.assertTrue(cache.getAll(1, loader).isEmpty());
+        Assert.assertEquals(2, loads.get());
+    }
+
+    private static Message message(int id, long time) {
+        return new Message(id, 1, "message " + id, time);
+    }
+
+    private static List<Integer> ids(Integer... ids) {
+        return Arrays.asList(ids);
+    }
+
+    private static List<Integer> ids(List<Message> messages) {
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getMessage_id());
+        }
+        return ids;
+    }
+}